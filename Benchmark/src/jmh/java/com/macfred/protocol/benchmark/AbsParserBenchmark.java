@@ -0,0 +1,92 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.parser.AbsParser;
+import com.macfred.protocol.parser.PacketBufferPool;
+import com.macfred.protocol.parser.PacketView;
+import com.macfred.protocol.parser.PacketViewReceiver;
+import com.macfred.protocol.parser.PooledPacket;
+import com.macfred.protocol.parser.PooledPacketReceiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a 1 MB stream per operation, fed in 4 KB chunks, either copying every packet out, copying it into a
+ * pooled packet or delivering views.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AbsParserBenchmark {
+    private static final int STREAM_SIZE = 1 << 20;
+    private static final int CHUNK_SIZE = 4096;
+
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    @Param({"0", "10", "50"})
+    public int garbagePercent;
+
+    private byte[] mStream;
+    private AbsParser mAbsParser;
+    private final AbsParser.ProcessReport mProcessReport = new AbsParser.ProcessReport();
+    private int mViewChecksum;
+    private final PacketViewReceiver mViewReceiver = new PacketViewReceiver() {
+        @Override
+        public void onNewPacket(PacketView packet) {
+            mViewChecksum += packet.get(packet.length() - 1);
+        }
+    };
+    private final PacketBufferPool mPacketBufferPool = new PacketBufferPool();
+    private final PooledPacketReceiver mPooledReceiver = new PooledPacketReceiver() {
+        @Override
+        public void onNewPacket(PooledPacket packet) {
+            mViewChecksum += packet.get(packet.length() - 1);
+            packet.release();
+        }
+    };
+
+    @Setup
+    public void setup() {
+        mStream = BenchmarkPackets.stream(payloadSize, garbagePercent, STREAM_SIZE, 1);
+        mAbsParser = new AbsParser(64 * 1024, new BenchmarkPackets());
+    }
+
+    @Benchmark
+    public int parseCopying() {
+        int packets = 0;
+        for (int start = 0; start < mStream.length; start += CHUNK_SIZE) {
+            mAbsParser.receive(mStream, start, Math.min(CHUNK_SIZE, mStream.length - start));
+            packets += mAbsParser.tryParsePackets(0, mProcessReport).packetsFound;
+        }
+        return packets;
+    }
+
+    @Benchmark
+    public int parseViews() {
+        int packets = 0;
+        for (int start = 0; start < mStream.length; start += CHUNK_SIZE) {
+            mAbsParser.receive(mStream, start, Math.min(CHUNK_SIZE, mStream.length - start));
+            packets += mAbsParser.tryParsePackets(0, mProcessReport, mViewReceiver).packetsFound;
+        }
+        return packets + mViewChecksum;
+    }
+
+    @Benchmark
+    public int parsePooled() {
+        int packets = 0;
+        for (int start = 0; start < mStream.length; start += CHUNK_SIZE) {
+            mAbsParser.receive(mStream, start, Math.min(CHUNK_SIZE, mStream.length - start));
+            packets += mAbsParser.tryParsePackets(0, mProcessReport, mPacketBufferPool, mPooledReceiver).packetsFound;
+        }
+        return packets + mViewChecksum;
+    }
+}
@@ -0,0 +1,101 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.parser.AdvancedParser;
+import com.macfred.protocol.parser.PacketBatch;
+import com.macfred.protocol.parser.PacketBatchReceiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Producers push 1 KB chunks of 64 byte packets into an {@link AdvancedParser} whose drain stage runs on its own
+ * thread. {@code contended} has four producers on a locked parser, {@code singleProducer} one producer on a
+ * single producer/single consumer parser. Score is chunks received, packets delivered are counted separately.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AdvancedParserBenchmark {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PACKETS_PER_CHUNK = 16;
+    private static final int PAYLOAD_SIZE = 59;
+
+    @State(Scope.Group)
+    public static class LockedParser extends ParserState {
+        @Param({"BlockAndWait", "DropOldest", "DropLatestHead", "DropLatestTail"})
+        public AdvancedParser.CongestionPolicy congestionPolicy;
+
+        @Setup
+        public void setup() {
+            start(AdvancedParser.ConcurrencyMode.Locked, congestionPolicy);
+        }
+    }
+
+    @State(Scope.Group)
+    public static class SpscParser extends ParserState {
+        @Param({"BlockAndWait", "DropOldest", "DropLatestHead", "DropLatestTail"})
+        public AdvancedParser.CongestionPolicy congestionPolicy;
+
+        @Setup
+        public void setup() {
+            start(AdvancedParser.ConcurrencyMode.SingleProducerSingleConsumer, congestionPolicy);
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public void receiveContended(LockedParser state) {
+        state.mAdvancedParser.receive(state.mChunk, 0, state.mChunk.length);
+    }
+
+    @Benchmark
+    @Group("singleProducer")
+    @GroupThreads(1)
+    public void receiveSingleProducer(SpscParser state) {
+        state.mAdvancedParser.receive(state.mChunk, 0, state.mChunk.length);
+    }
+
+    public abstract static class ParserState {
+        AdvancedParser mAdvancedParser;
+        byte[] mChunk;
+        final AtomicLong mPacketsDelivered = new AtomicLong();
+
+        void start(AdvancedParser.ConcurrencyMode concurrencyMode, AdvancedParser.CongestionPolicy congestionPolicy) {
+            Random random = new Random(1);
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            for (int i = 0; i < PACKETS_PER_CHUNK; i++) {
+                byte[] packet = BenchmarkPackets.packet(PAYLOAD_SIZE, random);
+                chunk.write(packet, 0, packet.length);
+            }
+            mChunk = chunk.toByteArray();
+            mAdvancedParser = new AdvancedParser(BUFFER_SIZE, new BenchmarkPackets(), concurrencyMode);
+            mAdvancedParser.setCongestionPolicy(congestionPolicy);
+            mAdvancedParser.setPacketBatchReceiver(new PacketBatchReceiver() {
+                @Override
+                public void onPackets(PacketBatch batch) {
+                    mPacketsDelivered.addAndGet(batch.size());
+                }
+            });
+            mAdvancedParser.start();
+        }
+
+        @TearDown
+        public void stop() {
+            mAdvancedParser.stop();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.FieldDescription;
+import com.macfred.protocol.FrameEncodingDescriptor;
+import com.macfred.protocol.HeaderMagicDescriptor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Packet layout shared by the benchmarks: header 0xAA 0x55, big endian 16 bit packet size at offset 2, payload,
+ * then a one byte sum of all preceding bytes.
+ */
+public class BenchmarkPackets implements HeaderMagicDescriptor, FrameEncodingDescriptor {
+    public static final int HEADER_LENGTH = 4;
+    public static final int MAX_PACKET_SIZE = 4096 + HEADER_LENGTH + 1;
+
+    private static final byte HEADER_0 = (byte) 0xAA;
+    private static final byte HEADER_1 = 0x55;
+
+    private final FieldDescription mHeaderDescription = new FieldDescription(0, 2);
+    private final FieldDescription mPacketSizeDescription = new FieldDescription(2, 2);
+
+    @Override
+    public int getPacketMaxSize() {
+        return MAX_PACKET_SIZE;
+    }
+
+    @Override
+    public FieldDescription getHeaderDescription() {
+        return mHeaderDescription;
+    }
+
+    @Override
+    public boolean verifyHeader(byte[] bytes, int start) {
+        return bytes[start] == HEADER_0 && bytes[start + 1] == HEADER_1;
+    }
+
+    @Override
+    public FieldDescription getPacketSizeDescription() {
+        return mPacketSizeDescription;
+    }
+
+    @Override
+    public int decodePacketSize(byte[] bytes, int start) {
+        int size = ((bytes[start] & 0xFF) << 8) | (bytes[start + 1] & 0xFF);
+        return size < HEADER_LENGTH + 1 || size > MAX_PACKET_SIZE ? HEADER_LENGTH + 1 : size;
+    }
+
+    @Override
+    public boolean verifyAndAcceptPacket(byte[] bytes, int start, int length) {
+        byte sum = 0;
+        for (int i = start, end = start + length - 1; i < end; i++) {
+            sum += bytes[i];
+        }
+        return sum == bytes[start + length - 1];
+    }
+
+    @Override
+    public byte[] getHeaderMagic() {
+        return new byte[]{HEADER_0, HEADER_1};
+    }
+
+    @Override
+    public int getPayloadOffset() {
+        return HEADER_LENGTH;
+    }
+
+    @Override
+    public int getTrailerLength() {
+        return 1;
+    }
+
+    @Override
+    public void encodeHeader(ByteBuffer frame, int start) {
+        frame.put(start, HEADER_0);
+        frame.put(start + 1, HEADER_1);
+    }
+
+    @Override
+    public void encodePacketSize(ByteBuffer frame, int start, int packetSize) {
+        frame.putShort(start + 2, (short) packetSize);
+    }
+
+    @Override
+    public void encodeTrailer(ByteBuffer frame, int start, int packetSize) {
+        byte sum = 0;
+        for (int i = start, end = start + packetSize - 1; i < end; i++) {
+            sum += frame.get(i);
+        }
+        frame.put(start + packetSize - 1, sum);
+    }
+
+    /**
+     * @param payloadSize     payload bytes per packet
+     * @param garbagePercent  share of the stream made of garbage between packets
+     * @param streamSize      approximate stream length
+     */
+    public static byte[] stream(int payloadSize, int garbagePercent, int streamSize, long seed) {
+        Random random = new Random(seed);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(streamSize + MAX_PACKET_SIZE);
+        int packetSize = payloadSize + HEADER_LENGTH + 1;
+        int garbageBudget = 0;
+        while (stream.size() < streamSize) {
+            stream.write(packet(payloadSize, random), 0, packetSize);
+            garbageBudget += packetSize * garbagePercent / Math.max(1, 100 - garbagePercent);
+            while (garbageBudget > 0) {
+                int garbage = random.nextInt(256);
+                if ((byte) garbage != HEADER_0) {
+                    stream.write(garbage);
+                    garbageBudget--;
+                }
+            }
+        }
+        return stream.toByteArray();
+    }
+
+    public static byte[] packet(int payloadSize, Random random) {
+        int packetSize = payloadSize + HEADER_LENGTH + 1;
+        byte[] packet = new byte[packetSize];
+        packet[0] = HEADER_0;
+        packet[1] = HEADER_1;
+        packet[2] = (byte) (packetSize >>> 8);
+        packet[3] = (byte) packetSize;
+        byte sum = 0;
+        for (int i = 0; i < packetSize - 1; i++) {
+            if (i >= HEADER_LENGTH) {
+                packet[i] = (byte) random.nextInt(256);
+            }
+            sum += packet[i];
+        }
+        packet[packetSize - 1] = sum;
+        return packet;
+    }
+}
@@ -0,0 +1,61 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.parser.AbsParser;
+import com.macfred.protocol.parser.BulkParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a 64 MB capture of {@link BenchmarkPackets} in one go, split over the common pool, against a single
+ * {@link AbsParser} fed the same capture in 64 KB chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BulkParserBenchmark {
+    private static final int STREAM_SIZE = 64 << 20;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Param({"16", "256"})
+    public int payloadSize;
+
+    @Param({"0", "10"})
+    public int garbagePercent;
+
+    private byte[] mStream;
+    private BulkParser mBulkParser;
+    private AbsParser mParser;
+    private final AbsParser.ProcessReport mProcessReport = new AbsParser.ProcessReport();
+
+    @Setup
+    public void setup() {
+        mStream = BenchmarkPackets.stream(payloadSize, garbagePercent, STREAM_SIZE, 1);
+        mBulkParser = new BulkParser(new BenchmarkPackets());
+        mParser = new AbsParser(2 * CHUNK_SIZE, new BenchmarkPackets());
+    }
+
+    @Benchmark
+    public int bulk() {
+        return mBulkParser.parse(mStream, 0, mStream.length).getPacketCount();
+    }
+
+    @Benchmark
+    public int sequential() {
+        int packets = 0;
+        mParser.discard(mParser.getBuffer().getCachedBytes());
+        for (int start = 0; start < mStream.length; start += CHUNK_SIZE) {
+            mParser.receive(mStream, start, Math.min(CHUNK_SIZE, mStream.length - start));
+            packets += mParser.tryParsePackets(0, mProcessReport).packetsFound;
+        }
+        return packets;
+    }
+}
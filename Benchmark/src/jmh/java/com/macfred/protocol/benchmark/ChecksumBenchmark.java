@@ -0,0 +1,63 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.checksum.ChecksumAlgorithm;
+import com.macfred.protocol.checksum.Crc;
+import com.macfred.protocol.checksum.SimpleChecksum;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Checksums a packet sized array per operation, {@code zipCrc32} is the JDK's intrinsic for reference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChecksumBenchmark {
+    @Param({"64", "1024", "4096"})
+    public int packetSize;
+
+    @Param({"CRC16_CCITT_FALSE", "CRC32", "CRC32C", "SUM8"})
+    public String algorithm;
+
+    private byte[] mPacket;
+    private ChecksumAlgorithm mAlgorithm;
+    private final CRC32 mZipCrc32 = new CRC32();
+
+    @Setup
+    public void setup() {
+        mPacket = new byte[packetSize];
+        new Random(1).nextBytes(mPacket);
+        if ("CRC16_CCITT_FALSE".equals(algorithm)) {
+            mAlgorithm = Crc.CRC16_CCITT_FALSE;
+        } else if ("CRC32".equals(algorithm)) {
+            mAlgorithm = Crc.CRC32;
+        } else if ("CRC32C".equals(algorithm)) {
+            mAlgorithm = Crc.CRC32C;
+        } else {
+            mAlgorithm = SimpleChecksum.SUM8;
+        }
+    }
+
+    @Benchmark
+    public long checksum() {
+        return mAlgorithm.finish(mAlgorithm.update(mAlgorithm.initial(), mPacket, 0, mPacket.length));
+    }
+
+    @Benchmark
+    public long zipCrc32() {
+        mZipCrc32.reset();
+        mZipCrc32.update(mPacket, 0, mPacket.length);
+        return mZipCrc32.getValue();
+    }
+}
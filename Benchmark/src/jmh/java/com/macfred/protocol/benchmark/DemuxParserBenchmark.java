@@ -0,0 +1,74 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.parser.AbsParser;
+import com.macfred.protocol.parser.DemuxParser;
+import com.macfred.protocol.parser.PacketReceiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Demultiplexes a 1 MB stream per operation, fed in 4 KB chunks, interleaving {@link BenchmarkPackets} frames with
+ * json units.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DemuxParserBenchmark {
+    private static final int STREAM_SIZE = 1 << 20;
+    private static final int CHUNK_SIZE = 4096;
+
+    @Param({"16", "256"})
+    public int payloadSize;
+
+    @Param({"10", "50"})
+    public int jsonPercent;
+
+    private byte[] mStream;
+    private DemuxParser mDemuxParser;
+    private final AbsParser.ProcessReport mProcessReport = new AbsParser.ProcessReport();
+    private int mChecksum;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(STREAM_SIZE + BenchmarkPackets.MAX_PACKET_SIZE);
+        while (stream.size() < STREAM_SIZE) {
+            byte[] unit = random.nextInt(100) < jsonPercent
+                    ? String.format("{\"id\":%d,\"name\":\"unit %d\",\"values\":[%d,%d]}", stream.size(), random.nextInt(), random.nextInt(), random.nextInt()).getBytes(StandardCharsets.UTF_8)
+                    : BenchmarkPackets.packet(payloadSize, random);
+            stream.write(unit, 0, unit.length);
+        }
+        mStream = stream.toByteArray();
+        PacketReceiver receiver = new PacketReceiver() {
+            @Override
+            public void onNewPacket(byte[] bytes, int start, int length) {
+                mChecksum += bytes[start + length - 1];
+            }
+        };
+        mDemuxParser = new DemuxParser(64 * 1024);
+        mDemuxParser.addProtocol(new BenchmarkPackets(), receiver);
+        mDemuxParser.addJsonStage(null, receiver);
+    }
+
+    @Benchmark
+    public int demux() {
+        int packets = 0;
+        for (int start = 0; start < mStream.length; start += CHUNK_SIZE) {
+            mDemuxParser.receive(mStream, start, Math.min(CHUNK_SIZE, mStream.length - start));
+            packets += mDemuxParser.tryParsePackets(0, mProcessReport).packetsFound;
+        }
+        return packets + mChecksum;
+    }
+}
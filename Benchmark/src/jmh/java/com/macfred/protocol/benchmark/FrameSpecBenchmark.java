@@ -0,0 +1,87 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.checksum.SimpleChecksum;
+import com.macfred.protocol.parser.AbsParser;
+import com.macfred.protocol.spec.CompiledFrameParser;
+import com.macfred.protocol.spec.FrameSpec;
+import com.macfred.protocol.spec.FrameSpecCompiler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the {@link BenchmarkPackets} stream described three ways: the hand-written descriptor, the equivalent
+ * {@link FrameSpec} as a descriptor, and the spec compiled into a {@link CompiledFrameParser}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FrameSpecBenchmark {
+    private static final int STREAM_SIZE = 1 << 20;
+    private static final int CHUNK_SIZE = 4096;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    @Param({"0", "10"})
+    public int garbagePercent;
+
+    private byte[] mStream;
+    private AbsParser mHandWrittenParser;
+    private AbsParser mSpecDescriptorParser;
+    private CompiledFrameParser mCompiledParser;
+    private final AbsParser.ProcessReport mProcessReport = new AbsParser.ProcessReport();
+
+    @Setup
+    public void setup() {
+        mStream = BenchmarkPackets.stream(payloadSize, garbagePercent, STREAM_SIZE, 1);
+        FrameSpec spec = FrameSpec.builder()
+                .headerMagic((byte) 0xAA, (byte) 0x55)
+                .lengthField(2, 2, ByteOrder.BIG_ENDIAN)
+                .checksum(SimpleChecksum.SUM8, 0, ByteOrder.BIG_ENDIAN)
+                .maxPacketSize(BenchmarkPackets.MAX_PACKET_SIZE)
+                .build();
+        mHandWrittenParser = new AbsParser(BUFFER_SIZE, new BenchmarkPackets());
+        mSpecDescriptorParser = new AbsParser(BUFFER_SIZE, FrameSpecCompiler.toDescriptor(spec));
+        mCompiledParser = FrameSpecCompiler.compile(spec, BUFFER_SIZE);
+    }
+
+    @Benchmark
+    public int handWritten() {
+        return parse(mHandWrittenParser);
+    }
+
+    @Benchmark
+    public int specDescriptor() {
+        return parse(mSpecDescriptorParser);
+    }
+
+    @Benchmark
+    public int compiled() {
+        int packets = 0;
+        for (int start = 0; start < mStream.length; start += CHUNK_SIZE) {
+            mCompiledParser.receive(mStream, start, Math.min(CHUNK_SIZE, mStream.length - start));
+            packets += mCompiledParser.tryParsePackets(0, mProcessReport).packetsFound;
+        }
+        return packets;
+    }
+
+    private int parse(AbsParser parser) {
+        int packets = 0;
+        for (int start = 0; start < mStream.length; start += CHUNK_SIZE) {
+            parser.receive(mStream, start, Math.min(CHUNK_SIZE, mStream.length - start));
+            packets += parser.tryParsePackets(0, mProcessReport).packetsFound;
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,72 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.parser.JsonUnitCapture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures about 256 KB of json per operation, fed in 4 KB chunks: many small flat objects, or objects nested
+ * {@code nestingDepth} levels deep.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonCaptureBenchmark {
+    private static final int FEED_SIZE = 256 * 1024;
+    private static final int CHUNK_SIZE = 4096;
+
+    @Param({"Flat", "Nested"})
+    public String shape;
+
+    @Param({"32"})
+    public int nestingDepth;
+
+    @Param({"Candidates", "Streaming", "Bulk"})
+    public JsonUnitCapture.Framing framing;
+
+    private byte[] mFeed;
+    private JsonUnitCapture mJsonUnitCapture;
+
+    @Setup
+    public void setup() {
+        String unit;
+        if ("Flat".equals(shape)) {
+            unit = "{\"id\":12345,\"name\":\"sensor {7}\",\"value\":-12.5e3,\"ok\":true,\"tags\":[\"a\",\"b\"]}\n";
+        } else {
+            StringBuilder nested = new StringBuilder();
+            for (int i = 0; i < nestingDepth; i++) {
+                nested.append("{\"level\":").append(i).append(",\"items\":[1,2,3],\"child\":");
+            }
+            nested.append("null");
+            for (int i = 0; i < nestingDepth; i++) {
+                nested.append('}');
+            }
+            unit = nested.append('\n').toString();
+        }
+        StringBuilder feed = new StringBuilder(FEED_SIZE + unit.length());
+        while (feed.length() < FEED_SIZE) {
+            feed.append(unit);
+        }
+        mFeed = feed.toString().getBytes(Charset.forName("UTF-8"));
+        mJsonUnitCapture = new JsonUnitCapture("UTF-8", 64 * 1024, framing);
+    }
+
+    @Benchmark
+    public int parse() {
+        int units = 0;
+        for (int start = 0; start < mFeed.length; start += CHUNK_SIZE) {
+            units += mJsonUnitCapture.parse(mFeed, start, Math.min(CHUNK_SIZE, mFeed.length - start), null).size();
+        }
+        return units;
+    }
+}
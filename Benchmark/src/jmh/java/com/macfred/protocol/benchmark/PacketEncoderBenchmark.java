@@ -0,0 +1,90 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.io.PacketEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes 64 frames per operation into a channel which only counts what it is given, so the score is encoding
+ * plus per write overhead. {@code flushThreshold} 0 writes every frame on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PacketEncoderBenchmark {
+    private static final int FRAMES = 64;
+
+    @Param({"16", "256"})
+    public int payloadSize;
+
+    @Param({"0", "4096", "65536"})
+    public int flushThreshold;
+
+    private final CountingChannel mChannel = new CountingChannel();
+    private PacketEncoder mPacketEncoder;
+    private byte[] mPayload;
+
+    @Setup
+    public void setup() {
+        mPayload = new byte[payloadSize];
+        mPacketEncoder = new PacketEncoder(new BenchmarkPackets(), mChannel, flushThreshold, 1, TimeUnit.MILLISECONDS, null);
+    }
+
+    @Benchmark
+    public long send() throws IOException {
+        for (int i = 0; i < FRAMES; i++) {
+            mPacketEncoder.send(mPayload, 0, payloadSize);
+        }
+        mPacketEncoder.flush();
+        return mChannel.mBytes;
+    }
+
+    private static final class CountingChannel implements GatheringByteChannel {
+        private long mBytes;
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                written += sources[i].remaining();
+                sources[i].position(sources[i].limit());
+            }
+            mBytes += written;
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            int written = source.remaining();
+            source.position(source.limit());
+            mBytes += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
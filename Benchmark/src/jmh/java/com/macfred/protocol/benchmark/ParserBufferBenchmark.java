@@ -0,0 +1,64 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.parser.AbsParserBuffer;
+import com.macfred.protocol.parser.ParserBuffer;
+import com.macfred.protocol.parser.SegmentedParserBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ring buffer round trip: a chunk is offered, peeked and skipped again. With {@code Wrapping} every other chunk
+ * straddles the end of the storage, {@code Contiguous} never does. {@code Segmented} runs on pooled 4 KB chunks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBufferBenchmark {
+    @Param({"16", "256", "4096"})
+    public int chunkSize;
+
+    @Param({"Contiguous", "Wrapping", "Segmented"})
+    public String layout;
+
+    private ParserBuffer mBuffer;
+    private byte[] mChunk;
+    private byte[] mContainer;
+
+    @Setup
+    public void setup() {
+        if ("Segmented".equals(layout)) {
+            mBuffer = new SegmentedParserBuffer(chunkSize * 16);
+        } else {
+            mBuffer = new AbsParserBuffer("Wrapping".equals(layout) ? chunkSize * 2 - 1 : chunkSize * 16);
+        }
+        mChunk = new byte[chunkSize];
+        mContainer = new byte[chunkSize];
+        for (int i = 0; i < chunkSize; i++) {
+            mChunk[i] = (byte) i;
+        }
+    }
+
+    @Benchmark
+    public byte offerPeekSkip() {
+        mBuffer.offer(mChunk, 0, chunkSize);
+        mBuffer.peek(0, chunkSize, mContainer, 0);
+        mBuffer.skip(chunkSize);
+        return mContainer[chunkSize - 1];
+    }
+
+    @Benchmark
+    public byte offerConsume() {
+        mBuffer.offer(mChunk, 0, chunkSize);
+        mBuffer.consume(chunkSize, mContainer, 0);
+        return mContainer[chunkSize - 1];
+    }
+}
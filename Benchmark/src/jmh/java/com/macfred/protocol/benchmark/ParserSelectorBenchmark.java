@@ -0,0 +1,104 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.io.ParserSelector;
+import com.macfred.protocol.parser.AbsParser;
+import com.macfred.protocol.parser.PacketView;
+import com.macfred.protocol.parser.PacketViewReceiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Round trip of a 1 MB stream per operation over a localhost connection served by a {@link ParserSelector}, from
+ * the first byte written to the last packet parsed. Every operation checks that all packets of the stream arrived.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParserSelectorBenchmark {
+    private static final int STREAM_SIZE = 1 << 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CHUNK_SIZE = 4096;
+    private static final long ROUND_TRIP_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Param({"16", "256"})
+    public int payloadSize;
+
+    private byte[] mStream;
+    private int mStreamPackets;
+    private ParserSelector mParserSelector;
+    private SocketChannel mClient;
+    private final AtomicLong mReceivedPackets = new AtomicLong();
+    private long mExpectedPackets;
+
+    @Setup
+    public void setup() throws IOException {
+        mStream = BenchmarkPackets.stream(payloadSize, 0, STREAM_SIZE, 1);
+        mStreamPackets = countPackets(mStream);
+        mParserSelector = new ParserSelector();
+        SocketAddress address = mParserSelector.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new ParserSelector.AcceptHandler() {
+            @Override
+            public ParserSelector.Binding onAccepted(SocketChannel channel) {
+                return new ParserSelector.Binding(BUFFER_SIZE, new BenchmarkPackets(), new PacketViewReceiver() {
+                    @Override
+                    public void onNewPacket(PacketView packet) {
+                        mReceivedPackets.incrementAndGet();
+                    }
+                });
+            }
+        });
+        mParserSelector.start();
+        mClient = SocketChannel.open(address);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mClient.close();
+        mParserSelector.close();
+    }
+
+    @Benchmark
+    public long roundTrip() throws IOException {
+        mExpectedPackets += mStreamPackets;
+        ByteBuffer stream = ByteBuffer.wrap(mStream);
+        while (stream.hasRemaining()) {
+            mClient.write(stream);
+        }
+        long deadline = System.nanoTime() + ROUND_TRIP_TIMEOUT_NANOS;
+        while (mReceivedPackets.get() < mExpectedPackets) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException(String.format("Received %1d packets out of %2d", mReceivedPackets.get(), mExpectedPackets));
+            }
+            LockSupport.parkNanos(1000);
+        }
+        return mReceivedPackets.get();
+    }
+
+    private static int countPackets(byte[] stream) {
+        AbsParser parser = new AbsParser(BUFFER_SIZE, new BenchmarkPackets());
+        AbsParser.ProcessReport report = new AbsParser.ProcessReport();
+        int packets = 0;
+        for (int start = 0; start < stream.length; start += CHUNK_SIZE) {
+            parser.receive(stream, start, Math.min(CHUNK_SIZE, stream.length - start));
+            packets += parser.tryParsePackets(0, report).packetsFound;
+        }
+        return packets;
+    }
+}
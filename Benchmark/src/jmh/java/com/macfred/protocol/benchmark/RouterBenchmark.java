@@ -0,0 +1,101 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.ConcurrentRouter;
+import com.macfred.protocol.IntRouter;
+import com.macfred.protocol.Router;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes packets whose first two bytes are the command id over 64 registered commands, each with {@code fanOut}
+ * acceptors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RouterBenchmark {
+    private static final int COMMANDS = 64;
+
+    @Param({"1", "4", "16"})
+    public int fanOut;
+
+    private final byte[][] mPackets = new byte[COMMANDS][];
+    private int mNext;
+    private long mHandled;
+
+    private Router<Integer, Integer, byte[]> mRouter;
+    private ConcurrentRouter<Integer, Integer, byte[]> mConcurrentRouter;
+    private IntRouter<Integer, byte[]> mIntRouter;
+
+    @Setup
+    public void setup() {
+        Router.AcceptorHandler<Integer, byte[]> acceptorHandler = new Router.AcceptorHandler<Integer, byte[]>() {
+            @Override
+            public void handle(Integer acceptor, byte[] data) {
+                mHandled += acceptor + data[1];
+            }
+        };
+        mRouter = new Router<>(new Router.KeyMapper<Integer, byte[]>() {
+            @Override
+            public Integer map(byte[] data) {
+                return commandOf(data);
+            }
+        }, acceptorHandler);
+        mConcurrentRouter = new ConcurrentRouter<>(new Router.KeyMapper<Integer, byte[]>() {
+            @Override
+            public Integer map(byte[] data) {
+                return commandOf(data);
+            }
+        }, acceptorHandler);
+        mIntRouter = new IntRouter<>(new IntRouter.IntKeyMapper<byte[]>() {
+            @Override
+            public int map(byte[] data) {
+                return commandOf(data);
+            }
+        }, acceptorHandler);
+        for (int command = 0; command < COMMANDS; command++) {
+            int key = command * 97;
+            mPackets[command] = new byte[]{(byte) (key >>> 8), (byte) key, 0, 0};
+            for (int acceptor = 0; acceptor < fanOut; acceptor++) {
+                mRouter.register(key, acceptor);
+                mConcurrentRouter.register(key, acceptor);
+                mIntRouter.register(key, acceptor);
+            }
+        }
+    }
+
+    @Benchmark
+    public long router() {
+        mRouter.route(nextPacket());
+        return mHandled;
+    }
+
+    @Benchmark
+    public long concurrentRouter() {
+        mConcurrentRouter.route(nextPacket());
+        return mHandled;
+    }
+
+    @Benchmark
+    public long intRouter() {
+        mIntRouter.route(nextPacket());
+        return mHandled;
+    }
+
+    private byte[] nextPacket() {
+        return mPackets[mNext++ & (COMMANDS - 1)];
+    }
+
+    private static int commandOf(byte[] data) {
+        return ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+    }
+}
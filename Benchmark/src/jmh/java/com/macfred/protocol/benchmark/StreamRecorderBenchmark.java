@@ -0,0 +1,58 @@
+package com.macfred.protocol.benchmark;
+
+import com.macfred.protocol.io.StreamRecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one received chunk, segment rolls included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StreamRecorderBenchmark {
+    @Param({"64", "4096"})
+    public int chunkSize;
+
+    private byte[] mChunk;
+    private File mDirectory;
+    private StreamRecorder mRecorder;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        mChunk = new byte[chunkSize];
+        new Random(1).nextBytes(mChunk);
+        mDirectory = Files.createTempDirectory("recorder").toFile();
+        mRecorder = new StreamRecorder(mDirectory, "benchmark");
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        mRecorder.close();
+        for (File segment : StreamRecorder.segmentsOf(mDirectory, "benchmark")) {
+            segment.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public long record() {
+        mRecorder.record(mChunk, 0, mChunk.length);
+        return mRecorder.getRecords();
+    }
+}
@@ -0,0 +1,235 @@
+package com.macfred.protocol;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands data to the wrapped handler off the routing thread, so a slow acceptor can't stall parsing. Works with
+ * {@link Router}, {@link ConcurrentRouter} and {@link IntRouter}.
+ * <p>
+ * Every acceptor gets a bounded mailbox which is served by a shared executor, at most one task at a time, so each
+ * acceptor still sees its data in routing order. What happens to data routed to a full mailbox is up to the
+ * {@link OverflowPolicy}.
+ */
+public class AsyncAcceptorHandler<AcceptorType, DataType> implements Router.AcceptorHandler<AcceptorType, DataType> {
+	private static final int MESSAGES_PER_TASK = 64;
+
+	private final Router.AcceptorHandler<AcceptorType, DataType> mAcceptorHandler;
+	private final Executor mExecutor;
+	private final ExecutorService mOwnedExecutor;
+	private final int mMailboxCapacity;
+	private final OverflowPolicy mOverflowPolicy;
+	private final ConcurrentMap<AcceptorType, Mailbox> mMailboxes = new ConcurrentHashMap<>();
+	private final AtomicLong mDroppedCount = new AtomicLong();
+	private volatile OverflowListener<AcceptorType, DataType> mOverflowListener;
+
+	/**
+	 * Serves mailboxes on virtual threads where available, otherwise on a pool of one thread per processor.
+	 */
+	public AsyncAcceptorHandler(Router.AcceptorHandler<AcceptorType, DataType> acceptorHandler, int mailboxCapacity, OverflowPolicy overflowPolicy) {
+		this(acceptorHandler, VirtualThreads.newExecutor("AsyncAcceptorHandler"), mailboxCapacity, overflowPolicy, true);
+	}
+
+	public AsyncAcceptorHandler(Router.AcceptorHandler<AcceptorType, DataType> acceptorHandler, Executor executor, int mailboxCapacity, OverflowPolicy overflowPolicy) {
+		this(acceptorHandler, executor, mailboxCapacity, overflowPolicy, false);
+	}
+
+	private AsyncAcceptorHandler(Router.AcceptorHandler<AcceptorType, DataType> acceptorHandler, Executor executor, int mailboxCapacity, OverflowPolicy overflowPolicy, boolean ownExecutor) {
+		if (mailboxCapacity <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid mailbox capacity %1d", mailboxCapacity));
+		}
+		mAcceptorHandler = acceptorHandler;
+		mExecutor = executor;
+		mOwnedExecutor = ownExecutor ? (ExecutorService) executor : null;
+		mMailboxCapacity = mailboxCapacity;
+		mOverflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Called on the routing thread for data rejected under {@link OverflowPolicy#Report}.
+	 */
+	public void setOverflowListener(OverflowListener<AcceptorType, DataType> overflowListener) {
+		mOverflowListener = overflowListener;
+	}
+
+	@Override
+	public void handle(AcceptorType acceptor, DataType data) {
+		while (true) {
+			Mailbox mailbox = mMailboxes.get(acceptor);
+			if (mailbox == null) {
+				Mailbox newMailbox = new Mailbox(acceptor);
+				mailbox = mMailboxes.putIfAbsent(acceptor, newMailbox);
+				if (mailbox == null) {
+					mailbox = newMailbox;
+				}
+			}
+			if (mailbox.post(data)) {
+				return;
+			}
+			// released mailbox retired in the meantime, the acceptor gets a new one
+		}
+	}
+
+	/**
+	 * @return data dropped or reported because of full mailboxes so far
+	 */
+	public long getDroppedCount() {
+		return mDroppedCount.get();
+	}
+
+	/**
+	 * Forgets the acceptor's mailbox once it is unregistered from the router. Data still queued is delivered first
+	 * and the mailbox is only forgotten once it is empty, so data routed to the acceptor again meanwhile keeps its
+	 * order.
+	 */
+	public void release(AcceptorType acceptor) {
+		Mailbox mailbox = mMailboxes.get(acceptor);
+		if (mailbox != null) {
+			mailbox.mReleased = true;
+			mailbox.tryRetire();
+		}
+	}
+
+	/**
+	 * Stops the executor created by this handler, an executor passed in is left to its owner.
+	 */
+	public void shutdown() {
+		if (mOwnedExecutor != null) {
+			mOwnedExecutor.shutdown();
+		}
+	}
+
+	public enum OverflowPolicy {
+		/**
+		 * Routing thread waits for room in the mailbox.
+		 */
+		Block,
+		/**
+		 * Data is dropped silently.
+		 */
+		Drop,
+		/**
+		 * Data is dropped and passed to the {@link OverflowListener}.
+		 */
+		Report
+	}
+
+	public interface OverflowListener<AcceptorType, DataType> {
+		void onOverflow(AcceptorType acceptor, DataType data);
+	}
+
+	private class Mailbox implements Runnable {
+		private final AcceptorType mAcceptor;
+		private final ArrayBlockingQueue<DataType> mQueue = new ArrayBlockingQueue<>(mMailboxCapacity);
+		private final AtomicBoolean mScheduled = new AtomicBoolean();
+		private final AtomicInteger mPosting = new AtomicInteger();
+		private volatile boolean mReleased;
+		private volatile boolean mRetired;
+
+		private Mailbox(AcceptorType acceptor) {
+			mAcceptor = acceptor;
+		}
+
+		/**
+		 * @return false if the mailbox has been retired and takes no more data
+		 */
+		private boolean post(DataType data) {
+			mPosting.incrementAndGet();
+			try {
+				if (mRetired) {
+					return false;
+				}
+				if (!mQueue.offer(data)) {
+					switch (mOverflowPolicy) {
+						case Block:
+							try {
+								mQueue.put(data);
+							} catch (InterruptedException e) {
+								throw new RuntimeException(e);
+							}
+							break;
+						case Report:
+							mDroppedCount.incrementAndGet();
+							OverflowListener<AcceptorType, DataType> overflowListener = mOverflowListener;
+							if (overflowListener != null) {
+								overflowListener.onOverflow(mAcceptor, data);
+							}
+							return true;
+						case Drop:
+						default:
+							mDroppedCount.incrementAndGet();
+							return true;
+					}
+				}
+				schedule();
+				return true;
+			} finally {
+				mPosting.decrementAndGet();
+			}
+		}
+
+		private void schedule() {
+			if (!mScheduled.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				mExecutor.execute(this);
+			} catch (RejectedExecutionException e) {
+				mScheduled.set(false);
+				throw e;
+			}
+		}
+
+		/**
+		 * Takes a released mailbox out of the map once it is empty and no task serves it, posts racing with that
+		 * see it retired and go to a new mailbox.
+		 */
+		private void tryRetire() {
+			if (!mScheduled.compareAndSet(false, true)) {
+				// the task serving the mailbox tries again when done
+				return;
+			}
+			mRetired = true;
+			if (mPosting.get() == 0 && mQueue.isEmpty()) {
+				mMailboxes.remove(mAcceptor, this);
+				return;
+			}
+			mRetired = false;
+			mScheduled.set(false);
+			if (!mQueue.isEmpty()) {
+				schedule();
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				DataType data;
+				int handled = 0;
+				while (handled < MESSAGES_PER_TASK && (data = mQueue.poll()) != null) {
+					handled++;
+					try {
+						mAcceptorHandler.handle(mAcceptor, data);
+					} catch (RuntimeException e) {
+						Thread thread = Thread.currentThread();
+						thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+					}
+				}
+			} finally {
+				mScheduled.set(false);
+				if (!mQueue.isEmpty()) {
+					schedule();
+				} else if (mReleased) {
+					tryRetire();
+				}
+			}
+		}
+	}
+}
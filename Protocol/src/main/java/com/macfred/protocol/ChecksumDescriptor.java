@@ -0,0 +1,30 @@
+package com.macfred.protocol;
+
+import com.macfred.protocol.checksum.ChecksumAlgorithm;
+
+/**
+ * {@link PacketDescriptor} whose packets end with a checksum. Parsers recognizing it fold bytes into a running
+ * checksum as they arrive and compare it once the packet is complete, then call {@link #acceptPacket} instead of
+ * {@link #verifyAndAcceptPacket}, which should still verify everything for other callers, e.g. through
+ * {@link com.macfred.protocol.checksum.Checksums#verify}.
+ */
+public interface ChecksumDescriptor extends PacketDescriptor {
+
+    ChecksumAlgorithm getChecksumAlgorithm();
+
+    /**
+     * @return offset in the packet of the first byte covered, the checksum covers everything from there up to
+     * itself, it takes the last {@link ChecksumAlgorithm#getLength()} bytes of the packet
+     */
+    int getChecksumStart();
+
+    /**
+     * @return the checksum stored at {@code start}
+     */
+    long decodeChecksum(byte[] bytes, int start);
+
+    /**
+     * Checks besides the checksum, the packet [start, start + length) has passed the checksum already.
+     */
+    boolean acceptPacket(byte[] bytes, int start, int length);
+}
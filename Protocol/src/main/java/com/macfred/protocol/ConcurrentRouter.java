@@ -0,0 +1,133 @@
+package com.macfred.protocol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Router} which may be used from many threads at once. Routing reads an immutable snapshot of the router
+ * table without locking and walks a plain acceptor array, registering and unregistering publish a new snapshot.
+ * Meant for tables which are routed through far more often than they change.
+ */
+public class ConcurrentRouter<KeyType, AcceptorType, DataType> {
+	private static final Object[] NO_ACCEPTORS = new Object[0];
+
+	private final Object mWriteLock = new Object();
+	private final Router.KeyMapper<KeyType, DataType> mKeyMapper;
+	private final Router.AcceptorHandler<AcceptorType, DataType> mAcceptorHandler;
+	private volatile Map<KeyType, Object[]> mRouterTable = Collections.emptyMap();
+
+	public ConcurrentRouter(Router.AcceptorHandler<AcceptorType, DataType> acceptorHandler) {
+		this(null, acceptorHandler);
+	}
+
+	public ConcurrentRouter(Router.KeyMapper<KeyType, DataType> keyMapper, Router.AcceptorHandler<AcceptorType, DataType> acceptorHandler) {
+		mKeyMapper = keyMapper;
+		mAcceptorHandler = acceptorHandler;
+	}
+
+	public void register(KeyType key, AcceptorType value) {
+		synchronized (mWriteLock) {
+			Object[] acceptors = mRouterTable.get(key);
+			if (acceptors == null) {
+				acceptors = NO_ACCEPTORS;
+			}
+			if (indexOf(acceptors, value) >= 0) {
+				return;
+			}
+			Object[] newAcceptors = new Object[acceptors.length + 1];
+			System.arraycopy(acceptors, 0, newAcceptors, 0, acceptors.length);
+			newAcceptors[acceptors.length] = value;
+			publish(key, newAcceptors);
+		}
+	}
+
+	public void unregister(KeyType key, AcceptorType value) {
+		synchronized (mWriteLock) {
+			Object[] acceptors = mRouterTable.get(key);
+			if (acceptors == null) {
+				return;
+			}
+			int index = indexOf(acceptors, value);
+			if (index < 0) {
+				return;
+			}
+			if (acceptors.length == 1) {
+				publish(key, null);
+				return;
+			}
+			Object[] newAcceptors = new Object[acceptors.length - 1];
+			System.arraycopy(acceptors, 0, newAcceptors, 0, index);
+			System.arraycopy(acceptors, index + 1, newAcceptors, index, newAcceptors.length - index);
+			publish(key, newAcceptors);
+		}
+	}
+
+	/**
+	 * @return acceptors which were registered for the key
+	 */
+	@SuppressWarnings("unchecked")
+	public Collection<AcceptorType> unregister(KeyType key) {
+		Object[] acceptors;
+		synchronized (mWriteLock) {
+			acceptors = mRouterTable.get(key);
+			if (acceptors == null) {
+				return new ArrayList<>();
+			}
+			publish(key, null);
+		}
+		List<AcceptorType> removed = new ArrayList<>(acceptors.length);
+		for (Object acceptor : acceptors) {
+			removed.add((AcceptorType) acceptor);
+		}
+		return removed;
+	}
+
+	/**
+	 * @return keys of the current snapshot, unaffected by later changes
+	 */
+	public Collection<KeyType> getRegisteredKeys() {
+		return Collections.unmodifiableSet(mRouterTable.keySet());
+	}
+
+	public boolean route(DataType data) {
+		return route(mKeyMapper.map(data), data);
+	}
+
+	@SuppressWarnings("unchecked")
+	public boolean route(KeyType key, DataType data) {
+		Object[] acceptors = mRouterTable.get(key);
+		if (acceptors == null) {
+			return false;
+		}
+		for (Object acceptor : acceptors) {
+			mAcceptorHandler.handle((AcceptorType) acceptor, data);
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the current table with the key's acceptors replaced, or removed when null, and publishes the copy.
+	 */
+	private void publish(KeyType key, Object[] acceptors) {
+		Map<KeyType, Object[]> routerTable = new HashMap<>(mRouterTable);
+		if (acceptors == null) {
+			routerTable.remove(key);
+		} else {
+			routerTable.put(key, acceptors);
+		}
+		mRouterTable = routerTable;
+	}
+
+	private static int indexOf(Object[] acceptors, Object value) {
+		for (int i = 0; i < acceptors.length; i++) {
+			if (value == null ? acceptors[i] == null : value.equals(acceptors[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
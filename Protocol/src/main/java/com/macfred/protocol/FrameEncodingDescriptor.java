@@ -0,0 +1,33 @@
+package com.macfred.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PacketDescriptor} which can also lay out outbound packets, for encoders building frames in place. A frame
+ * is the header and size fields, the payload from {@link #getPayloadOffset()}, then {@link #getTrailerLength()}
+ * bytes such as a checksum. Every method writes with absolute puts and leaves the buffer position alone.
+ */
+public interface FrameEncodingDescriptor extends PacketDescriptor {
+
+    /**
+     * @return offset of the payload in a frame, fields before it are filled by the encode methods
+     */
+    int getPayloadOffset();
+
+    /**
+     * @return bytes following the payload
+     */
+    int getTrailerLength();
+
+    void encodeHeader(ByteBuffer frame, int start);
+
+    /**
+     * Writes {@code packetSize}, the length of the whole frame, into the size field.
+     */
+    void encodePacketSize(ByteBuffer frame, int start, int packetSize);
+
+    /**
+     * Fills the trailer once every other byte of the frame [start, start + packetSize) is in place.
+     */
+    void encodeTrailer(ByteBuffer frame, int start, int packetSize);
+}
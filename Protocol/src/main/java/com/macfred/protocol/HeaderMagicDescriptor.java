@@ -0,0 +1,15 @@
+package com.macfred.protocol;
+
+/**
+ * {@link PacketDescriptor} whose headers start with a literal byte sequence. Parsers use it to hunt for the next
+ * header in bulk instead of calling {@link #verifyHeader(byte[], int)} at every byte offset, the header found is
+ * still confirmed by {@link #verifyHeader(byte[], int)}.
+ */
+public interface HeaderMagicDescriptor extends PacketDescriptor {
+
+    /**
+     * @return bytes every packet starts with, not longer than the header; null or empty to fall back to
+     * byte-by-byte header verification
+     */
+    byte[] getHeaderMagic();
+}
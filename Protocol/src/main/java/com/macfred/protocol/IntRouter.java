@@ -0,0 +1,214 @@
+package com.macfred.protocol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Router for int keys such as command ids, dispatching without boxing or hashing. Keys in
+ * [0, denseKeyLimit) index an array directly, any other key goes through an open addressing table.
+ * <p>
+ * Like {@link ConcurrentRouter}, routing reads an immutable snapshot without locking and registering publishes a
+ * new one.
+ */
+public class IntRouter<AcceptorType, DataType> {
+	private static final int DEFAULT_DENSE_KEY_LIMIT = 1 << 16;
+	private static final Object[] NO_ACCEPTORS = new Object[0];
+
+	private final Object mWriteLock = new Object();
+	private final Map<Integer, Object[]> mAcceptors = new HashMap<>();
+	private final int mDenseKeyLimit;
+	private final IntKeyMapper<DataType> mKeyMapper;
+	private final Router.AcceptorHandler<AcceptorType, DataType> mAcceptorHandler;
+	private volatile Table mTable = new Table(new Object[0][], new int[1], new Object[1][]);
+
+	public IntRouter(Router.AcceptorHandler<AcceptorType, DataType> acceptorHandler) {
+		this(null, acceptorHandler);
+	}
+
+	public IntRouter(IntKeyMapper<DataType> keyMapper, Router.AcceptorHandler<AcceptorType, DataType> acceptorHandler) {
+		this(keyMapper, acceptorHandler, DEFAULT_DENSE_KEY_LIMIT);
+	}
+
+	/**
+	 * @param denseKeyLimit keys below it are dispatched by array index, the array only grows as far as the highest
+	 *                      key registered
+	 */
+	public IntRouter(IntKeyMapper<DataType> keyMapper, Router.AcceptorHandler<AcceptorType, DataType> acceptorHandler, int denseKeyLimit) {
+		if (denseKeyLimit < 0) {
+			throw new IllegalArgumentException(String.format("Invalid dense key limit %1d", denseKeyLimit));
+		}
+		mKeyMapper = keyMapper;
+		mAcceptorHandler = acceptorHandler;
+		mDenseKeyLimit = denseKeyLimit;
+	}
+
+	public void register(int key, AcceptorType value) {
+		synchronized (mWriteLock) {
+			Object[] acceptors = mAcceptors.get(key);
+			if (acceptors == null) {
+				acceptors = NO_ACCEPTORS;
+			}
+			if (indexOf(acceptors, value) >= 0) {
+				return;
+			}
+			Object[] newAcceptors = new Object[acceptors.length + 1];
+			System.arraycopy(acceptors, 0, newAcceptors, 0, acceptors.length);
+			newAcceptors[acceptors.length] = value;
+			mAcceptors.put(key, newAcceptors);
+			publish();
+		}
+	}
+
+	public void unregister(int key, AcceptorType value) {
+		synchronized (mWriteLock) {
+			Object[] acceptors = mAcceptors.get(key);
+			if (acceptors == null) {
+				return;
+			}
+			int index = indexOf(acceptors, value);
+			if (index < 0) {
+				return;
+			}
+			if (acceptors.length == 1) {
+				mAcceptors.remove(key);
+			} else {
+				Object[] newAcceptors = new Object[acceptors.length - 1];
+				System.arraycopy(acceptors, 0, newAcceptors, 0, index);
+				System.arraycopy(acceptors, index + 1, newAcceptors, index, newAcceptors.length - index);
+				mAcceptors.put(key, newAcceptors);
+			}
+			publish();
+		}
+	}
+
+	/**
+	 * @return acceptors which were registered for the key
+	 */
+	@SuppressWarnings("unchecked")
+	public Collection<AcceptorType> unregister(int key) {
+		Object[] acceptors;
+		synchronized (mWriteLock) {
+			acceptors = mAcceptors.remove(key);
+			if (acceptors == null) {
+				return new ArrayList<>();
+			}
+			publish();
+		}
+		List<AcceptorType> removed = new ArrayList<>(acceptors.length);
+		for (Object acceptor : acceptors) {
+			removed.add((AcceptorType) acceptor);
+		}
+		return removed;
+	}
+
+	public int[] getRegisteredKeys() {
+		synchronized (mWriteLock) {
+			int[] keys = new int[mAcceptors.size()];
+			int i = 0;
+			for (Integer key : mAcceptors.keySet()) {
+				keys[i++] = key;
+			}
+			return keys;
+		}
+	}
+
+	public boolean route(DataType data) {
+		return route(mKeyMapper.map(data), data);
+	}
+
+	@SuppressWarnings("unchecked")
+	public boolean route(int key, DataType data) {
+		Object[] acceptors = mTable.get(key);
+		if (acceptors == null) {
+			return false;
+		}
+		for (Object acceptor : acceptors) {
+			mAcceptorHandler.handle((AcceptorType) acceptor, data);
+		}
+		return true;
+	}
+
+	private void publish() {
+		int denseLength = 0;
+		int sparseCount = 0;
+		for (int key : mAcceptors.keySet()) {
+			if (key >= 0 && key < mDenseKeyLimit) {
+				denseLength = Math.max(denseLength, key + 1);
+			} else {
+				sparseCount++;
+			}
+		}
+		Object[][] dense = new Object[denseLength][];
+		int sparseCapacity = Integer.highestOneBit(Math.max(1, sparseCount) * 2 - 1) << 1;
+		int[] sparseKeys = new int[sparseCapacity];
+		Object[][] sparseAcceptors = new Object[sparseCapacity][];
+		for (Map.Entry<Integer, Object[]> entry : mAcceptors.entrySet()) {
+			int key = entry.getKey();
+			if (key >= 0 && key < mDenseKeyLimit) {
+				dense[key] = entry.getValue();
+				continue;
+			}
+			int slot = Table.hash(key) & (sparseCapacity - 1);
+			while (sparseAcceptors[slot] != null) {
+				slot = (slot + 1) & (sparseCapacity - 1);
+			}
+			sparseKeys[slot] = key;
+			sparseAcceptors[slot] = entry.getValue();
+		}
+		mTable = new Table(dense, sparseKeys, sparseAcceptors);
+	}
+
+	private static int indexOf(Object[] acceptors, Object value) {
+		for (int i = 0; i < acceptors.length; i++) {
+			if (value == null ? acceptors[i] == null : value.equals(acceptors[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public interface IntKeyMapper<DataType> {
+		int map(DataType data);
+	}
+
+	/**
+	 * Immutable dispatch snapshot, the open addressing part is kept at most half full.
+	 */
+	private static final class Table {
+		private final Object[][] mDense;
+		private final int[] mSparseKeys;
+		private final Object[][] mSparseAcceptors;
+		private final int mSparseMask;
+
+		private Table(Object[][] dense, int[] sparseKeys, Object[][] sparseAcceptors) {
+			mDense = dense;
+			mSparseKeys = sparseKeys;
+			mSparseAcceptors = sparseAcceptors;
+			mSparseMask = sparseKeys.length - 1;
+		}
+
+		private Object[] get(int key) {
+			Object[][] dense = mDense;
+			if (key >= 0 && key < dense.length) {
+				return dense[key];
+			}
+			int slot = hash(key) & mSparseMask;
+			Object[] acceptors;
+			while ((acceptors = mSparseAcceptors[slot]) != null) {
+				if (mSparseKeys[slot] == key) {
+					return acceptors;
+				}
+				slot = (slot + 1) & mSparseMask;
+			}
+			return null;
+		}
+
+		private static int hash(int key) {
+			int hash = key * 0x9E3779B9;
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
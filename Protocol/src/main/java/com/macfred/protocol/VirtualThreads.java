@@ -0,0 +1,73 @@
+package com.macfred.protocol;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts virtual threads on runtimes which have them, the library itself targets Java 8.
+ */
+public final class VirtualThreads {
+    private static final Method START_VIRTUAL_THREAD = lookup(Thread.class, "startVirtualThread", Runnable.class);
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = lookup(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isAvailable() {
+        return START_VIRTUAL_THREAD != null;
+    }
+
+    /**
+     * Starts the task on a virtual thread, or on a daemon platform thread where virtual threads are not available.
+     */
+    public static Thread start(Runnable task, String name) {
+        if (START_VIRTUAL_THREAD != null) {
+            try {
+                Thread thread = (Thread) START_VIRTUAL_THREAD.invoke(null, task);
+                thread.setName(name);
+                return thread;
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                // fall back to a platform thread
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @return executor running every task on a new virtual thread, or a fixed pool of one daemon thread per
+     * processor where virtual threads are not available
+     */
+    public static ExecutorService newExecutor(final String name) {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                // fall back to platform threads
+            }
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, name + "-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    static Method lookup(Class<?> owner, String name, Class<?>... parameterTypes) {
+        try {
+            return owner.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException | SecurityException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.macfred.protocol.checksum;
+
+/**
+ * Checksum computed over a stream of byte runs. Implementations are stateless, the running value is passed around
+ * as a long so a parser can carry it between calls without allocating.
+ */
+public interface ChecksumAlgorithm {
+
+    /**
+     * @return bytes the checksum takes in a packet
+     */
+    int getLength();
+
+    long initial();
+
+    long update(long checksum, byte[] bytes, int start, int length);
+
+    /**
+     * @return the final checksum value, as stored in the packet
+     */
+    long finish(long checksum);
+}
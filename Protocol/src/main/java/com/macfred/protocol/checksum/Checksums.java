@@ -0,0 +1,29 @@
+package com.macfred.protocol.checksum;
+
+import com.macfred.protocol.ChecksumDescriptor;
+
+public final class Checksums {
+
+    private Checksums() {
+    }
+
+    public static long compute(ChecksumAlgorithm algorithm, byte[] bytes, int start, int length) {
+        return algorithm.finish(algorithm.update(algorithm.initial(), bytes, start, length));
+    }
+
+    /**
+     * Verifies a complete packet in one go, for {@link ChecksumDescriptor#verifyAndAcceptPacket} implementations.
+     *
+     * @return whether the checksum matches and {@link ChecksumDescriptor#acceptPacket} accepts the packet
+     */
+    public static boolean verify(ChecksumDescriptor descriptor, byte[] bytes, int start, int length) {
+        ChecksumAlgorithm algorithm = descriptor.getChecksumAlgorithm();
+        int coverageStart = descriptor.getChecksumStart();
+        int checksumStart = length - algorithm.getLength();
+        if (checksumStart < coverageStart) {
+            return false;
+        }
+        return compute(algorithm, bytes, start + coverageStart, checksumStart - coverageStart) == descriptor.decodeChecksum(bytes, start + checksumStart)
+                && descriptor.acceptPacket(bytes, start, length);
+    }
+}
@@ -0,0 +1,120 @@
+package com.macfred.protocol.checksum;
+
+/**
+ * Table driven CRC of 16 or 32 bits, processing eight bytes per step with slicing-by-8 tables. Parameters follow
+ * the usual catalogue form: polynomial in normal notation, init and final xor as register values.
+ */
+public final class Crc implements ChecksumAlgorithm {
+    public static final Crc CRC16_CCITT_FALSE = new Crc(16, 0x1021, 0xFFFF, false, 0);
+    public static final Crc CRC16_XMODEM = new Crc(16, 0x1021, 0, false, 0);
+    public static final Crc CRC16_MODBUS = new Crc(16, 0x8005, 0xFFFF, true, 0);
+    public static final Crc CRC16_ARC = new Crc(16, 0x8005, 0, true, 0);
+    public static final Crc CRC32 = new Crc(32, 0x04C11DB7, 0xFFFFFFFF, true, 0xFFFFFFFF);
+    public static final Crc CRC32C = new Crc(32, 0x1EDC6F41, 0xFFFFFFFF, true, 0xFFFFFFFF);
+
+    private final int mWidth;
+    private final int mInit;
+    private final boolean mReflected;
+    private final int mXorOut;
+    private final long mMask;
+    private final int[] mTables = new int[8 * 256];
+
+    public Crc(int width, int polynomial, int init, boolean reflected, int xorOut) {
+        if (width != 16 && width != 32) {
+            throw new IllegalArgumentException(String.format("Unsupported CRC width %1d", width));
+        }
+        mWidth = width;
+        mInit = init;
+        mReflected = reflected;
+        mXorOut = xorOut;
+        mMask = width == 32 ? 0xFFFFFFFFL : (1L << width) - 1;
+        int mask = (int) mMask;
+        if (reflected) {
+            int reflectedPolynomial = Integer.reverse(polynomial) >>> (32 - width);
+            for (int n = 0; n < 256; n++) {
+                int crc = n;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ reflectedPolynomial : crc >>> 1;
+                }
+                mTables[n] = crc;
+            }
+            for (int k = 1; k < 8; k++) {
+                for (int n = 0; n < 256; n++) {
+                    int previous = mTables[(k - 1) * 256 + n];
+                    mTables[k * 256 + n] = (previous >>> 8) ^ mTables[previous & 0xFF];
+                }
+            }
+        } else {
+            int topBit = 1 << (width - 1);
+            for (int n = 0; n < 256; n++) {
+                int crc = n << (width - 8);
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & topBit) != 0 ? (crc << 1) ^ polynomial : crc << 1;
+                }
+                mTables[n] = crc & mask;
+            }
+            for (int k = 1; k < 8; k++) {
+                for (int n = 0; n < 256; n++) {
+                    int previous = mTables[(k - 1) * 256 + n];
+                    mTables[k * 256 + n] = ((previous << 8) & mask) ^ mTables[(previous >>> (width - 8)) & 0xFF];
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getLength() {
+        return mWidth / 8;
+    }
+
+    @Override
+    public long initial() {
+        return mInit & mMask;
+    }
+
+    @Override
+    public long update(long checksum, byte[] bytes, int start, int length) {
+        int[] t = mTables;
+        int crc = (int) checksum;
+        int i = start;
+        int end = start + length;
+        if (mReflected) {
+            for (; i + 8 <= end; i += 8) {
+                crc = t[7 * 256 + ((bytes[i] ^ crc) & 0xFF)]
+                        ^ t[6 * 256 + ((bytes[i + 1] ^ (crc >>> 8)) & 0xFF)]
+                        ^ t[5 * 256 + ((bytes[i + 2] ^ (crc >>> 16)) & 0xFF)]
+                        ^ t[4 * 256 + ((bytes[i + 3] ^ (crc >>> 24)) & 0xFF)]
+                        ^ t[3 * 256 + (bytes[i + 4] & 0xFF)]
+                        ^ t[2 * 256 + (bytes[i + 5] & 0xFF)]
+                        ^ t[256 + (bytes[i + 6] & 0xFF)]
+                        ^ t[bytes[i + 7] & 0xFF];
+            }
+            for (; i < end; i++) {
+                crc = (crc >>> 8) ^ t[(crc ^ bytes[i]) & 0xFF];
+            }
+        } else {
+            int shift = mWidth - 8;
+            int mask = (int) mMask;
+            for (; i + 8 <= end; i += 8) {
+                int aligned = crc << (32 - mWidth);
+                crc = t[7 * 256 + ((bytes[i] ^ (aligned >>> 24)) & 0xFF)]
+                        ^ t[6 * 256 + ((bytes[i + 1] ^ (aligned >>> 16)) & 0xFF)]
+                        ^ t[5 * 256 + ((bytes[i + 2] ^ (aligned >>> 8)) & 0xFF)]
+                        ^ t[4 * 256 + ((bytes[i + 3] ^ aligned) & 0xFF)]
+                        ^ t[3 * 256 + (bytes[i + 4] & 0xFF)]
+                        ^ t[2 * 256 + (bytes[i + 5] & 0xFF)]
+                        ^ t[256 + (bytes[i + 6] & 0xFF)]
+                        ^ t[bytes[i + 7] & 0xFF];
+            }
+            for (; i < end; i++) {
+                crc = ((crc << 8) & mask) ^ t[((crc >>> shift) ^ bytes[i]) & 0xFF];
+            }
+        }
+        return crc & mMask;
+    }
+
+    @Override
+    public long finish(long checksum) {
+        return (checksum ^ mXorOut) & mMask;
+    }
+}
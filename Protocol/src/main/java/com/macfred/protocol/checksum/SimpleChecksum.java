@@ -0,0 +1,67 @@
+package com.macfred.protocol.checksum;
+
+/**
+ * Arithmetic checksums common on simple serial protocols.
+ */
+public enum SimpleChecksum implements ChecksumAlgorithm {
+    /**
+     * Sum of all bytes, modulo 256.
+     */
+    SUM8(1) {
+        @Override
+        public long update(long checksum, byte[] bytes, int start, int length) {
+            int sum = (int) checksum;
+            for (int i = start, end = start + length; i < end; i++) {
+                sum += bytes[i];
+            }
+            return sum & 0xFF;
+        }
+    },
+    /**
+     * Exclusive or of all bytes.
+     */
+    XOR8(1) {
+        @Override
+        public long update(long checksum, byte[] bytes, int start, int length) {
+            int xor = (int) checksum;
+            for (int i = start, end = start + length; i < end; i++) {
+                xor ^= bytes[i];
+            }
+            return xor & 0xFF;
+        }
+    },
+    /**
+     * Sum of all bytes as unsigned values, modulo 65536.
+     */
+    SUM16(2) {
+        @Override
+        public long update(long checksum, byte[] bytes, int start, int length) {
+            int sum = (int) checksum;
+            for (int i = start, end = start + length; i < end; i++) {
+                sum += bytes[i] & 0xFF;
+            }
+            return sum & 0xFFFF;
+        }
+    };
+
+    private final int mLength;
+
+    SimpleChecksum(int length) {
+        mLength = length;
+    }
+
+    @Override
+    public int getLength() {
+        return mLength;
+    }
+
+    @Override
+    public long initial() {
+        return 0;
+    }
+
+    @Override
+    public long finish(long checksum) {
+        return checksum;
+    }
+}
@@ -0,0 +1,245 @@
+package com.macfred.protocol.io;
+
+import com.macfred.protocol.FrameEncodingDescriptor;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound side of a {@link FrameEncodingDescriptor} protocol. Frames are built straight into reusable direct
+ * segments, header, size and trailer filled in place around the payload, and queued frames are written together
+ * with a single {@link GatheringByteChannel#write(ByteBuffer[])}.
+ * <p>
+ * Queued frames are flushed once {@code flushThreshold} bytes are waiting, or once the oldest of them has waited
+ * {@code flushDelay}. The delay is checked on every send, and also enforced from the scheduler if one is given, so a
+ * quiet link doesn't hold frames back. A threshold of 0 writes every frame as it is sent. On non-blocking channels
+ * a flush writes what the channel takes and keeps the rest for the next one, retried from the scheduler if one is
+ * given. Frames are refused once {@link #setMaxQueuedBytes(long) max queued bytes} are still waiting after a flush,
+ * so a backed up channel pushes back on the sender instead of queueing without bound.
+ * <p>
+ * Methods are synchronized, any thread may send.
+ */
+public class PacketEncoder implements Flushable {
+    private static final int DEFAULT_SEGMENT_SIZE = 16 * 1024;
+    private static final long DEFAULT_MAX_QUEUED_BYTES = 64 * DEFAULT_SEGMENT_SIZE;
+    private static final long STALLED_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final FrameEncodingDescriptor mDescriptor;
+    private final GatheringByteChannel mChannel;
+    private final int mFlushThreshold;
+    private final long mFlushDelayNanos;
+    private final ScheduledExecutorService mScheduler;
+    private final int mPayloadOffset;
+    private final int mFrameOverhead;
+    private final int mSegmentSize;
+    private final ArrayDeque<Segment> mQueuedSegments = new ArrayDeque<>();
+    private final ArrayDeque<Segment> mFreeSegments = new ArrayDeque<>();
+    private ByteBuffer[] mGather = new ByteBuffer[0];
+    private long mQueuedBytes;
+    private long mMaxQueuedBytes;
+    private long mFirstQueuedNanos;
+    private boolean mFlushScheduled;
+    private IOException mScheduledFlushFailure;
+    private long mFramesSent;
+    private long mWrites;
+    private final Runnable mScheduledFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (PacketEncoder.this) {
+                mFlushScheduled = false;
+                try {
+                    flushDue();
+                } catch (IOException e) {
+                    mScheduledFlushFailure = e;
+                }
+            }
+        }
+    };
+
+    /**
+     * Writes every frame as it is sent.
+     */
+    public PacketEncoder(FrameEncodingDescriptor descriptor, GatheringByteChannel channel) {
+        this(descriptor, channel, 0, 0, TimeUnit.NANOSECONDS, null);
+    }
+
+    /**
+     * @param flushThreshold queued bytes which trigger a flush
+     * @param flushDelay     longest a queued frame waits for a flush
+     * @param scheduler      enforces the delay when no further frames are sent, may be null to only check it on
+     *                       send and leave the rest to {@link #flush()}
+     */
+    public PacketEncoder(FrameEncodingDescriptor descriptor, GatheringByteChannel channel, int flushThreshold, long flushDelay, TimeUnit unit, ScheduledExecutorService scheduler) {
+        if (flushThreshold < 0 || flushDelay < 0) {
+            throw new IllegalArgumentException(String.format("Invalid flush threshold %1d or delay %2d", flushThreshold, flushDelay));
+        }
+        mDescriptor = descriptor;
+        mChannel = channel;
+        mFlushThreshold = flushThreshold;
+        mFlushDelayNanos = unit.toNanos(flushDelay);
+        mScheduler = scheduler;
+        mPayloadOffset = descriptor.getPayloadOffset();
+        mFrameOverhead = mPayloadOffset + descriptor.getTrailerLength();
+        mSegmentSize = Math.max(DEFAULT_SEGMENT_SIZE, descriptor.getPacketMaxSize());
+        mMaxQueuedBytes = Math.max(DEFAULT_MAX_QUEUED_BYTES, mSegmentSize);
+    }
+
+    /**
+     * @param maxQueuedBytes bytes which may wait for a backed up channel before frames are refused, at least the
+     *                       max packet size
+     */
+    public synchronized void setMaxQueuedBytes(long maxQueuedBytes) {
+        if (maxQueuedBytes < mDescriptor.getPacketMaxSize()) {
+            throw new IllegalArgumentException(String.format("Max queued bytes %1d below max packet size %2d", maxQueuedBytes, mDescriptor.getPacketMaxSize()));
+        }
+        mMaxQueuedBytes = maxQueuedBytes;
+    }
+
+    public boolean send(byte[] payload, int start, int length) throws IOException {
+        return send(ByteBuffer.wrap(payload, start, length));
+    }
+
+    /**
+     * Encodes the remaining bytes of the payload into a frame and queues it, consuming the payload.
+     *
+     * @return false if the frame was refused as the channel is backed up, the payload is left untouched
+     */
+    public synchronized boolean send(ByteBuffer payload) throws IOException {
+        rethrowScheduledFlushFailure();
+        int packetSize = mFrameOverhead + payload.remaining();
+        if (packetSize > mDescriptor.getPacketMaxSize()) {
+            throw new IllegalArgumentException(String.format("Packet of %1d bytes exceeds max packet size %2d", packetSize, mDescriptor.getPacketMaxSize()));
+        }
+        if (mQueuedBytes + packetSize > mMaxQueuedBytes) {
+            flush();
+            if (mQueuedBytes + packetSize > mMaxQueuedBytes) {
+                return false;
+            }
+        }
+        Segment segment = mQueuedSegments.peekLast();
+        if (segment == null || mSegmentSize - segment.mFill < packetSize) {
+            segment = mFreeSegments.isEmpty() ? new Segment(mSegmentSize) : mFreeSegments.poll();
+            mQueuedSegments.add(segment);
+        }
+        ByteBuffer frame = segment.mBuffer;
+        int frameStart = segment.mFill;
+        mDescriptor.encodeHeader(frame, frameStart);
+        mDescriptor.encodePacketSize(frame, frameStart, packetSize);
+        frame.position(frameStart + mPayloadOffset);
+        frame.put(payload);
+        mDescriptor.encodeTrailer(frame, frameStart, packetSize);
+        segment.mFill += packetSize;
+        if (mQueuedBytes == 0) {
+            mFirstQueuedNanos = System.nanoTime();
+        }
+        mQueuedBytes += packetSize;
+        mFramesSent++;
+        if (mQueuedBytes >= mFlushThreshold) {
+            flush();
+        } else {
+            flushDue();
+            scheduleFlush(mFirstQueuedNanos + mFlushDelayNanos - System.nanoTime());
+        }
+        return true;
+    }
+
+    /**
+     * Writes queued frames with gathering writes until the channel stops taking bytes.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        rethrowScheduledFlushFailure();
+        while (mQueuedBytes > 0) {
+            int count = mQueuedSegments.size();
+            if (mGather.length < count) {
+                mGather = new ByteBuffer[count];
+            }
+            int i = 0;
+            for (Segment segment : mQueuedSegments) {
+                segment.mReader.limit(segment.mFill).position(segment.mWritten);
+                mGather[i++] = segment.mReader;
+            }
+            long written = mChannel.write(mGather, 0, count);
+            mWrites++;
+            for (int j = 0; j < count; j++) {
+                mGather[j] = null;
+            }
+            if (written <= 0) {
+                scheduleFlush(Math.max(mFlushDelayNanos, STALLED_RETRY_NANOS));
+                return;
+            }
+            mQueuedBytes -= written;
+            recycleWrittenSegments();
+        }
+    }
+
+    /**
+     * @return bytes encoded but not written yet
+     */
+    public synchronized long getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    public synchronized long getFramesSent() {
+        return mFramesSent;
+    }
+
+    /**
+     * @return channel writes issued, frames sent divided by this is the coalescing achieved
+     */
+    public synchronized long getWrites() {
+        return mWrites;
+    }
+
+    private void scheduleFlush(long wait) {
+        if (mQueuedBytes > 0 && mScheduler != null && !mFlushScheduled) {
+            mFlushScheduled = true;
+            mScheduler.schedule(mScheduledFlush, Math.max(wait, 0), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void flushDue() throws IOException {
+        if (mQueuedBytes > 0 && System.nanoTime() - mFirstQueuedNanos >= mFlushDelayNanos) {
+            flush();
+        }
+    }
+
+    private void recycleWrittenSegments() {
+        Segment segment;
+        while ((segment = mQueuedSegments.peekFirst()) != null) {
+            segment.mWritten = segment.mReader.position();
+            if (segment.mWritten < segment.mFill) {
+                break;
+            }
+            mQueuedSegments.pollFirst();
+            segment.mFill = 0;
+            segment.mWritten = 0;
+            mFreeSegments.add(segment);
+        }
+    }
+
+    private void rethrowScheduledFlushFailure() throws IOException {
+        IOException failure = mScheduledFlushFailure;
+        if (failure != null) {
+            mScheduledFlushFailure = null;
+            throw failure;
+        }
+    }
+
+    private static final class Segment {
+        private final ByteBuffer mBuffer;
+        private final ByteBuffer mReader;
+        private int mFill;
+        private int mWritten;
+
+        private Segment(int size) {
+            mBuffer = ByteBuffer.allocateDirect(size);
+            mReader = mBuffer.duplicate();
+        }
+    }
+}
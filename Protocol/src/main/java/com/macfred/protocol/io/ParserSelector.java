@@ -0,0 +1,418 @@
+package com.macfred.protocol.io;
+
+import com.macfred.protocol.PacketDescriptor;
+import com.macfred.protocol.metrics.ParserMetrics;
+import com.macfred.protocol.parser.AbsParser;
+import com.macfred.protocol.parser.DirectParserBuffer;
+import com.macfred.protocol.parser.PacketReceiver;
+import com.macfred.protocol.parser.PacketViewReceiver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Non-blocking front end which reads socket channels straight into per connection {@link AbsParser}s and parses
+ * them inline on the selector thread.
+ * <p>
+ * A ready connection is read and parsed a bounded number of times per wakeup, so one fast sender can't starve the
+ * others. Parsing always frees buffer space, as packets never exceed the buffer size, so the buffer never
+ * overflows between reads. Besides TCP, any {@link ServerSocketChannel} can be served through
+ * {@link #listen(ServerSocketChannel, AcceptHandler)}, e.g. a Unix-domain one on runtimes which support it.
+ * <p>
+ * A callback throwing doesn't take the selector thread down: the exception goes to its uncaught exception handler
+ * and only the connection it was called for is closed.
+ */
+public class ParserSelector implements Closeable {
+    private static final int MAX_READS_PER_WAKEUP = 16;
+
+    private final Selector mSelector;
+    private final Queue<Runnable> mPendingTasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean mRunning;
+    private volatile Thread mSelectorThread;
+    private CountDownLatch mStopped;
+
+    public ParserSelector() throws IOException {
+        mSelector = Selector.open();
+    }
+
+    /**
+     * Binds a TCP server socket and serves the connections it accepts.
+     *
+     * @return address actually bound, useful when binding port 0
+     */
+    public SocketAddress listen(SocketAddress address, AcceptHandler acceptHandler) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            listen(serverChannel, acceptHandler);
+        } catch (IOException | RuntimeException e) {
+            serverChannel.close();
+            throw e;
+        }
+        return serverChannel.getLocalAddress();
+    }
+
+    public SocketAddress listen(int port, AcceptHandler acceptHandler) throws IOException {
+        return listen(new InetSocketAddress(port), acceptHandler);
+    }
+
+    /**
+     * Serves the connections accepted by an already bound server channel of any protocol family.
+     */
+    public void listen(final ServerSocketChannel serverChannel, final AcceptHandler acceptHandler) throws IOException {
+        serverChannel.configureBlocking(false);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serverChannel.register(mSelector, SelectionKey.OP_ACCEPT, acceptHandler);
+                } catch (ClosedChannelException e) {
+                    // closed before the selector got to it
+                }
+            }
+        });
+    }
+
+    /**
+     * Parses an already connected channel, for instance one opened by a client.
+     */
+    public Connection register(final SocketChannel channel, Binding binding) throws IOException {
+        channel.configureBlocking(false);
+        final Connection connection = new Connection(channel, binding);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                connection.register();
+            }
+        });
+        return connection;
+    }
+
+    public synchronized void start() {
+        if (mRunning) {
+            throw new IllegalStateException("Parser selector already running");
+        }
+        mRunning = true;
+        final CountDownLatch stopped = new CountDownLatch(1);
+        mStopped = stopped;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loop();
+                } finally {
+                    stopped.countDown();
+                }
+            }
+        }, "ParserSelector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the selector thread, connections stay registered until {@link #close()}.
+     */
+    public void stop() throws InterruptedException {
+        CountDownLatch stopped;
+        synchronized (this) {
+            if (!mRunning) {
+                return;
+            }
+            mRunning = false;
+            stopped = mStopped;
+        }
+        mSelector.wakeup();
+        if (Thread.currentThread() != mSelectorThread) {
+            stopped.await();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : mSelector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) {
+                ((Connection) attachment).close();
+            } else {
+                key.channel().close();
+            }
+        }
+        mSelector.close();
+    }
+
+    private void execute(Runnable task) {
+        mPendingTasks.add(task);
+        mSelector.wakeup();
+    }
+
+    private void loop() {
+        mSelectorThread = Thread.currentThread();
+        try {
+            while (mRunning) {
+                Runnable task;
+                while ((task = mPendingTasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        reportFailure(e);
+                    }
+                }
+                try {
+                    mSelector.select();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept(key);
+                        } else if (key.isReadable()) {
+                            ((Connection) key.attachment()).read();
+                        }
+                    } catch (RuntimeException e) {
+                        reportFailure(e);
+                        if (key.attachment() instanceof Connection) {
+                            ((Connection) key.attachment()).close(new IOException("Connection callback failed", e));
+                        }
+                    }
+                }
+            }
+        } finally {
+            mSelectorThread = null;
+            mRunning = false;
+        }
+    }
+
+    private static void reportFailure(Throwable e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already failing
+        }
+    }
+
+    private void accept(SelectionKey key) {
+        ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+        AcceptHandler acceptHandler = (AcceptHandler) key.attachment();
+        SocketChannel channel;
+        while (true) {
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                Binding binding = acceptHandler.onAccepted(channel);
+                if (binding == null) {
+                    channel.close();
+                    continue;
+                }
+                channel.configureBlocking(false);
+                new Connection(channel, binding).register();
+            } catch (IOException e) {
+                closeQuietly(channel);
+            } catch (RuntimeException e) {
+                reportFailure(e);
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    public interface AcceptHandler {
+        /**
+         * @return how to parse the accepted connection, null to close it
+         */
+        Binding onAccepted(SocketChannel channel) throws IOException;
+    }
+
+    /**
+     * Parser setup of a connection.
+     */
+    public static final class Binding {
+        private final int mBufferSize;
+        private final PacketDescriptor mPacketDescriptor;
+        private final PacketReceiver mPacketReceiver;
+        private final PacketViewReceiver mPacketViewReceiver;
+        private ConnectionListener mConnectionListener;
+
+        public Binding(int bufferSize, PacketDescriptor packetDescriptor, PacketReceiver packetReceiver) {
+            this(bufferSize, packetDescriptor, packetReceiver, null);
+        }
+
+        /**
+         * Delivers packets as views into the connection's parser buffer, only valid until the callback returns.
+         */
+        public Binding(int bufferSize, PacketDescriptor packetDescriptor, PacketViewReceiver packetViewReceiver) {
+            this(bufferSize, packetDescriptor, null, packetViewReceiver);
+        }
+
+        private Binding(int bufferSize, PacketDescriptor packetDescriptor, PacketReceiver packetReceiver, PacketViewReceiver packetViewReceiver) {
+            mBufferSize = bufferSize;
+            mPacketDescriptor = packetDescriptor;
+            mPacketReceiver = packetReceiver;
+            mPacketViewReceiver = packetViewReceiver;
+        }
+
+        public Binding setConnectionListener(ConnectionListener connectionListener) {
+            mConnectionListener = connectionListener;
+            return this;
+        }
+    }
+
+    public interface ConnectionListener {
+        void onConnected(Connection connection);
+
+        /**
+         * @param cause failure which closed the connection, wrapping the exception when a callback threw, null on
+         *              end of stream or explicit close
+         */
+        void onClosed(Connection connection, IOException cause);
+    }
+
+    public class Connection {
+        private final SocketChannel mChannel;
+        private final AbsParser mAbsParser;
+        private final AbsParser.ProcessReport mProcessReport = new AbsParser.ProcessReport();
+        private final Binding mBinding;
+        private final ParserMetrics mMetrics = new ParserMetrics();
+        private SelectionKey mSelectionKey;
+        private volatile boolean mClosed;
+
+        private Connection(SocketChannel channel, Binding binding) {
+            mChannel = channel;
+            mBinding = binding;
+            mAbsParser = new AbsParser(new DirectParserBuffer(binding.mBufferSize), binding.mPacketDescriptor);
+        }
+
+        public SocketChannel getChannel() {
+            return mChannel;
+        }
+
+        public AbsParser getParser() {
+            return mAbsParser;
+        }
+
+        public ParserMetrics getMetrics() {
+            return mMetrics;
+        }
+
+        public boolean isOpen() {
+            return !mClosed;
+        }
+
+        public void close() {
+            close(null);
+        }
+
+        private void register() {
+            try {
+                mSelectionKey = mChannel.register(mSelector, SelectionKey.OP_READ, this);
+            } catch (ClosedChannelException e) {
+                close(e);
+                return;
+            }
+            if (mBinding.mConnectionListener != null) {
+                try {
+                    mBinding.mConnectionListener.onConnected(this);
+                } catch (RuntimeException e) {
+                    reportFailure(e);
+                    close(new IOException("Connection callback failed", e));
+                }
+            }
+        }
+
+        /**
+         * Reads and parses until the channel has nothing more or the reads per wakeup are used up, the selector
+         * reports the channel ready again on its next select if bytes are left.
+         */
+        private void read() {
+            for (int reads = 0; reads < MAX_READS_PER_WAKEUP; reads++) {
+                int read;
+                try {
+                    read = mAbsParser.receive(mChannel);
+                } catch (IOException e) {
+                    close(e);
+                    return;
+                }
+                if (read < 0) {
+                    parse();
+                    close(null);
+                    return;
+                }
+                if (read == 0) {
+                    return;
+                }
+                mMetrics.recordOccupancy(mAbsParser.getBuffer().getCachedBytes());
+                parse();
+            }
+        }
+
+        private void parse() {
+            if (mBinding.mPacketViewReceiver != null) {
+                mAbsParser.tryParsePackets(0, mProcessReport, mBinding.mPacketViewReceiver);
+                mMetrics.record(mProcessReport);
+                return;
+            }
+            mAbsParser.tryParsePackets(0, mProcessReport);
+            mMetrics.record(mProcessReport);
+            if (mBinding.mPacketReceiver != null) {
+                for (byte[] packet : mProcessReport.newPacketsFound) {
+                    mBinding.mPacketReceiver.onNewPacket(packet, 0, packet.length);
+                }
+            }
+            mProcessReport.newPacketsFound.clear();
+        }
+
+        private void close(IOException cause) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mSelectionKey != null) {
+                mSelectionKey.cancel();
+            }
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            if (mBinding.mConnectionListener != null) {
+                try {
+                    mBinding.mConnectionListener.onClosed(this, cause);
+                } catch (RuntimeException e) {
+                    reportFailure(e);
+                }
+            }
+        }
+    }
+}
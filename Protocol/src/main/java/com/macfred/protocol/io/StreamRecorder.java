@@ -0,0 +1,185 @@
+package com.macfred.protocol.io;
+
+import com.macfred.protocol.parser.ParserBuffer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Records the raw bytes fed to a parser, for {@link StreamReplayer} to feed them again later. Chunks are appended
+ * to memory mapped segment files as [timestamp nanos, length, bytes] records, a new segment is mapped whenever the
+ * current one is full, so recording a chunk is a few puts into mapped memory and never a system call but on rolls.
+ * <p>
+ * Segments are named {@code <name>-000000.rec} and up, each one preallocated to the segment size and starting
+ * with a header holding the wall clock time the recording started. Timestamps count from that start across all
+ * segments. A record's length is written last, so a record torn by a crash reads as the end of the segment.
+ * <p>
+ * Methods are synchronized, chunks recorded from several threads end up in the order they were recorded.
+ */
+public class StreamRecorder implements Flushable, Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    static final int SEGMENT_MAGIC = 0x50525352;
+    static final int SEGMENT_VERSION = 1;
+    static final int SEGMENT_HEADER_LENGTH = 16;
+    static final int RECORD_HEADER_LENGTH = 12;
+    private static final String SEGMENT_SUFFIX = ".rec";
+
+    private final File mDirectory;
+    private final String mName;
+    private final int mSegmentSize;
+    private final long mStartMillis;
+    private final long mStartNanos;
+    private MappedByteBuffer mSegment;
+    private int mSegmentCount;
+    private long mRecordedBytes;
+    private long mRecords;
+    private byte[] mScratch = new byte[0];
+    private boolean mClosed;
+
+    public StreamRecorder(File directory, String name) throws IOException {
+        this(directory, name, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param name prefix of the segment files, no segment of that name may exist in the directory yet
+     */
+    public StreamRecorder(File directory, String name, int segmentSize) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_LENGTH + RECORD_HEADER_LENGTH) {
+            throw new IllegalArgumentException(String.format("Invalid segment size %1d", segmentSize));
+        }
+        mDirectory = directory;
+        mName = name;
+        mSegmentSize = segmentSize;
+        mStartMillis = System.currentTimeMillis();
+        mStartNanos = System.nanoTime();
+        roll();
+    }
+
+    /**
+     * Appends a chunk stamped with the current time, split over segments if it doesn't fit the current one.
+     */
+    public synchronized void record(byte[] data, int start, int length) {
+        if (mClosed) {
+            throw new IllegalStateException("Stream recorder closed");
+        }
+        long timestamp = System.nanoTime() - mStartNanos;
+        mRecords++;
+        mRecordedBytes += length;
+        while (length > 0) {
+            MappedByteBuffer segment = mSegment;
+            int recordStart = segment.position();
+            int chunk = Math.min(length, segment.remaining() - RECORD_HEADER_LENGTH);
+            if (chunk <= 0) {
+                rollUnchecked();
+                continue;
+            }
+            segment.putLong(recordStart, timestamp);
+            segment.position(recordStart + RECORD_HEADER_LENGTH);
+            segment.put(data, start, chunk);
+            segment.putInt(recordStart + 8, chunk);
+            start += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Records cached bytes [start, start + length) of a parser buffer, e.g. the bytes just read into it.
+     */
+    public synchronized void record(ParserBuffer buffer, int start, int length) {
+        int arrayOffset = buffer.arrayOffset(start, length);
+        if (arrayOffset >= 0) {
+            record(buffer.array(), arrayOffset, length);
+            return;
+        }
+        if (mScratch.length < length) {
+            mScratch = new byte[Math.max(length, mScratch.length * 2)];
+        }
+        buffer.peek(start, length, mScratch, 0);
+        record(mScratch, 0, length);
+    }
+
+    public synchronized long getRecordedBytes() {
+        return mRecordedBytes;
+    }
+
+    public synchronized long getRecords() {
+        return mRecords;
+    }
+
+    public synchronized int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    /**
+     * Forces the current segment to storage, earlier segments were forced when rolled.
+     */
+    @Override
+    public synchronized void flush() {
+        if (!mClosed) {
+            mSegment.force();
+        }
+    }
+
+    /**
+     * Forces the current segment and stops recording. Segments stay mapped until garbage collected, the runtime
+     * offers no way to unmap them earlier.
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mSegment.force();
+        mSegment = null;
+        mClosed = true;
+    }
+
+    /**
+     * @return segments of the recording, in order
+     */
+    public static List<File> segmentsOf(File directory, String name) {
+        final Pattern segmentName = Pattern.compile(Pattern.quote(name) + "-\\d{6}" + Pattern.quote(SEGMENT_SUFFIX));
+        File[] files = directory.listFiles();
+        List<File> segments = new ArrayList<>();
+        if (files == null) {
+            return segments;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (segmentName.matcher(file.getName()).matches()) {
+                segments.add(file);
+            }
+        }
+        return segments;
+    }
+
+    private void rollUnchecked() {
+        try {
+            roll();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void roll() throws IOException {
+        if (mSegment != null) {
+            mSegment.force();
+        }
+        File file = new File(mDirectory, String.format("%s-%06d%s", mName, mSegmentCount, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            mSegment = channel.map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        }
+        mSegment.putInt(SEGMENT_MAGIC).putInt(SEGMENT_VERSION).putLong(mStartMillis);
+        mSegmentCount++;
+    }
+}
@@ -0,0 +1,189 @@
+package com.macfred.protocol.io;
+
+import com.macfred.protocol.metrics.ParserMetrics;
+import com.macfred.protocol.metrics.ParserMetricsMBean;
+import com.macfred.protocol.parser.AbsParser;
+import com.macfred.protocol.parser.AdvancedParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
+/**
+ * Feeds a recording of {@link StreamRecorder} back through a parser, chunk by chunk as it was received, either
+ * at the original pacing or as fast as the parser takes it.
+ */
+public class StreamReplayer {
+    private final File mDirectory;
+    private final String mName;
+    private final boolean mPaced;
+    private byte[] mChunk = new byte[4096];
+
+    /**
+     * @param paced whether chunks are fed at the pace they were recorded, rather than as fast as possible
+     */
+    public StreamReplayer(File directory, String name, boolean paced) {
+        mDirectory = directory;
+        mName = name;
+        mPaced = paced;
+    }
+
+    /**
+     * Feeds the recording to any parser.
+     *
+     * @param metrics counters of the parser to report, may be null
+     */
+    public Report replay(Receiver receiver, @Nullable ParserMetricsMBean metrics) throws IOException {
+        List<File> segments = StreamRecorder.segmentsOf(mDirectory, mName);
+        if (segments.isEmpty()) {
+            throw new IOException(String.format("No recording %1s in %2s", mName, mDirectory));
+        }
+        long records = 0;
+        long bytes = 0;
+        long firstTimestamp = -1;
+        long start = System.nanoTime();
+        for (File file : segments) {
+            MappedByteBuffer segment = map(file);
+            while (segment.remaining() >= StreamRecorder.RECORD_HEADER_LENGTH) {
+                int recordStart = segment.position();
+                long timestamp = segment.getLong(recordStart);
+                int length = segment.getInt(recordStart + 8);
+                if (length <= 0 || length > segment.remaining() - StreamRecorder.RECORD_HEADER_LENGTH) {
+                    break;
+                }
+                if (mChunk.length < length) {
+                    mChunk = new byte[Math.max(length, mChunk.length * 2)];
+                }
+                segment.position(recordStart + StreamRecorder.RECORD_HEADER_LENGTH);
+                segment.get(mChunk, 0, length);
+                if (firstTimestamp < 0) {
+                    firstTimestamp = timestamp;
+                } else if (mPaced) {
+                    awaitUntil(start + timestamp - firstTimestamp);
+                }
+                receiver.receive(mChunk, 0, length);
+                records++;
+                bytes += length;
+            }
+        }
+        return new Report(records, bytes, System.nanoTime() - start, metrics);
+    }
+
+    /**
+     * Feeds the recording to a parser, parsing after every chunk and throwing the packets away.
+     */
+    public Report replay(final AbsParser parser) throws IOException {
+        final ParserMetrics metrics = new ParserMetrics();
+        final AbsParser.ProcessReport processReport = new AbsParser.ProcessReport();
+        return replay(new Receiver() {
+            @Override
+            public void receive(byte[] data, int start, int length) {
+                while (length > 0) {
+                    int offer = Math.min(length, parser.getBuffer().getAvailableSpace());
+                    parser.receive(data, start, offer);
+                    start += offer;
+                    length -= offer;
+                    metrics.record(parser.tryParsePackets(0, processReport));
+                    metrics.recordOccupancy(parser.getBuffer().getCachedBytes());
+                }
+            }
+        }, metrics);
+    }
+
+    /**
+     * Feeds the recording to a running parser, its metrics are reported as they are when the last chunk got
+     * received, its drain stage may still be parsing by then.
+     */
+    public Report replay(final AdvancedParser parser) throws IOException {
+        return replay(new Receiver() {
+            @Override
+            public void receive(byte[] data, int start, int length) {
+                parser.receive(data, start, length);
+            }
+        }, parser.getMetrics());
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        MappedByteBuffer segment;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (segment.remaining() < StreamRecorder.SEGMENT_HEADER_LENGTH || segment.getInt() != StreamRecorder.SEGMENT_MAGIC) {
+            throw new IOException(String.format("Not a stream recording segment: %1s", file));
+        }
+        int version = segment.getInt();
+        if (version != StreamRecorder.SEGMENT_VERSION) {
+            throw new IOException(String.format("Unsupported segment version %1d: %2s", version, file));
+        }
+        segment.getLong();
+        return segment;
+    }
+
+    private static void awaitUntil(long deadline) {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    /**
+     * Takes the recorded chunks, e.g. a parser's receive method.
+     */
+    public interface Receiver {
+
+        void receive(byte[] data, int start, int length);
+    }
+
+    public static final class Report {
+        private final long mRecords;
+        private final long mBytes;
+        private final long mElapsedNanos;
+        private final ParserMetricsMBean mMetrics;
+
+        private Report(long records, long bytes, long elapsedNanos, ParserMetricsMBean metrics) {
+            mRecords = records;
+            mBytes = bytes;
+            mElapsedNanos = elapsedNanos;
+            mMetrics = metrics;
+        }
+
+        public long getRecords() {
+            return mRecords;
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        public double getBytesPerSecond() {
+            return mElapsedNanos == 0 ? 0 : mBytes * 1e9 / mElapsedNanos;
+        }
+
+        /**
+         * @return counters of the parser fed, null when none were given
+         */
+        public ParserMetricsMBean getMetrics() {
+            return mMetrics;
+        }
+
+        @Override
+        public String toString() {
+            String replay = String.format("%d records, %d bytes in %.3f ms, %.1f MB/s", mRecords, mBytes, mElapsedNanos / 1e6, getBytesPerSecond() / 1e6);
+            if (mMetrics == null) {
+                return replay;
+            }
+            return String.format("%s; %d packets, %d consumed, %d wasted, %d resyncs, %d verify failures, %d invalid sizes", replay,
+                    mMetrics.getPacketsParsed(), mMetrics.getConsumedBytes(), mMetrics.getWastedBytes(), mMetrics.getResyncs(), mMetrics.getVerifyFailures(), mMetrics.getInvalidSizes());
+        }
+    }
+}
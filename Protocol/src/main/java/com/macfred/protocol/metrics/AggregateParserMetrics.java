@@ -0,0 +1,122 @@
+package com.macfred.protocol.metrics;
+
+/**
+ * Sums the metrics of a changing set of parsers on every read. The occupancy high-water mark is the highest of
+ * any single parser.
+ */
+public class AggregateParserMetrics implements ParserMetricsMBean {
+    private final Iterable<? extends ParserMetricsMBean> mMetrics;
+
+    /**
+     * @param metrics live view of the parsers to sum, safe to iterate while it changes
+     */
+    public AggregateParserMetrics(Iterable<? extends ParserMetricsMBean> metrics) {
+        mMetrics = metrics;
+    }
+
+    @Override
+    public long getPacketsParsed() {
+        long sum = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            sum += metrics.getPacketsParsed();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getConsumedBytes() {
+        long sum = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            sum += metrics.getConsumedBytes();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getWastedBytes() {
+        long sum = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            sum += metrics.getWastedBytes();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getResyncs() {
+        long sum = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            sum += metrics.getResyncs();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getVerifyFailures() {
+        long sum = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            sum += metrics.getVerifyFailures();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getInvalidSizes() {
+        long sum = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            sum += metrics.getInvalidSizes();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getDroppedOldestBytes() {
+        long sum = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            sum += metrics.getDroppedOldestBytes();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getDroppedLatestHeadBytes() {
+        long sum = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            sum += metrics.getDroppedLatestHeadBytes();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getDroppedLatestTailBytes() {
+        long sum = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            sum += metrics.getDroppedLatestTailBytes();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getOccupancyHighWater() {
+        long max = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            max = Math.max(max, metrics.getOccupancyHighWater());
+        }
+        return max;
+    }
+
+    @Override
+    public long getProducerBlockedNanos() {
+        long sum = 0;
+        for (ParserMetricsMBean metrics : mMetrics) {
+            sum += metrics.getProducerBlockedNanos();
+        }
+        return sum;
+    }
+
+    @Override
+    public void reset() {
+        for (ParserMetricsMBean metrics : mMetrics) {
+            metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.macfred.protocol.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Publishes parser metrics on the platform MBean server, kept apart from the metrics themselves so runtimes
+ * without JMX can still count.
+ */
+public final class MetricsExporter {
+    private static final String DOMAIN = "com.macfred.protocol";
+
+    private MetricsExporter() {
+    }
+
+    /**
+     * @param type e.g. "AdvancedParser" or "ParserGroup"
+     * @param name unique among the exported metrics of the type
+     */
+    public static ObjectName register(String type, String name, ParserMetricsMBean metrics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            server.registerMBean(new StandardMBean(metrics, ParserMetricsMBean.class), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new RuntimeException(String.format("Failed to export metrics of %s %s", type, name), e);
+        }
+    }
+
+    public static void unregister(ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new RuntimeException(String.format("Failed to unexport metrics %s", objectName), e);
+        }
+    }
+}
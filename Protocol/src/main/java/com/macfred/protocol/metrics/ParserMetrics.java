@@ -0,0 +1,162 @@
+package com.macfred.protocol.metrics;
+
+import com.macfred.protocol.parser.AbsParser;
+import com.macfred.protocol.parser.AdvancedParser;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a single parser. Parse results are added once per {@link AbsParser.ProcessReport} rather than per
+ * packet, and every counter is a {@link LongAdder} so producers and the drain stage don't contend on updates.
+ */
+public class ParserMetrics implements ParserMetricsMBean {
+    private final LongAdder mPacketsParsed = new LongAdder();
+    private final LongAdder mConsumedBytes = new LongAdder();
+    private final LongAdder mWastedBytes = new LongAdder();
+    private final LongAdder mResyncs = new LongAdder();
+    private final LongAdder mVerifyFailures = new LongAdder();
+    private final LongAdder mInvalidSizes = new LongAdder();
+    private final LongAdder mDroppedOldestBytes = new LongAdder();
+    private final LongAdder mDroppedLatestHeadBytes = new LongAdder();
+    private final LongAdder mDroppedLatestTailBytes = new LongAdder();
+    private final LongAdder mProducerBlockedNanos = new LongAdder();
+    private final AtomicLong mOccupancyHighWater = new AtomicLong();
+
+    public void record(AbsParser.ProcessReport report) {
+        if (report.packetsFound > 0) {
+            mPacketsParsed.add(report.packetsFound);
+        }
+        if (report.consumedBytes > 0) {
+            mConsumedBytes.add(report.consumedBytes);
+        }
+        if (report.wastedBytes > 0) {
+            mWastedBytes.add(report.wastedBytes);
+        }
+        if (report.resyncs > 0) {
+            mResyncs.add(report.resyncs);
+        }
+        if (report.verifyFailures > 0) {
+            mVerifyFailures.add(report.verifyFailures);
+        }
+        if (report.invalidSizes > 0) {
+            mInvalidSizes.add(report.invalidSizes);
+        }
+    }
+
+    public void recordDrop(AdvancedParser.CongestionPolicy congestionPolicy, long bytes) {
+        switch (congestionPolicy) {
+            case DropOldest:
+                mDroppedOldestBytes.add(bytes);
+                break;
+            case DropLatestHead:
+                mDroppedLatestHeadBytes.add(bytes);
+                break;
+            case DropLatestTail:
+                mDroppedLatestTailBytes.add(bytes);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void recordOccupancy(long cachedBytes) {
+        long highWater;
+        while (cachedBytes > (highWater = mOccupancyHighWater.get())) {
+            if (mOccupancyHighWater.compareAndSet(highWater, cachedBytes)) {
+                return;
+            }
+        }
+    }
+
+    public void recordProducerBlocked(long nanos) {
+        mProducerBlockedNanos.add(nanos);
+    }
+
+    /**
+     * Adds the other parser's counts to this one, e.g. to keep the totals of a parser which goes away.
+     */
+    public void add(ParserMetricsMBean metrics) {
+        mPacketsParsed.add(metrics.getPacketsParsed());
+        mConsumedBytes.add(metrics.getConsumedBytes());
+        mWastedBytes.add(metrics.getWastedBytes());
+        mResyncs.add(metrics.getResyncs());
+        mVerifyFailures.add(metrics.getVerifyFailures());
+        mInvalidSizes.add(metrics.getInvalidSizes());
+        mDroppedOldestBytes.add(metrics.getDroppedOldestBytes());
+        mDroppedLatestHeadBytes.add(metrics.getDroppedLatestHeadBytes());
+        mDroppedLatestTailBytes.add(metrics.getDroppedLatestTailBytes());
+        mProducerBlockedNanos.add(metrics.getProducerBlockedNanos());
+        recordOccupancy(metrics.getOccupancyHighWater());
+    }
+
+    @Override
+    public long getPacketsParsed() {
+        return mPacketsParsed.sum();
+    }
+
+    @Override
+    public long getConsumedBytes() {
+        return mConsumedBytes.sum();
+    }
+
+    @Override
+    public long getWastedBytes() {
+        return mWastedBytes.sum();
+    }
+
+    @Override
+    public long getResyncs() {
+        return mResyncs.sum();
+    }
+
+    @Override
+    public long getVerifyFailures() {
+        return mVerifyFailures.sum();
+    }
+
+    @Override
+    public long getInvalidSizes() {
+        return mInvalidSizes.sum();
+    }
+
+    @Override
+    public long getDroppedOldestBytes() {
+        return mDroppedOldestBytes.sum();
+    }
+
+    @Override
+    public long getDroppedLatestHeadBytes() {
+        return mDroppedLatestHeadBytes.sum();
+    }
+
+    @Override
+    public long getDroppedLatestTailBytes() {
+        return mDroppedLatestTailBytes.sum();
+    }
+
+    @Override
+    public long getOccupancyHighWater() {
+        return mOccupancyHighWater.get();
+    }
+
+    @Override
+    public long getProducerBlockedNanos() {
+        return mProducerBlockedNanos.sum();
+    }
+
+    @Override
+    public void reset() {
+        mPacketsParsed.reset();
+        mConsumedBytes.reset();
+        mWastedBytes.reset();
+        mResyncs.reset();
+        mVerifyFailures.reset();
+        mInvalidSizes.reset();
+        mDroppedOldestBytes.reset();
+        mDroppedLatestHeadBytes.reset();
+        mDroppedLatestTailBytes.reset();
+        mProducerBlockedNanos.reset();
+        mOccupancyHighWater.set(0);
+    }
+}
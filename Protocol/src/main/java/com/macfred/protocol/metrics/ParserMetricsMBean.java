@@ -0,0 +1,42 @@
+package com.macfred.protocol.metrics;
+
+/**
+ * Management interface of {@link ParserMetrics} and {@link AggregateParserMetrics}.
+ */
+public interface ParserMetricsMBean {
+    long getPacketsParsed();
+
+    long getConsumedBytes();
+
+    long getWastedBytes();
+
+    /**
+     * @return times the parser lost sync and had to skip bytes to find the next header
+     */
+    long getResyncs();
+
+    /**
+     * @return packets whose header and size decoded but which failed verification
+     */
+    long getVerifyFailures();
+
+    /**
+     * @return headers dropped because their packet size was out of the descriptor's bounds
+     */
+    long getInvalidSizes();
+
+    long getDroppedOldestBytes();
+
+    long getDroppedLatestHeadBytes();
+
+    long getDroppedLatestTailBytes();
+
+    /**
+     * @return most bytes ever cached in the parser buffer at once
+     */
+    long getOccupancyHighWater();
+
+    long getProducerBlockedNanos();
+
+    void reset();
+}
@@ -1,88 +1,239 @@
 package com.macfred.protocol.parser;
 
 
+import com.macfred.protocol.ChecksumDescriptor;
 import com.macfred.protocol.FieldDescription;
+import com.macfred.protocol.HeaderMagicDescriptor;
 import com.macfred.protocol.PacketDescriptor;
+import com.macfred.protocol.checksum.ChecksumAlgorithm;
+import com.macfred.protocol.io.StreamRecorder;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 
 public class AbsParser {
-	private final AbsParserBuffer mBuffer;
+	private final ParserBuffer mBuffer;
 	private final PacketDescriptor mPacketDescriptor;
 	private final FieldDescription mHeaderDescription;
 	private final FieldDescription mPacketSizeDescription;
-	private final byte[] mPacketProbe;
+	private final byte[] mHeaderMagic;
+	private final BufferProbe mBufferProbe;
+	private final int mMinPacketSize;
+	private final int mMaxPacketSize;
+	private byte[] mProbe;
+	private byte[] mHeaderWindow;
+	private byte[] mHeaderWindowCopy;
+	private int mHeaderWindowStart;
+	private int mHeaderWindowLength;
+	private PacketView mPacketView;
 	private int mPacketSize;
 	private Status mStatus;
+	private final ChecksumDescriptor mChecksumDescriptor;
+	private final ChecksumAlgorithm mChecksumAlgorithm;
+	private long mChecksum;
+	private int mChecksummedLength;
+	private StreamRecorder mStreamRecorder;
 
 	public AbsParser(int bufferSize, PacketDescriptor packetDescriptor) {
-		mBuffer = new AbsParserBuffer(bufferSize);
+		this(new AbsParserBuffer(bufferSize), packetDescriptor);
+	}
+
+	public AbsParser(ParserBuffer buffer, PacketDescriptor packetDescriptor) {
+		mBuffer = buffer;
 		mPacketDescriptor = packetDescriptor;
 		mHeaderDescription = packetDescriptor.getHeaderDescription();
 		mPacketSizeDescription = packetDescriptor.getPacketSizeDescription();
-		mPacketProbe = new byte[packetDescriptor.getPacketMaxSize()];
+		mHeaderMagic = headerMagicOf(packetDescriptor, mHeaderDescription);
+		mBufferProbe = new BufferProbe(buffer, packetDescriptor.getPacketMaxSize());
+		if (packetDescriptor instanceof ChecksumDescriptor) {
+			mChecksumDescriptor = (ChecksumDescriptor) packetDescriptor;
+			mChecksumAlgorithm = mChecksumDescriptor.getChecksumAlgorithm();
+		} else {
+			mChecksumDescriptor = null;
+			mChecksumAlgorithm = null;
+		}
+		int minPacketSize = Math.max(mHeaderDescription.length, mPacketSizeDescription.start + mPacketSizeDescription.length);
+		if (mChecksumDescriptor != null) {
+			minPacketSize = Math.max(minPacketSize, mChecksumDescriptor.getChecksumStart() + mChecksumAlgorithm.getLength());
+		}
+		mMinPacketSize = minPacketSize;
+		mMaxPacketSize = Math.min(packetDescriptor.getPacketMaxSize(), buffer.getBufferSize());
 		mStatus = Status.WaitForHeader;
 		mPacketSize = 0;
 	}
 
 	public void receive(byte[] data, int start, int length) {
 		mBuffer.offer(data, start, length);
+		if (mStreamRecorder != null) {
+			mStreamRecorder.record(data, start, length);
+		}
+	}
+
+	/**
+	 * @return bytes count read, 0 when the buffer is full, -1 on end of stream
+	 */
+	public int receive(ReadableByteChannel channel) throws IOException {
+		int read = mBuffer.readFrom(channel);
+		if (read > 0 && mStreamRecorder != null) {
+			mStreamRecorder.record(mBuffer, mBuffer.getCachedBytes() - read, read);
+		}
+		return read;
+	}
+
+	/**
+	 * Records every byte received from now on, null to stop recording.
+	 */
+	public void setStreamRecorder(StreamRecorder streamRecorder) {
+		mStreamRecorder = streamRecorder;
 	}
 
-	public AbsParserBuffer getBuffer() {
+	/**
+	 * Drops the oldest cached bytes and starts over looking for a header, so no packet gets assembled from bytes
+	 * on both sides of the gap.
+	 */
+	public void discard(int discard) {
+		mBuffer.skip(discard);
+		advanceHeaderWindow(discard);
+		mStatus = Status.WaitForHeader;
+		mPacketSize = 0;
+	}
+
+	public ParserBuffer getBuffer() {
 		return mBuffer;
 	}
 
 	public ProcessReport tryParsePackets(int captureLimit) {
-		ProcessReport report = new ProcessReport();
+		return tryParsePackets(captureLimit, new ProcessReport());
+	}
+
+	/**
+	 * Same as {@link #tryParsePackets(int)} but fills the given report, so callers can reuse it across calls.
+	 */
+	public ProcessReport tryParsePackets(int captureLimit, ProcessReport report) {
+		report.reset();
+		parsePackets(captureLimit, report, null, null, null, null);
+		return report;
+	}
+
+	/**
+	 * Delivers packets as views into the parser buffer instead of copying them into
+	 * {@link ProcessReport#newPacketsFound}, which stays empty. Every view is only valid until
+	 * {@link PacketViewReceiver#onNewPacket(PacketView)} returns.
+	 */
+	public ProcessReport tryParsePackets(int captureLimit, ProcessReport report, PacketViewReceiver receiver) {
+		if (receiver == null) {
+			throw new IllegalArgumentException("Packet view receiver required");
+		}
+		report.reset();
+		parsePackets(captureLimit, report, receiver, null, null, null);
+		return report;
+	}
+
+	/**
+	 * Copies packets into slices of the pool instead of arrays of their own, {@link ProcessReport#newPacketsFound}
+	 * stays empty. The receiver owns every packet and must release it.
+	 */
+	public ProcessReport tryParsePackets(int captureLimit, ProcessReport report, PacketBufferPool pool, PooledPacketReceiver receiver) {
+		if (pool == null || receiver == null) {
+			throw new IllegalArgumentException("Packet buffer pool and pooled packet receiver required");
+		}
+		report.reset();
+		parsePackets(captureLimit, report, null, null, pool, receiver);
+		return report;
+	}
+
+	/**
+	 * Appends packets to the batch until it is full or no complete packet is left, each packet is copied once
+	 * from the parser buffer into the batch and verified there. {@link ProcessReport#newPacketsFound} stays empty.
+	 */
+	public ProcessReport tryParsePackets(PacketBatch batch, ProcessReport report) {
+		if (batch.getMaxBytes() < mBufferProbe.getMaxLength()) {
+			throw new IllegalArgumentException(String.format("Batch of %1d bytes can't hold packets up to %2d bytes", batch.getMaxBytes(), mBufferProbe.getMaxLength()));
+		}
+		report.reset();
+		parsePackets(0, report, null, batch, null, null);
+		return report;
+	}
+
+	private void parsePackets(int captureLimit, ProcessReport report, PacketViewReceiver receiver, PacketBatch batch, PacketBufferPool pool, PooledPacketReceiver pooledReceiver) {
+		boolean direct = receiver != null || batch != null || pooledReceiver != null || mChecksumDescriptor != null;
 		while (true) {
 			switch (mStatus) {
 				case WaitForHeader:
-					while (mBuffer.getCachedBytes() >= mHeaderDescription.length) {
-						mBuffer.peek(0, mHeaderDescription.length, mPacketProbe, 0);
-						if (mPacketDescriptor.verifyHeader(mPacketProbe, 0)) {
-							mStatus = Status.WaitForPacketSize;
-							break;
-						} else {
-							mBuffer.skip(1);
-							report.wastedBytes++;
-						}
-					}
-					if (mStatus == Status.WaitForHeader) {
-						return report;
+					if (!findHeader(report, direct)) {
+						return;
 					}
+					mStatus = Status.WaitForPacketSize;
+					mBufferProbe.endResync();
 				case WaitForPacketSize:
 					if (mBuffer.getCachedBytes() < mPacketSizeDescription.start + mPacketSizeDescription.length) {
-						return report;
+						return;
 					}
 					mStatus = Status.WaitForTermination;
-					mBuffer.peek(mPacketSizeDescription.start, mPacketSizeDescription.length, mPacketProbe, mPacketSizeDescription.start);
-					mPacketSize = mPacketDescriptor.decodePacketSize(mPacketProbe, mPacketSizeDescription.start);
+					int sizeStart = probe(mPacketSizeDescription.start, mPacketSizeDescription.length, direct);
+					mPacketSize = mPacketDescriptor.decodePacketSize(mProbe, sizeStart);
+					if (mPacketSize < mMinPacketSize || mPacketSize > mMaxPacketSize) {
+						report.invalidSizes++;
+						rejectHeader(report);
+						break;
+					}
+					if (mChecksumDescriptor != null) {
+						mChecksum = mChecksumAlgorithm.initial();
+						mChecksummedLength = mChecksumDescriptor.getChecksumStart();
+					}
 				case WaitForTermination:
+					if (mChecksumDescriptor != null) {
+						updateChecksum();
+					}
 					if (mBuffer.getCachedBytes() < mPacketSize) {
-						return report;
+						return;
 					}
-					mBuffer.peek(0, mPacketSize, mPacketProbe, 0);
-					if (mPacketDescriptor.verifyAndAcceptPacket(mPacketProbe, 0, mPacketSize)) {
-						byte[] newPacket = new byte[mPacketSize];
-						System.arraycopy(mPacketProbe, 0, newPacket, 0, mPacketSize);
+					int packetStart;
+					if (batch != null) {
+						if (batch.isFull() || batch.getRemainingBytes() < mPacketSize) {
+							return;
+						}
+						packetStart = batch.getBytesUsed();
+						mBuffer.peek(0, mPacketSize, batch.bytes(), packetStart);
+						mProbe = batch.bytes();
+					} else {
+						packetStart = probe(0, mPacketSize, direct);
+					}
+					if (verifyPacket(packetStart)) {
+						if (batch != null) {
+							batch.append(mPacketSize);
+						} else if (pooledReceiver != null) {
+							PooledPacket newPacket = pool.acquire(mPacketSize);
+							System.arraycopy(mProbe, packetStart, newPacket.array(), newPacket.offset(), mPacketSize);
+							pooledReceiver.onNewPacket(newPacket);
+						} else if (receiver == null) {
+							byte[] newPacket = new byte[mPacketSize];
+							System.arraycopy(mProbe, packetStart, newPacket, 0, mPacketSize);
+							report.newPacketsFound.add(newPacket);
+						} else {
+							if (mPacketView == null) {
+								mPacketView = mBuffer.createView();
+							}
+							mBuffer.view(0, mPacketSize, mPacketView);
+							receiver.onNewPacket(mPacketView);
+						}
 						report.consumedBytes += mPacketSize;
-						report.newPacketsFound.add(newPacket);
+						report.packetsFound++;
 						mBuffer.skip(mPacketSize);
+						advanceHeaderWindow(mPacketSize);
 						mStatus = Status.WaitForHeader;
 						mPacketSize = 0;
 						if (captureLimit <= 0) {
 							continue;
 						}
 						if (--captureLimit <= 0) {
-							return report;
+							return;
 						}
 					} else {
-						mBuffer.skip(mHeaderDescription.length);
-						report.wastedBytes += mHeaderDescription.length;
-						mStatus = Status.WaitForHeader;
-						mPacketSize = 0;
+						report.verifyFailures++;
+						rejectHeader(report);
 					}
 					break;
 				default:
@@ -91,15 +242,173 @@ public class AbsParser {
 		}
 	}
 
+	/**
+	 * Drops bytes until a verified header starts the cached bytes. Without a header magic, candidates are looked
+	 * for in a window of cached bytes probed once and kept while bytes are dropped or consumed, so a rejected
+	 * header only moves the search on within the window instead of probing it again.
+	 *
+	 * @return false when cached bytes ran out first
+	 */
+	private boolean findHeader(ProcessReport report, boolean direct) {
+		int headerLength = mHeaderDescription.length;
+		while (mBuffer.getCachedBytes() >= headerLength) {
+			if (mHeaderMagic != null) {
+				int headerCandidate = mBuffer.indexOf(mHeaderMagic, 0);
+				if (headerCandidate > 0) {
+					drop(headerCandidate, report);
+					continue;
+				}
+				int probeStart = probe(0, headerLength, direct);
+				if (mPacketDescriptor.verifyHeader(mProbe, probeStart)) {
+					return true;
+				}
+				drop(1, report);
+				continue;
+			}
+			if (mHeaderWindowLength < headerLength) {
+				probeHeaderWindow(direct);
+			}
+			int lastOffset = mHeaderWindowLength - headerLength;
+			for (int offset = 0; offset <= lastOffset; offset++) {
+				if (mPacketDescriptor.verifyHeader(mHeaderWindow, mHeaderWindowStart + offset)) {
+					if (offset > 0) {
+						drop(offset, report);
+					}
+					return true;
+				}
+			}
+			drop(lastOffset + 1, report);
+		}
+		return false;
+	}
+
+	/**
+	 * Makes up to a max packet size of cached bytes readable through {@link #mHeaderWindow}, in place under the
+	 * same conditions as {@link #probe(int, int, boolean)}, copied into an array no other probe writes to otherwise.
+	 */
+	private void probeHeaderWindow(boolean direct) {
+		int window = Math.min(mBuffer.getCachedBytes(), mBufferProbe.getMaxLength());
+		int arrayOffset = direct ? mBuffer.arrayOffset(0, window) : -1;
+		if (arrayOffset >= 0) {
+			mHeaderWindow = mBuffer.array();
+			mHeaderWindowStart = arrayOffset;
+		} else {
+			if (mHeaderWindowCopy == null) {
+				mHeaderWindowCopy = new byte[mBufferProbe.getMaxLength()];
+			}
+			mBuffer.peek(0, window, mHeaderWindowCopy, 0);
+			mHeaderWindow = mHeaderWindowCopy;
+			mHeaderWindowStart = 0;
+		}
+		mHeaderWindowLength = window;
+	}
+
+	/**
+	 * Keeps {@link #mHeaderWindow} lined up with the cached bytes once the oldest of them are gone.
+	 */
+	private void advanceHeaderWindow(int skip) {
+		mHeaderWindowStart += skip;
+		mHeaderWindowLength = Math.max(mHeaderWindowLength - skip, 0);
+	}
+
+	/**
+	 * Gives up the packet whose header starts the cached bytes. Only its first byte is dropped, the next header is
+	 * looked for among the bytes already cached, which may well hold it.
+	 */
+	private void rejectHeader(ProcessReport report) {
+		drop(1, report);
+		mStatus = Status.WaitForHeader;
+		mPacketSize = 0;
+	}
+
+	private void drop(int drop, ProcessReport report) {
+		mBufferProbe.drop(drop, report);
+		advanceHeaderWindow(drop);
+	}
+
+	/**
+	 * Folds the covered bytes received since the last call into the running checksum, so a packet is checksummed
+	 * while it accumulates and never read again for it.
+	 */
+	private void updateChecksum() {
+		int coveredEnd = Math.min(mBuffer.getCachedBytes(), mPacketSize - mChecksumAlgorithm.getLength());
+		if (coveredEnd > mChecksummedLength) {
+			int length = coveredEnd - mChecksummedLength;
+			int start = probe(mChecksummedLength, length, true);
+			mChecksum = mChecksumAlgorithm.update(mChecksum, mProbe, start, length);
+			mChecksummedLength = coveredEnd;
+		}
+	}
+
+	private boolean verifyPacket(int packetStart) {
+		if (mChecksumDescriptor == null) {
+			return mPacketDescriptor.verifyAndAcceptPacket(mProbe, packetStart, mPacketSize);
+		}
+		int checksumStart = mPacketSize - mChecksumAlgorithm.getLength();
+		return checksumStart >= mChecksumDescriptor.getChecksumStart()
+				&& mChecksumAlgorithm.finish(mChecksum) == mChecksumDescriptor.decodeChecksum(mProbe, packetStart + checksumStart)
+				&& mChecksumDescriptor.acceptPacket(mProbe, packetStart, mPacketSize);
+	}
+
+	/**
+	 * Makes cached bytes [start, start + length) readable through {@link #mProbe}. Contiguous ranges are read
+	 * straight from the buffer storage when {@code direct} is set, anything else is copied.
+	 *
+	 * @return index of the byte at {@code start} in {@link #mProbe}
+	 */
+	private int probe(int start, int length, boolean direct) {
+		int index = direct ? mBufferProbe.probe(start, length) : mBufferProbe.copy(start, length);
+		mProbe = mBufferProbe.bytes();
+		return index;
+	}
+
+	private static byte[] headerMagicOf(PacketDescriptor packetDescriptor, FieldDescription headerDescription) {
+		if (!(packetDescriptor instanceof HeaderMagicDescriptor)) {
+			return null;
+		}
+		byte[] headerMagic = ((HeaderMagicDescriptor) packetDescriptor).getHeaderMagic();
+		if (headerMagic == null || headerMagic.length == 0) {
+			return null;
+		}
+		if (headerMagic.length > headerDescription.length) {
+			throw new IllegalArgumentException(String.format("Header magic of %1d bytes exceeds header length %2d", headerMagic.length, headerDescription.length));
+		}
+		return headerMagic.clone();
+	}
+
 	private enum Status {
 		WaitForHeader,
 		WaitForPacketSize,
 		WaitForTermination
 	}
 
-	public class ProcessReport {
+	public static class ProcessReport {
 		public int wastedBytes;
 		public int consumedBytes;
+		public int packetsFound;
+		/**
+		 * Runs of bytes skipped to find the next header.
+		 */
+		public int resyncs;
+		/**
+		 * Packets rejected by {@link PacketDescriptor#verifyAndAcceptPacket(byte[], int, int)}.
+		 */
+		public int verifyFailures;
+		/**
+		 * Headers dropped because their decoded packet size was below the fixed fields or above the max packet
+		 * size or buffer size.
+		 */
+		public int invalidSizes;
 		public List<byte[]> newPacketsFound = new ArrayList<>();
+
+		public void reset() {
+			wastedBytes = 0;
+			consumedBytes = 0;
+			packetsFound = 0;
+			resyncs = 0;
+			verifyFailures = 0;
+			invalidSizes = 0;
+			newPacketsFound.clear();
+		}
 	}
 }
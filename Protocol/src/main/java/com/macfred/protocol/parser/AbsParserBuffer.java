@@ -1,28 +1,51 @@
 package com.macfred.protocol.parser;
 
-public class AbsParserBuffer {
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+public class AbsParserBuffer implements ParserBuffer {
     private final byte[] mBuffer;
     private final int mBufferSize;
+    private final ByteBuffer[] mFreeRegion;
     private int mCachedBytesRangeStart = 0;
     private int mCachedBytesRangeSize = 0;
+    private final MagicSearch.ByteAccessor mCachedBytesAccessor = new MagicSearch.ByteAccessor() {
+        @Override
+        public byte get(int position) {
+            int index = mCachedBytesRangeStart + position;
+            return mBuffer[index >= mBufferSize ? index - mBufferSize : index];
+        }
+
+        @Override
+        public int find(byte value, int from, int end) {
+            return MagicSearch.findInRing(mBuffer, mCachedBytesRangeStart, value, from, end);
+        }
+    };
 
     public AbsParserBuffer(int bufferSize) {
         mBufferSize = bufferSize;
         mBuffer = new byte[bufferSize];
+        mFreeRegion = new ByteBuffer[]{ByteBuffer.wrap(mBuffer), ByteBuffer.wrap(mBuffer)};
     }
 
+    @Override
     public int getBufferSize() {
         return mBufferSize;
     }
 
+    @Override
     public int getCachedBytes() {
         return mCachedBytesRangeSize;
     }
 
+    @Override
     public int getAvailableSpace() {
         return mBufferSize - mCachedBytesRangeSize;
     }
 
+    @Override
     public void offer(byte[] data, int start, int length) {
         int availableSpace = mBufferSize - mCachedBytesRangeSize;
         if (availableSpace < length) {
@@ -48,6 +71,39 @@ public class AbsParserBuffer {
         mCachedBytesRangeSize += length;
     }
 
+    @Override
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        int availableSpace = mBufferSize - mCachedBytesRangeSize;
+        if (availableSpace == 0) {
+            return 0;
+        }
+        int cachedBytesRangeEnd = mCachedBytesRangeStart + mCachedBytesRangeSize;
+        if (cachedBytesRangeEnd >= mBufferSize) {
+            cachedBytesRangeEnd -= mBufferSize;
+        }
+        int newRangeEnd = cachedBytesRangeEnd + availableSpace;
+        int wind = newRangeEnd > mBufferSize ? newRangeEnd - mBufferSize : 0;
+        mFreeRegion[0].limit(cachedBytesRangeEnd + availableSpace - wind).position(cachedBytesRangeEnd);
+        mFreeRegion[1].limit(wind).position(0);
+        long read;
+        if (wind > 0 && channel instanceof ScatteringByteChannel) {
+            read = ((ScatteringByteChannel) channel).read(mFreeRegion);
+        } else {
+            read = channel.read(mFreeRegion[0]);
+            if (read > 0 && wind > 0 && !mFreeRegion[0].hasRemaining()) {
+                int windRead = channel.read(mFreeRegion[1]);
+                if (windRead > 0) {
+                    read += windRead;
+                }
+            }
+        }
+        if (read > 0) {
+            mCachedBytesRangeSize += (int) read;
+        }
+        return (int) read;
+    }
+
+    @Override
     public void consume(int consumption, byte[] container, int start) {
         if (consumption < 0 || consumption > mCachedBytesRangeSize) {
             throw new RuntimeException(String.format("Invalid bytes consumption:%1d while available range [0,%2d]", consumption, mCachedBytesRangeSize));
@@ -65,6 +121,7 @@ public class AbsParserBuffer {
         mCachedBytesRangeSize -= consumption;
     }
 
+    @Override
     public void peek(int peekStart, int peek, byte[] container, int start) {
         if (peekStart < 0 || peekStart + peek > mCachedBytesRangeSize) {
             throw new RuntimeException(String.format("Invalid bytes peek:[%1d,%2d) while available range [0,%3d)", peekStart, peekStart + peek, mCachedBytesRangeSize));
@@ -83,6 +140,52 @@ public class AbsParserBuffer {
         }
     }
 
+    /**
+     * Points the view at cached bytes [viewStart, viewStart + view) without copying them out.
+     */
+    @Override
+    public void view(int viewStart, int view, PacketView container) {
+        if (viewStart < 0 || view < 0 || viewStart + view > mCachedBytesRangeSize) {
+            throw new RuntimeException(String.format("Invalid bytes view:[%1d,%2d) while available range [0,%3d)", viewStart, viewStart + view, mCachedBytesRangeSize));
+        }
+        int viewRangeStart = mCachedBytesRangeStart + viewStart;
+        if (viewRangeStart >= mBufferSize) {
+            viewRangeStart -= mBufferSize;
+        }
+        int viewRangeEnd = viewRangeStart + view;
+        if (viewRangeEnd > mBufferSize) {
+            int wind = viewRangeEnd - mBufferSize;
+            container.set(viewRangeStart, view - wind, wind);
+        } else {
+            container.set(viewRangeStart, view, 0);
+        }
+    }
+
+    @Override
+    public PacketView createView() {
+        return new PacketView(ByteBuffer.wrap(mBuffer));
+    }
+
+    @Override
+    public int arrayOffset(int rangeStart, int range) {
+        int arrayStart = mCachedBytesRangeStart + rangeStart;
+        if (arrayStart >= mBufferSize) {
+            arrayStart -= mBufferSize;
+        }
+        return arrayStart + range > mBufferSize ? -1 : arrayStart;
+    }
+
+    @Override
+    public byte[] array() {
+        return mBuffer;
+    }
+
+    @Override
+    public int indexOf(byte[] pattern, int from) {
+        return MagicSearch.indexOf(mCachedBytesAccessor, mCachedBytesRangeSize, pattern, from);
+    }
+
+    @Override
     public void skip(int skip) {
         if (skip < 0 || skip > mCachedBytesRangeSize) {
             throw new RuntimeException(String.format("Invalid bytes skip:%1d while available range [0,%2d]", skip, mCachedBytesRangeSize));
@@ -94,6 +197,7 @@ public class AbsParserBuffer {
         mCachedBytesRangeSize -= skip;
     }
 
+    @Override
     public void clear() {
         mCachedBytesRangeSize = 0;
     }
@@ -1,47 +1,152 @@
 package com.macfred.protocol.parser;
 
 import com.macfred.protocol.PacketDescriptor;
+import com.macfred.protocol.VirtualThreads;
+import com.macfred.protocol.io.StreamRecorder;
+import com.macfred.protocol.metrics.ParserMetrics;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class AdvancedParser {
+    private static final int DEFAULT_BATCH_PACKETS = 64;
+    private static final int DEFAULT_BATCH_BYTES = 16 * 1024;
+
     private final AbsParser mAbsParser;
-    private CongestionPolicy mCongestionPolicy;
+    private final SpscParserBuffer mSpscBuffer;
+    private volatile CongestionPolicy mCongestionPolicy;
     private ReadWriteLock mLock = new ReentrantReadWriteLock();
     private Semaphore mSemaphore = new Semaphore(0);
-    private PacketReceiver mPacketReceiver;
+    private volatile PacketBatchReceiver mPacketBatchReceiver;
+    private volatile PacketBatch mPacketBatch;
+    private final int mPacketMaxSize;
+    private final AbsParser.ProcessReport mProcessReport = new AbsParser.ProcessReport();
+    private final AtomicLong mReceivedBytes = new AtomicLong();
+    private volatile long mDrainedBytesMark;
+    private volatile WakeupStrategy mWakeupStrategy = WakeupStrategy.block();
+    private volatile boolean mDrainRunning;
+    private volatile boolean mDrainParked;
+    private volatile Thread mDrainThread;
+    private CountDownLatch mDrainStopped;
+    private final SpscCongestion mSpscCongestion;
+    private final ParserMetrics mMetrics = new ParserMetrics();
+    private volatile StreamRecorder mStreamRecorder;
 
     public AdvancedParser(int bufferSize, PacketDescriptor packetDescriptor) {
-        mAbsParser = new AbsParser(bufferSize, packetDescriptor);
+        this(bufferSize, packetDescriptor, ConcurrencyMode.Locked);
+    }
+
+    public AdvancedParser(int bufferSize, PacketDescriptor packetDescriptor, ConcurrencyMode concurrencyMode) {
+        if (concurrencyMode == ConcurrencyMode.SingleProducerSingleConsumer) {
+            mSpscBuffer = new SpscParserBuffer(bufferSize);
+            mAbsParser = new AbsParser(mSpscBuffer, packetDescriptor);
+            mSpscCongestion = new SpscCongestion(mSpscBuffer, mMetrics, new SpscCongestion.Consumer() {
+                @Override
+                public boolean isRunning() {
+                    return mDrainRunning;
+                }
+
+                @Override
+                public boolean isClosed() {
+                    return false;
+                }
+
+                @Override
+                public void requestStep() {
+                    Thread drainThread = mDrainThread;
+                    if (drainThread != null) {
+                        LockSupport.unpark(drainThread);
+                    }
+                }
+
+                @Override
+                public void onOffered(int length) {
+                    mMetrics.recordOccupancy(mSpscBuffer.getCachedBytes());
+                    long receivedBytes = mReceivedBytes.get() + length;
+                    mReceivedBytes.set(receivedBytes);
+                    if (mDrainParked) {
+                        Thread drainThread = mDrainThread;
+                        if (drainThread != null && mWakeupStrategy.isWakeupDue(receivedBytes - mDrainedBytesMark)) {
+                            LockSupport.unpark(drainThread);
+                        }
+                    }
+                }
+            });
+        } else {
+            mSpscBuffer = null;
+            mSpscCongestion = null;
+            mAbsParser = new AbsParser(bufferSize, packetDescriptor);
+            mSemaphore.release(bufferSize);
+        }
         mCongestionPolicy = CongestionPolicy.BlockAndWait;
-        mSemaphore.release(bufferSize);
+        mPacketMaxSize = packetDescriptor.getPacketMaxSize();
+        mPacketBatch = new PacketBatch(DEFAULT_BATCH_PACKETS, Math.max(DEFAULT_BATCH_BYTES, mPacketMaxSize));
+    }
+
+    /**
+     * @return counters of this parser, see {@link com.macfred.protocol.metrics.MetricsExporter} to publish them
+     */
+    public ParserMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Records every chunk handed to {@link #receive(byte[], int, int)} from now on, before any congestion policy
+     * drops part of it, null to stop recording.
+     */
+    public void setStreamRecorder(StreamRecorder streamRecorder) {
+        mStreamRecorder = streamRecorder;
+    }
+
+    public void setCongestionPolicy(CongestionPolicy congestionPolicy) {
+        mCongestionPolicy = congestionPolicy;
     }
 
     public void receive(byte[] data, int start, int length) {
+        StreamRecorder streamRecorder = mStreamRecorder;
+        if (streamRecorder != null) {
+            streamRecorder.record(data, start, length);
+        }
+        if (mSpscBuffer != null) {
+            receiveSingleProducer(data, start, length);
+            return;
+        }
         if (mCongestionPolicy == CongestionPolicy.BlockAndWait) {
-            try {
-                mSemaphore.acquire(length);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+            if (!mSemaphore.tryAcquire(length)) {
+                long blockedSince = System.nanoTime();
+                try {
+                    mSemaphore.acquire(length);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    mMetrics.recordProducerBlocked(System.nanoTime() - blockedSince);
+                }
             }
         } else {
             while (!mSemaphore.tryAcquire(length)) {
+                mLock.writeLock().lock();
                 try {
-                    mLock.readLock().lock();
-                    int availableSpace = mAbsParser.getBuffer().getAvailableSpace();
+                    ParserBuffer buffer = mAbsParser.getBuffer();
+                    CongestionPolicy congestionPolicy = mCongestionPolicy;
+                    if (length > buffer.getBufferSize() && congestionPolicy == CongestionPolicy.DropOldest) {
+                        mMetrics.recordDrop(congestionPolicy, length - buffer.getBufferSize());
+                        start += length - buffer.getBufferSize();
+                        length = buffer.getBufferSize();
+                    }
+                    int availableSpace = buffer.getAvailableSpace();
                     if (availableSpace < length) {
                         int drop = length - availableSpace;
-                        switch (mCongestionPolicy) {
+                        mMetrics.recordDrop(congestionPolicy, drop);
+                        switch (congestionPolicy) {
                             case DropOldest:
-                                try {
-                                    mLock.writeLock().lock();
-                                    mAbsParser.getBuffer().skip(drop);
-                                    mSemaphore.release(drop);
-                                } finally {
-                                    mLock.writeLock().unlock();
-                                }
+                                mAbsParser.discard(drop);
+                                mSemaphore.release(drop);
                                 break;
                             case DropLatestHead:
                                 start += drop;
@@ -52,41 +157,284 @@ public class AdvancedParser {
                         }
                     }
                 } finally {
-                    mLock.readLock().unlock();
+                    mLock.writeLock().unlock();
                 }
             }
         }
         try {
             mLock.writeLock().lock();
             mAbsParser.receive(data, start, length);
+            mMetrics.recordOccupancy(mAbsParser.getBuffer().getCachedBytes());
         } finally {
             mLock.writeLock().unlock();
         }
+        long receivedBytes = mReceivedBytes.addAndGet(length);
+        if (mDrainParked) {
+            Thread drainThread = mDrainThread;
+            if (drainThread != null && mWakeupStrategy.isWakeupDue(receivedBytes - mDrainedBytesMark)) {
+                LockSupport.unpark(drainThread);
+            }
+        }
+    }
+
+    /**
+     * Lock free counterpart of {@link #receive(byte[], int, int)} in
+     * {@link ConcurrencyMode#SingleProducerSingleConsumer}. Under {@link CongestionPolicy#DropOldest} the oldest
+     * bytes are discarded by the drain stage on its next step, since only the consumer may move the head, and the
+     * newest bytes are dropped instead while the drain stage isn't running.
+     */
+    private void receiveSingleProducer(byte[] data, int start, int length) {
+        mSpscCongestion.receive(data, start, length, mCongestionPolicy);
+    }
+
+    /**
+     * Starts draining received bytes to the packet receiver on a dedicated thread.
+     */
+    public void start() {
+        final Runnable drainLoop = prepareDrain();
+        Thread thread = new Thread(drainLoop, "AdvancedParser-drain");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts draining received bytes to the packet receiver as one long running task of the executor.
+     */
+    public void start(Executor executor) {
+        final Runnable drainLoop = prepareDrain();
+        try {
+            executor.execute(drainLoop);
+        } catch (RuntimeException e) {
+            mDrainRunning = false;
+            mDrainStopped.countDown();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts draining received bytes to the packet receiver on a virtual thread, or on a dedicated thread where
+     * virtual threads are not available.
+     */
+    public void startOnVirtualThread() {
+        VirtualThreads.start(prepareDrain(), "AdvancedParser-drain");
+    }
+
+    /**
+     * Stops the drain stage and waits for the packet being delivered, if any, to be done. Bytes left in the
+     * buffer stay there until the stage is started again.
+     */
+    public void stop() {
+        CountDownLatch drainStopped;
+        synchronized (this) {
+            if (!mDrainRunning) {
+                return;
+            }
+            mDrainRunning = false;
+            drainStopped = mDrainStopped;
+        }
+        Thread drainThread = mDrainThread;
+        if (drainThread != null) {
+            LockSupport.unpark(drainThread);
+        }
+        if (drainThread == Thread.currentThread()) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                drainStopped.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return mDrainRunning;
+    }
+
+    public void setWakeupStrategy(WakeupStrategy wakeupStrategy) {
+        mWakeupStrategy = wakeupStrategy;
+    }
+
+    private synchronized Runnable prepareDrain() {
+        if (mDrainRunning || (mDrainStopped != null && mDrainStopped.getCount() > 0)) {
+            throw new IllegalStateException("Parser drain already running");
+        }
+        mDrainRunning = true;
+        final CountDownLatch drainStopped = new CountDownLatch(1);
+        mDrainStopped = drainStopped;
+        return new Runnable() {
+            @Override
+            public void run() {
+                drainLoop(drainStopped);
+            }
+        };
+    }
+
+    private void drainLoop(CountDownLatch drainStopped) {
+        mDrainThread = Thread.currentThread();
+        try {
+            while (mDrainRunning) {
+                if (!awaitBytes(mWakeupStrategy)) {
+                    break;
+                }
+                mDrainedBytesMark = mReceivedBytes.get();
+                capturePackets();
+            }
+        } finally {
+            mDrainRunning = false;
+            mDrainThread = null;
+            mDrainParked = false;
+            drainStopped.countDown();
+        }
+    }
+
+    /**
+     * @return false if the drain stage got stopped while waiting
+     */
+    private boolean awaitBytes(WakeupStrategy wakeupStrategy) {
+        switch (wakeupStrategy.mType) {
+            case SpinThenPark:
+                for (int i = 0; i < wakeupStrategy.mSpins; i++) {
+                    if (!mDrainRunning) {
+                        return false;
+                    }
+                    if (pendingBytes() > 0) {
+                        return true;
+                    }
+                }
+            case Block:
+                while (pendingBytes() == 0) {
+                    mDrainParked = true;
+                    if (mDrainRunning && pendingBytes() == 0) {
+                        LockSupport.park(this);
+                    }
+                    mDrainParked = false;
+                    if (!mDrainRunning) {
+                        return false;
+                    }
+                }
+                return true;
+            case Batched:
+                long deadline = System.nanoTime() + wakeupStrategy.mMaxDelayNanos;
+                while (true) {
+                    long pendingBytes = pendingBytes();
+                    if (pendingBytes >= wakeupStrategy.mBatchBytes || (pendingBytes > 0 && isProducerWaiting())) {
+                        return true;
+                    }
+                    long delay = deadline - System.nanoTime();
+                    if (delay <= 0) {
+                        if (pendingBytes > 0) {
+                            return true;
+                        }
+                        deadline = System.nanoTime() + wakeupStrategy.mMaxDelayNanos;
+                        delay = wakeupStrategy.mMaxDelayNanos;
+                    }
+                    mDrainParked = true;
+                    if (mDrainRunning && pendingBytes() < wakeupStrategy.mBatchBytes && !isProducerWaiting()) {
+                        LockSupport.parkNanos(this, delay);
+                    }
+                    mDrainParked = false;
+                    if (!mDrainRunning) {
+                        return false;
+                    }
+                }
+            default:
+                throw new RuntimeException(String.format("Unsupported wakeup strategy: %s", wakeupStrategy.mType));
+        }
+    }
+
+    /**
+     * @return true if a producer is blocked on buffer space, which only the drain stage can free up
+     */
+    private boolean isProducerWaiting() {
+        return mSpscCongestion != null ? mSpscCongestion.isProducerWaiting() : mSemaphore.hasQueuedThreads();
+    }
+
+    /**
+     * @return bytes received since the last drain step, at least 1 while a producer waits for it to drop the oldest
+     */
+    private long pendingBytes() {
+        long pendingBytes = mReceivedBytes.get() - mDrainedBytesMark;
+        return pendingBytes == 0 && mSpscCongestion != null && mSpscCongestion.isDropPending() ? 1 : pendingBytes;
     }
 
     private void capturePackets() {
         for (; ; ) {
+            PacketBatch batch = mPacketBatch;
             AbsParser.ProcessReport report;
-            mLock.writeLock().lock();
-            try {
-                report = mAbsParser.tryParsePackets(5);
-                mSemaphore.release(report.consumedBytes + report.wastedBytes);
-            } finally {
-                mLock.writeLock().unlock();
+            if (mSpscCongestion != null) {
+                int discarded = mSpscCongestion.discardOldest(mAbsParser);
+                report = mAbsParser.tryParsePackets(batch, mProcessReport);
+                if (discarded > 0 || report.consumedBytes + report.wastedBytes > 0) {
+                    mSpscCongestion.wakeProducer();
+                }
+            } else {
+                mLock.writeLock().lock();
+                try {
+                    report = mAbsParser.tryParsePackets(batch, mProcessReport);
+                    mSemaphore.release(report.consumedBytes + report.wastedBytes);
+                } finally {
+                    mLock.writeLock().unlock();
+                }
             }
-            if (report.newPacketsFound.size() == 0) {
+            mMetrics.record(report);
+            if (batch.isEmpty()) {
                 return;
             }
-            if (mPacketReceiver != null) {
-                for (byte[] packet : report.newPacketsFound) {
-                    mPacketReceiver.onNewPacket(packet, 0, packet.length);
+            PacketBatchReceiver packetBatchReceiver = mPacketBatchReceiver;
+            try {
+                if (packetBatchReceiver != null) {
+                    packetBatchReceiver.onPackets(batch);
                 }
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                batch.clear();
             }
         }
     }
 
+    /**
+     * Delivers every packet in an array of its own, through a {@link PacketReceiverAdapter}.
+     */
     public void setPacketReceiver(PacketReceiver packetReceiver) {
-        mPacketReceiver = packetReceiver;
+        mPacketBatchReceiver = packetReceiver == null ? null : new PacketReceiverAdapter(packetReceiver);
+    }
+
+    /**
+     * Delivers every packet in a slice of the pool, through a {@link PooledPacketAdapter}. The receiver owns each
+     * packet and must release it.
+     */
+    public void setPooledPacketReceiver(PacketBufferPool packetBufferPool, PooledPacketReceiver pooledPacketReceiver) {
+        mPacketBatchReceiver = pooledPacketReceiver == null ? null : new PooledPacketAdapter(packetBufferPool, pooledPacketReceiver);
+    }
+
+    /**
+     * A receiver throwing doesn't stop the drain stage, the exception goes to the drain thread's uncaught exception
+     * handler and the rest of the batch is dropped.
+     */
+    public void setPacketBatchReceiver(PacketBatchReceiver packetBatchReceiver) {
+        mPacketBatchReceiver = packetBatchReceiver;
+    }
+
+    /**
+     * Limits what a single drain step hands to the receiver, must not be called while the drain stage is running.
+     *
+     * @param maxPackets packets per batch
+     * @param maxBytes   bytes per batch, raised to the descriptor's max packet size if lower
+     */
+    public void setBatchLimits(int maxPackets, int maxBytes) {
+        if (mDrainRunning) {
+            throw new IllegalStateException("Batch limits can't change while the parser drain is running");
+        }
+        mPacketBatch = new PacketBatch(maxPackets, Math.max(maxBytes, mPacketMaxSize));
     }
 
 
@@ -94,5 +442,68 @@ public class AdvancedParser {
         DropOldest, DropLatestHead, DropLatestTail, BlockAndWait
     }
 
+    public enum ConcurrencyMode {
+        /**
+         * Any number of producers, every offer and parse step serialized on a shared lock.
+         */
+        Locked,
+        /**
+         * Exactly one producer thread and the drain stage, handing bytes over through a lock free ring.
+         */
+        SingleProducerSingleConsumer
+    }
+
+    /**
+     * How the drain stage waits for received bytes, trading delivery latency for CPU.
+     */
+    public static final class WakeupStrategy {
+        private final Type mType;
+        private final int mSpins;
+        private final int mBatchBytes;
+        private final long mMaxDelayNanos;
+
+        private WakeupStrategy(Type type, int spins, int batchBytes, long maxDelayNanos) {
+            mType = type;
+            mSpins = spins;
+            mBatchBytes = batchBytes;
+            mMaxDelayNanos = maxDelayNanos;
+        }
+
+        /**
+         * Parks until the producer signals new bytes.
+         */
+        public static WakeupStrategy block() {
+            return new WakeupStrategy(Type.Block, 0, 1, 0);
+        }
+
+        /**
+         * Polls for new bytes up to {@code spins} times before parking, for links where latency matters more than CPU.
+         */
+        public static WakeupStrategy spinThenPark(int spins) {
+            if (spins < 0) {
+                throw new IllegalArgumentException(String.format("Invalid spins: %d", spins));
+            }
+            return new WakeupStrategy(Type.SpinThenPark, spins, 1, 0);
+        }
+
+        /**
+         * Wakes up once {@code batchBytes} bytes got received, or every {@code maxDelay} while fewer bytes are pending.
+         */
+        public static WakeupStrategy batched(int batchBytes, long maxDelay, TimeUnit unit) {
+            if (batchBytes <= 0 || maxDelay <= 0) {
+                throw new IllegalArgumentException(String.format("Invalid batch: %1d bytes within %2d %3s", batchBytes, maxDelay, unit));
+            }
+            return new WakeupStrategy(Type.Batched, 0, batchBytes, unit.toNanos(maxDelay));
+        }
+
+        private boolean isWakeupDue(long pendingBytes) {
+            return pendingBytes >= mBatchBytes;
+        }
+
+        private enum Type {
+            Block, SpinThenPark, Batched
+        }
+    }
+
 
 }
@@ -0,0 +1,81 @@
+package com.macfred.protocol.parser;
+
+import com.macfred.protocol.parser.AbsParser.ProcessReport;
+
+/**
+ * Reads and drops cached bytes of a parser buffer for a parser state machine. Ranges are read in place when the
+ * buffer holds them contiguously in an array, copied at the same offset into a probe array of its own otherwise.
+ */
+public final class BufferProbe {
+    private final ParserBuffer mBuffer;
+    private byte[] mPacketProbe;
+    private byte[] mProbe;
+    private boolean mResyncing;
+
+    /**
+     * @param maxLength longest range ever probed
+     */
+    public BufferProbe(ParserBuffer buffer, int maxLength) {
+        mBuffer = buffer;
+        mPacketProbe = new byte[maxLength];
+    }
+
+    /**
+     * Makes cached bytes [start, start + length) readable through {@link #bytes()}, in place when possible.
+     *
+     * @return index of the byte at {@code start} in {@link #bytes()}
+     */
+    public int probe(int start, int length) {
+        int arrayOffset = mBuffer.arrayOffset(start, length);
+        if (arrayOffset >= 0) {
+            mProbe = mBuffer.array();
+            return arrayOffset;
+        }
+        return copy(start, length);
+    }
+
+    /**
+     * Same as {@link #probe(int, int)} but always copies, so the bytes stay readable whatever the buffer does next.
+     */
+    public int copy(int start, int length) {
+        mBuffer.peek(start, length, mPacketProbe, start);
+        mProbe = mPacketProbe;
+        return start;
+    }
+
+    /**
+     * @return array holding the bytes of the last probe
+     */
+    public byte[] bytes() {
+        return mProbe;
+    }
+
+    public int getMaxLength() {
+        return mPacketProbe.length;
+    }
+
+    public void ensureMaxLength(int maxLength) {
+        if (mPacketProbe.length < maxLength) {
+            mPacketProbe = new byte[maxLength];
+        }
+    }
+
+    /**
+     * Skips the oldest cached bytes as wasted, counting a resync once per run of drops however many calls it spans.
+     */
+    public void drop(int drop, ProcessReport report) {
+        mBuffer.skip(drop);
+        report.wastedBytes += drop;
+        if (!mResyncing) {
+            mResyncing = true;
+            report.resyncs++;
+        }
+    }
+
+    /**
+     * Ends the current run of drops, once a header got found.
+     */
+    public void endResync() {
+        mResyncing = false;
+    }
+}
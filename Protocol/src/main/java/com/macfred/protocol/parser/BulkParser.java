@@ -0,0 +1,407 @@
+package com.macfred.protocol.parser;
+
+import com.macfred.protocol.PacketDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses a large captured stream, a byte array or a file mapped in windows, on a {@link ForkJoinPool} while
+ * finding exactly the packets a single {@link AbsParser} would find reading it from start to end, given a buffer
+ * holding the descriptor's max packet size. Only the packets are guaranteed: how many trailing bytes shorter than a
+ * header a sequential parser drops depends on how its input was split, so the parsed length may differ from it by
+ * those few bytes.
+ * <p>
+ * The stream is cut into chunks which are parsed in parallel, each by its own {@link AbsParser} starting at the
+ * chunk start as if the stream began there, so its first packet is the first sync point whose header, size and
+ * verification all pass. A chunk is parsed until the first parser position past its end, packets straddling the
+ * boundary included. Since what a parser finds only depends on where it stands, the parse coming from the previous
+ * chunk is then repaired: it is carried on from where that chunk stopped until it accepts a packet the chunk's own
+ * parse accepted too, from there on both are the same parse. Repairs usually stop at the first packet and run in
+ * parallel as well, one whose start turns out wrong is redone while stitching the chunks back together in order.
+ * <p>
+ * Packets are reported as offsets into the stream rather than copied. The descriptor is shared by all chunk
+ * parsers and must be thread safe.
+ */
+public class BulkParser {
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+    private static final long MAPPED_WINDOW_SIZE = 1L << 30;
+
+    private final PacketDescriptor mPacketDescriptor;
+    private final ForkJoinPool mPool;
+    private final int mChunkSize;
+    private final int mBufferSize;
+
+    public BulkParser(PacketDescriptor packetDescriptor) {
+        this(packetDescriptor, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize bytes parsed per task, raised to twice the max packet size if lower
+     */
+    public BulkParser(PacketDescriptor packetDescriptor, ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid chunk size %1d", chunkSize));
+        }
+        mPacketDescriptor = packetDescriptor;
+        mPool = pool;
+        mBufferSize = Math.max(MIN_BUFFER_SIZE, packetDescriptor.getPacketMaxSize());
+        mChunkSize = Math.max(chunkSize, 2 * packetDescriptor.getPacketMaxSize());
+    }
+
+    /**
+     * @return packets of data [start, start + length), offsets counted from {@code start}
+     */
+    public Result parse(byte[] data, int start, int length) {
+        if (start < 0 || length < 0 || start + length > data.length) {
+            throw new IllegalArgumentException(String.format("Invalid range [%1d,%2d) of %3d bytes", start, start + length, data.length));
+        }
+        return parse(new ArraySource(data, start, length));
+    }
+
+    public Result parse(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return parse(channel);
+        }
+    }
+
+    /**
+     * Maps the whole channel read only, in windows of up to 1 GB, the result keeps them mapped to deliver packets.
+     */
+    public Result parse(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int windowCount = (int) ((size + MAPPED_WINDOW_SIZE - 1) / MAPPED_WINDOW_SIZE);
+        ByteBuffer[] windows = new ByteBuffer[windowCount];
+        for (int i = 0; i < windowCount; i++) {
+            long windowStart = i * MAPPED_WINDOW_SIZE;
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAPPED_WINDOW_SIZE, size - windowStart));
+        }
+        return parse(new MappedSource(windows, size));
+    }
+
+    private Result parse(Source source) {
+        long length = source.length();
+        int chunkCount = (int) Math.max(1, (length + mChunkSize - 1) / mChunkSize);
+        List<ChunkTask> chunkTasks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            long chunkEnd = i == chunkCount - 1 ? Long.MAX_VALUE : (i + 1L) * mChunkSize;
+            chunkTasks.add(new ChunkTask(source, (long) i * mChunkSize, chunkEnd, null));
+        }
+        Run[] chunks = joinAll(chunkTasks);
+        List<ChunkTask> repairTasks = new ArrayList<>(chunkCount);
+        for (int i = 1; i < chunkCount; i++) {
+            repairTasks.add(new ChunkTask(source, chunks[i - 1].mEnd, chunks[i].mEnd, chunks[i].mPackets));
+        }
+        Run[] repairs = joinAll(repairTasks);
+
+        PacketList packets = new PacketList();
+        packets.addAll(chunks[0].mPackets, 0);
+        long end = chunks[0].mEnd;
+        boolean exhausted = chunks[0].mExhausted;
+        for (int i = 1; i < chunkCount && !exhausted; i++) {
+            Run repair = repairs[i - 1];
+            if (repair.mStart != end) {
+                repair = new Walker(source).walk(end, chunks[i].mEnd, chunks[i].mPackets);
+            }
+            packets.addAll(repair.mPackets, 0);
+            if (repair.mConvergedIndex >= 0) {
+                packets.addAll(chunks[i].mPackets, repair.mConvergedIndex);
+                end = chunks[i].mEnd;
+                exhausted = chunks[i].mExhausted;
+            } else {
+                end = repair.mEnd;
+                exhausted = repair.mExhausted;
+            }
+        }
+        return new Result(source, packets, end);
+    }
+
+    private Run[] joinAll(List<ChunkTask> tasks) {
+        for (ChunkTask task : tasks) {
+            mPool.execute(task);
+        }
+        Run[] runs = new Run[tasks.size()];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = tasks.get(i).join();
+        }
+        return runs;
+    }
+
+    public static final class Result {
+        private final Source mSource;
+        private final PacketList mPackets;
+        private final long mParsedLength;
+        private byte[] mScratch = new byte[0];
+
+        private Result(Source source, PacketList packets, long parsedLength) {
+            mSource = source;
+            mPackets = packets;
+            mParsedLength = parsedLength;
+        }
+
+        public int getPacketCount() {
+            return mPackets.mSize;
+        }
+
+        public long getOffset(int index) {
+            checkIndex(index);
+            return mPackets.mOffsets[index];
+        }
+
+        public int getLength(int index) {
+            checkIndex(index);
+            return mPackets.mLengths[index];
+        }
+
+        public long getConsumedBytes() {
+            long consumed = 0;
+            for (int i = 0; i < mPackets.mSize; i++) {
+                consumed += mPackets.mLengths[i];
+            }
+            return consumed;
+        }
+
+        /**
+         * @return bytes the parser went past, packets included; the rest is what a sequential parser given the
+         * whole stream at once would still hold in its buffer waiting for more bytes, one fed in pieces may hold a
+         * few more
+         */
+        public long getParsedLength() {
+            return mParsedLength;
+        }
+
+        public long getWastedBytes() {
+            return mParsedLength - getConsumedBytes();
+        }
+
+        public long getRemainingBytes() {
+            return mSource.length() - mParsedLength;
+        }
+
+        public byte[] toByteArray(int index) {
+            byte[] packet = new byte[getLength(index)];
+            mSource.read(mPackets.mOffsets[index], packet, 0, packet.length);
+            return packet;
+        }
+
+        /**
+         * Hands every packet to the receiver in stream order, in place for byte arrays, through a reused scratch
+         * array for files.
+         */
+        public void forEach(PacketReceiver receiver) {
+            for (int i = 0; i < mPackets.mSize; i++) {
+                long offset = mPackets.mOffsets[i];
+                int length = mPackets.mLengths[i];
+                if (mSource instanceof ArraySource) {
+                    ArraySource source = (ArraySource) mSource;
+                    receiver.onNewPacket(source.mData, source.mStart + (int) offset, length);
+                    continue;
+                }
+                if (mScratch.length < length) {
+                    mScratch = new byte[Math.max(length, mScratch.length * 2)];
+                }
+                mSource.read(offset, mScratch, 0, length);
+                receiver.onNewPacket(mScratch, 0, length);
+            }
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= mPackets.mSize) {
+                throw new IndexOutOfBoundsException(String.format("Invalid packet index:%1d while %2d packets", index, mPackets.mSize));
+            }
+        }
+    }
+
+    private final class ChunkTask extends RecursiveTask<Run> {
+        private static final long serialVersionUID = 1L;
+
+        private final Source mSource;
+        private final long mFrom;
+        private final long mStopAt;
+        private final PacketList mConvergeOn;
+
+        private ChunkTask(Source source, long from, long stopAt, PacketList convergeOn) {
+            mSource = source;
+            mFrom = from;
+            mStopAt = stopAt;
+            mConvergeOn = convergeOn;
+        }
+
+        @Override
+        protected Run compute() {
+            return new Walker(mSource).walk(mFrom, mStopAt, mConvergeOn);
+        }
+    }
+
+    /**
+     * Runs one {@link AbsParser} over part of the stream, noting where every packet it accepts starts.
+     */
+    private final class Walker implements PacketViewReceiver {
+        private final Source mSource;
+        private final AbsParser mAbsParser;
+        private final AbsParser.ProcessReport mReport = new AbsParser.ProcessReport();
+        private final byte[] mFeed;
+        private Run mRun;
+        private PacketList mConvergeOn;
+        private long mCallStart;
+
+        private Walker(Source source) {
+            mSource = source;
+            mAbsParser = new AbsParser(mBufferSize, mPacketDescriptor);
+            mFeed = new byte[mBufferSize];
+        }
+
+        /**
+         * Parses from {@code from} until the parser stands at or past {@code stopAt}, accepts a packet of
+         * {@code convergeOn}, or runs out of bytes.
+         */
+        private Run walk(long from, long stopAt, PacketList convergeOn) {
+            Run run = new Run(from);
+            mRun = run;
+            mConvergeOn = convergeOn;
+            long head = from;
+            long fed = from;
+            long length = mSource.length();
+            while (head < stopAt) {
+                int feed = (int) Math.min(mAbsParser.getBuffer().getAvailableSpace(), length - fed);
+                if (feed > 0) {
+                    mSource.read(fed, mFeed, 0, feed);
+                    mAbsParser.receive(mFeed, 0, feed);
+                    fed += feed;
+                }
+                mCallStart = head;
+                mAbsParser.tryParsePackets(0, mReport, this);
+                head += mReport.consumedBytes + mReport.wastedBytes;
+                if (run.mConvergedIndex >= 0) {
+                    break;
+                }
+                if (fed == length) {
+                    run.mExhausted = true;
+                    break;
+                }
+            }
+            run.mEnd = head;
+            return run;
+        }
+
+        @Override
+        public void onNewPacket(PacketView packet) {
+            Run run = mRun;
+            if (run.mConvergedIndex >= 0) {
+                return;
+            }
+            long offset = mCallStart + mReport.consumedBytes + mReport.wastedBytes;
+            if (mConvergeOn != null) {
+                int index = Arrays.binarySearch(mConvergeOn.mOffsets, 0, mConvergeOn.mSize, offset);
+                if (index >= 0) {
+                    run.mConvergedIndex = index;
+                    return;
+                }
+            }
+            run.mPackets.add(offset, packet.length());
+        }
+    }
+
+    private static final class Run {
+        private final long mStart;
+        private final PacketList mPackets = new PacketList();
+        private long mEnd;
+        private boolean mExhausted;
+        /**
+         * Index of the first packet of the parse converged on, -1 if it didn't converge.
+         */
+        private int mConvergedIndex = -1;
+
+        private Run(long start) {
+            mStart = start;
+        }
+    }
+
+    private static final class PacketList {
+        private long[] mOffsets = new long[16];
+        private int[] mLengths = new int[16];
+        private int mSize;
+
+        private void add(long offset, int length) {
+            if (mSize == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, mSize * 2);
+                mLengths = Arrays.copyOf(mLengths, mSize * 2);
+            }
+            mOffsets[mSize] = offset;
+            mLengths[mSize] = length;
+            mSize++;
+        }
+
+        private void addAll(PacketList packets, int from) {
+            for (int i = from; i < packets.mSize; i++) {
+                add(packets.mOffsets[i], packets.mLengths[i]);
+            }
+        }
+    }
+
+    private interface Source {
+        long length();
+
+        void read(long position, byte[] container, int start, int length);
+    }
+
+    private static final class ArraySource implements Source {
+        private final byte[] mData;
+        private final int mStart;
+        private final int mLength;
+
+        private ArraySource(byte[] data, int start, int length) {
+            mData = data;
+            mStart = start;
+            mLength = length;
+        }
+
+        @Override
+        public long length() {
+            return mLength;
+        }
+
+        @Override
+        public void read(long position, byte[] container, int start, int length) {
+            System.arraycopy(mData, mStart + (int) position, container, start, length);
+        }
+    }
+
+    private static final class MappedSource implements Source {
+        private final ByteBuffer[] mWindows;
+        private final long mLength;
+
+        private MappedSource(ByteBuffer[] windows, long length) {
+            mWindows = windows;
+            mLength = length;
+        }
+
+        @Override
+        public long length() {
+            return mLength;
+        }
+
+        @Override
+        public void read(long position, byte[] container, int start, int length) {
+            while (length > 0) {
+                ByteBuffer window = mWindows[(int) (position / MAPPED_WINDOW_SIZE)].duplicate();
+                int windowOffset = (int) (position % MAPPED_WINDOW_SIZE);
+                int read = Math.min(length, window.capacity() - windowOffset);
+                window.position(windowOffset);
+                window.get(container, start, read);
+                position += read;
+                start += read;
+                length -= read;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.macfred.protocol.parser;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed size byte chunks shared by {@link SegmentedParserBuffer}s, so buffers only hold memory for the bytes they
+ * currently cache. Up to {@code maxPooledChunks} released chunks are kept for reuse, the rest is left to the
+ * garbage collector.
+ */
+public class ChunkPool {
+    private static final int DEFAULT_CHUNK_SIZE = 4096;
+    private static final int DEFAULT_MAX_POOLED_CHUNKS = 1024;
+    private static final ChunkPool DEFAULT = new ChunkPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED_CHUNKS);
+
+    private final int mChunkSize;
+    private final int mMaxPooledChunks;
+    private final Queue<byte[]> mChunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mPooledChunks = new AtomicInteger();
+
+    public ChunkPool(int chunkSize, int maxPooledChunks) {
+        if (chunkSize <= 0 || maxPooledChunks < 0) {
+            throw new IllegalArgumentException(String.format("Invalid chunk size %1d or max pooled chunks %2d", chunkSize, maxPooledChunks));
+        }
+        mChunkSize = chunkSize;
+        mMaxPooledChunks = maxPooledChunks;
+    }
+
+    /**
+     * @return pool of 4 KB chunks keeping at most 4 MB for reuse
+     */
+    public static ChunkPool getDefault() {
+        return DEFAULT;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public int getPooledChunks() {
+        return mPooledChunks.get();
+    }
+
+    public byte[] acquire() {
+        byte[] chunk = mChunks.poll();
+        if (chunk == null) {
+            return new byte[mChunkSize];
+        }
+        mPooledChunks.decrementAndGet();
+        return chunk;
+    }
+
+    public void release(byte[] chunk) {
+        if (chunk.length != mChunkSize) {
+            throw new IllegalArgumentException(String.format("Chunk of %1d bytes doesn't belong to a pool of %2d byte chunks", chunk.length, mChunkSize));
+        }
+        if (mPooledChunks.incrementAndGet() > mMaxPooledChunks) {
+            mPooledChunks.decrementAndGet();
+            return;
+        }
+        mChunks.offer(chunk);
+    }
+}
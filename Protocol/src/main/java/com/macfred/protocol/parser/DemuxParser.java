@@ -0,0 +1,451 @@
+package com.macfred.protocol.parser;
+
+import com.macfred.protocol.ChecksumDescriptor;
+import com.macfred.protocol.FieldDescription;
+import com.macfred.protocol.HeaderMagicDescriptor;
+import com.macfred.protocol.PacketDescriptor;
+import com.macfred.protocol.checksum.ChecksumAlgorithm;
+import com.macfred.protocol.parser.AbsParser.ProcessReport;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Parses several protocols sharing one byte stream in a single pass over one buffer. Every protocol is recognized
+ * by its header magic, a json stage by the '{' opening its units. At each sync point the cached bytes are walked
+ * down a trie of all prefixes, the protocol matched is parsed like {@link AbsParser} would and its packets go to
+ * its own receiver.
+ * <p>
+ * When a prefix is part of a longer one, the longest match is tried first and shorter ones are tried in turn if
+ * its packet gets rejected. Protocols sharing the same magic are tried in the order they were added. Once nothing
+ * matches, one byte is dropped and bytes are skipped up to the next byte any prefix starts with.
+ * <p>
+ * Protocols are added before any byte is parsed. Receivers see packets in place, only valid until they return.
+ */
+public class DemuxParser {
+    private static final byte BRACE_LEFT = '{';
+
+    private final ParserBuffer mBuffer;
+    private final List<Protocol> mProtocols = new ArrayList<>();
+    private final TrieNode mTrie = new TrieNode();
+    private final boolean[] mSyncBytes = new boolean[256];
+    private final JsonStreamFramer mFramer = new JsonStreamFramer();
+    private JsonSyntaxValidator mValidator = new JsonSyntaxValidator(true);
+    private int mMaxPrefixLength;
+    private final BufferProbe mBufferProbe;
+    private byte[] mProbe;
+    private int[] mCandidates = new int[0];
+    private int mCandidateCount;
+    private Protocol mProtocol;
+    private Status mStatus = Status.WaitForSync;
+    private int mPacketSize;
+    private long mChecksum;
+    private int mChecksummedLength;
+    private int mJsonScannedLength;
+
+    public DemuxParser(int bufferSize) {
+        this(new AbsParserBuffer(bufferSize));
+    }
+
+    public DemuxParser(ParserBuffer buffer) {
+        mBuffer = buffer;
+        mBufferProbe = new BufferProbe(buffer, 0);
+    }
+
+    /**
+     * @param packetDescriptor must have a header magic
+     */
+    public void addProtocol(PacketDescriptor packetDescriptor, PacketReceiver receiver) {
+        byte[] headerMagic = packetDescriptor instanceof HeaderMagicDescriptor ? ((HeaderMagicDescriptor) packetDescriptor).getHeaderMagic() : null;
+        if (headerMagic == null || headerMagic.length == 0) {
+            throw new IllegalArgumentException("Demultiplexed protocols need a header magic");
+        }
+        if (headerMagic.length > packetDescriptor.getHeaderDescription().length) {
+            throw new IllegalArgumentException(String.format("Header magic of %1d bytes exceeds header length %2d", headerMagic.length, packetDescriptor.getHeaderDescription().length));
+        }
+        addProtocol(new Protocol(packetDescriptor, receiver, Math.min(packetDescriptor.getPacketMaxSize(), mBuffer.getBufferSize())), headerMagic);
+    }
+
+    /**
+     * Adds a stage capturing top level json objects, each one has to fit the buffer.
+     *
+     * @param verifier checks every unit, null to only check its syntax
+     */
+    public void addJsonStage(@Nullable JsonVerifier verifier, PacketReceiver receiver) {
+        addProtocol(new Protocol(verifier, receiver, mBuffer.getBufferSize()), new byte[]{BRACE_LEFT});
+    }
+
+    /**
+     * Whether json units need quoted member names to pass the syntax check used when the json stage has no
+     * verifier. Unquoted names are accepted by default.
+     */
+    public void setUnquotedNamesAllowed(boolean unquotedNamesAllowed) {
+        mValidator = new JsonSyntaxValidator(unquotedNamesAllowed);
+    }
+
+    public void receive(byte[] data, int start, int length) {
+        mBuffer.offer(data, start, length);
+    }
+
+    /**
+     * @return bytes count read, 0 when the buffer is full, -1 on end of stream
+     */
+    public int receive(ReadableByteChannel channel) throws IOException {
+        return mBuffer.readFrom(channel);
+    }
+
+    /**
+     * Drops the oldest cached bytes and starts over looking for a sync point.
+     */
+    public void discard(int discard) {
+        mBuffer.skip(discard);
+        mStatus = Status.WaitForSync;
+        mPacketSize = 0;
+    }
+
+    public ParserBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public ProcessReport tryParsePackets(int captureLimit) {
+        return tryParsePackets(captureLimit, new ProcessReport());
+    }
+
+    /**
+     * Delivers packets of every protocol to its receiver, {@link ProcessReport#newPacketsFound} stays empty and
+     * the counts cover all protocols.
+     */
+    public ProcessReport tryParsePackets(int captureLimit, ProcessReport report) {
+        report.reset();
+        while (true) {
+            switch (mStatus) {
+                case WaitForSync:
+                    if (!findSync(report)) {
+                        return report;
+                    }
+                    mBufferProbe.endResync();
+                    startCandidate();
+                    break;
+                case WaitForPacketSize:
+                    if (mBuffer.getCachedBytes() < mProtocol.mFixedLength) {
+                        return report;
+                    }
+                    int headerStart = probe(0, mProtocol.mFixedLength);
+                    if (!mProtocol.mDescriptor.verifyHeader(mProbe, headerStart)) {
+                        rejectCandidate(report);
+                        break;
+                    }
+                    mPacketSize = mProtocol.mDescriptor.decodePacketSize(mProbe, headerStart + mProtocol.mPacketSizeDescription.start);
+                    if (mPacketSize < mProtocol.mMinPacketSize || mPacketSize > mProtocol.mMaxPacketSize) {
+                        report.invalidSizes++;
+                        rejectCandidate(report);
+                        break;
+                    }
+                    if (mProtocol.mChecksumDescriptor != null) {
+                        mChecksum = mProtocol.mChecksumAlgorithm.initial();
+                        mChecksummedLength = mProtocol.mChecksumDescriptor.getChecksumStart();
+                    }
+                    mStatus = Status.WaitForTermination;
+                case WaitForTermination:
+                    if (mProtocol.mChecksumDescriptor != null) {
+                        updateChecksum();
+                    }
+                    if (mBuffer.getCachedBytes() < mPacketSize) {
+                        return report;
+                    }
+                    int packetStart = probe(0, mPacketSize);
+                    if (!verifyPacket(packetStart)) {
+                        report.verifyFailures++;
+                        rejectCandidate(report);
+                        break;
+                    }
+                    deliver(packetStart, report);
+                    if (captureLimit > 0 && --captureLimit == 0) {
+                        return report;
+                    }
+                    break;
+                case WaitForJsonEnd:
+                    int unitLength = scanJson();
+                    if (unitLength == 0) {
+                        if (mBuffer.getAvailableSpace() > 0) {
+                            return report;
+                        }
+                        report.invalidSizes++;
+                        rejectCandidate(report);
+                        break;
+                    }
+                    if (unitLength < 0) {
+                        report.verifyFailures++;
+                        rejectCandidate(report);
+                        break;
+                    }
+                    mPacketSize = unitLength;
+                    int unitStart = probe(0, unitLength);
+                    if (mProtocol.mJsonVerifier != null && !mProtocol.mJsonVerifier.verify(mProbe, unitStart, unitLength)) {
+                        report.verifyFailures++;
+                        rejectCandidate(report);
+                        break;
+                    }
+                    deliver(unitStart, report);
+                    if (captureLimit > 0 && --captureLimit == 0) {
+                        return report;
+                    }
+                    break;
+                default:
+                    throw new RuntimeException("Unknown status while trying to parse");
+            }
+        }
+    }
+
+    private void addProtocol(Protocol protocol, byte[] prefix) {
+        int index = mProtocols.size();
+        mProtocols.add(protocol);
+        TrieNode node = mTrie;
+        for (byte value : prefix) {
+            TrieNode child = node.mChildren[value & 0xFF];
+            if (child == null) {
+                child = new TrieNode();
+                node.mChildren[value & 0xFF] = child;
+            }
+            node = child;
+        }
+        node.mProtocols.add(index);
+        mSyncBytes[prefix[0] & 0xFF] = true;
+        mMaxPrefixLength = Math.max(mMaxPrefixLength, prefix.length);
+        if (mCandidates.length < mProtocols.size()) {
+            mCandidates = new int[mProtocols.size()];
+        }
+        mBufferProbe.ensureMaxLength(protocol.mMaxPacketSize);
+    }
+
+    /**
+     * Drops bytes until the cached bytes start with a known prefix, and lists the protocols matched into
+     * {@link #mCandidates}, shortest prefix first.
+     *
+     * @return false when cached bytes ran out first, or can't tell yet whether a longer prefix matches
+     */
+    private boolean findSync(ProcessReport report) {
+        while (mBuffer.getCachedBytes() > 0) {
+            int window = Math.min(mBuffer.getCachedBytes(), mMaxPrefixLength);
+            int windowStart = probe(0, window);
+            TrieNode node = mTrie;
+            mCandidateCount = 0;
+            int depth = 0;
+            while (true) {
+                if (depth == window) {
+                    if (node.hasChildren()) {
+                        return false;
+                    }
+                    break;
+                }
+                node = node.mChildren[mProbe[windowStart + depth] & 0xFF];
+                if (node == null) {
+                    break;
+                }
+                depth++;
+                for (int i = node.mProtocols.size() - 1; i >= 0; i--) {
+                    mCandidates[mCandidateCount++] = node.mProtocols.get(i);
+                }
+            }
+            if (mCandidateCount > 0) {
+                return true;
+            }
+            skipToSyncByte(report);
+        }
+        return false;
+    }
+
+    /**
+     * Drops the first cached byte and every following byte no prefix starts with.
+     */
+    private void skipToSyncByte(ProcessReport report) {
+        int window = Math.min(mBuffer.getCachedBytes(), mBufferProbe.getMaxLength());
+        int windowStart = probe(0, window);
+        int skip = 1;
+        while (skip < window && !mSyncBytes[mProbe[windowStart + skip] & 0xFF]) {
+            skip++;
+        }
+        drop(skip, report);
+    }
+
+    /**
+     * Starts parsing as the last protocol left in {@link #mCandidates}.
+     */
+    private void startCandidate() {
+        mProtocol = mProtocols.get(mCandidates[--mCandidateCount]);
+        mPacketSize = 0;
+        if (mProtocol.mJson) {
+            mFramer.reset();
+            mValidator.reset();
+            mJsonScannedLength = 0;
+            mStatus = Status.WaitForJsonEnd;
+        } else {
+            mStatus = Status.WaitForPacketSize;
+        }
+    }
+
+    /**
+     * Gives up the current protocol at this sync point, trying the protocol with the next shorter prefix if any.
+     */
+    private void rejectCandidate(ProcessReport report) {
+        if (mCandidateCount > 0) {
+            startCandidate();
+            return;
+        }
+        skipToSyncByte(report);
+        mStatus = Status.WaitForSync;
+        mPacketSize = 0;
+    }
+
+    private void deliver(int packetStart, ProcessReport report) {
+        mProtocol.mReceiver.onNewPacket(mProbe, packetStart, mPacketSize);
+        report.consumedBytes += mPacketSize;
+        report.packetsFound++;
+        mBuffer.skip(mPacketSize);
+        mStatus = Status.WaitForSync;
+        mPacketSize = 0;
+    }
+
+    private void drop(int drop, ProcessReport report) {
+        mBufferProbe.drop(drop, report);
+    }
+
+    /**
+     * Frames the json unit starting the cached bytes, carrying on where the last call stopped.
+     *
+     * @return length of the completed unit, 0 when more bytes are needed, -1 when the bytes can't be a valid unit
+     */
+    private int scanJson() {
+        boolean validate = mProtocol.mJsonVerifier == null;
+        while (mJsonScannedLength < mBuffer.getCachedBytes()) {
+            int windowLength = mBuffer.getCachedBytes() - mJsonScannedLength;
+            int index = probe(mJsonScannedLength, windowLength);
+            byte[] window = mProbe;
+            for (int end = index + windowLength; index < end; index++) {
+                byte value = window[index];
+                mJsonScannedLength++;
+                if (validate && !mValidator.feed(value)) {
+                    return -1;
+                }
+                switch (mFramer.scan(value)) {
+                    case JsonStreamFramer.START:
+                    case JsonStreamFramer.INSIDE:
+                        break;
+                    case JsonStreamFramer.END:
+                        return !validate || mValidator.isComplete() ? mJsonScannedLength : -1;
+                    default:
+                        return -1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private void updateChecksum() {
+        ChecksumAlgorithm algorithm = mProtocol.mChecksumAlgorithm;
+        int coveredEnd = Math.min(mBuffer.getCachedBytes(), mPacketSize - algorithm.getLength());
+        if (coveredEnd > mChecksummedLength) {
+            int length = coveredEnd - mChecksummedLength;
+            int start = probe(mChecksummedLength, length);
+            mChecksum = algorithm.update(mChecksum, mProbe, start, length);
+            mChecksummedLength = coveredEnd;
+        }
+    }
+
+    private boolean verifyPacket(int packetStart) {
+        ChecksumDescriptor checksumDescriptor = mProtocol.mChecksumDescriptor;
+        if (checksumDescriptor == null) {
+            return mProtocol.mDescriptor.verifyAndAcceptPacket(mProbe, packetStart, mPacketSize);
+        }
+        ChecksumAlgorithm algorithm = mProtocol.mChecksumAlgorithm;
+        int checksumStart = mPacketSize - algorithm.getLength();
+        return checksumStart >= checksumDescriptor.getChecksumStart()
+                && algorithm.finish(mChecksum) == checksumDescriptor.decodeChecksum(mProbe, packetStart + checksumStart)
+                && checksumDescriptor.acceptPacket(mProbe, packetStart, mPacketSize);
+    }
+
+    /**
+     * Makes cached bytes [start, start + length) readable through {@link #mProbe}.
+     *
+     * @return index of the byte at {@code start} in {@link #mProbe}
+     */
+    private int probe(int start, int length) {
+        int index = mBufferProbe.probe(start, length);
+        mProbe = mBufferProbe.bytes();
+        return index;
+    }
+
+    private enum Status {
+        WaitForSync,
+        WaitForPacketSize,
+        WaitForTermination,
+        WaitForJsonEnd
+    }
+
+    private static final class TrieNode {
+        private final TrieNode[] mChildren = new TrieNode[256];
+        private final List<Integer> mProtocols = new ArrayList<>(1);
+
+        private boolean hasChildren() {
+            for (TrieNode child : mChildren) {
+                if (child != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Protocol {
+        private final PacketDescriptor mDescriptor;
+        private final JsonVerifier mJsonVerifier;
+        private final boolean mJson;
+        private final PacketReceiver mReceiver;
+        private final FieldDescription mPacketSizeDescription;
+        private final ChecksumDescriptor mChecksumDescriptor;
+        private final ChecksumAlgorithm mChecksumAlgorithm;
+        private final int mFixedLength;
+        private final int mMinPacketSize;
+        private final int mMaxPacketSize;
+
+        private Protocol(PacketDescriptor descriptor, PacketReceiver receiver, int maxPacketSize) {
+            mDescriptor = descriptor;
+            mJsonVerifier = null;
+            mJson = false;
+            mReceiver = receiver;
+            FieldDescription headerDescription = descriptor.getHeaderDescription();
+            mPacketSizeDescription = descriptor.getPacketSizeDescription();
+            if (descriptor instanceof ChecksumDescriptor) {
+                mChecksumDescriptor = (ChecksumDescriptor) descriptor;
+                mChecksumAlgorithm = mChecksumDescriptor.getChecksumAlgorithm();
+            } else {
+                mChecksumDescriptor = null;
+                mChecksumAlgorithm = null;
+            }
+            mFixedLength = Math.max(headerDescription.length, mPacketSizeDescription.start + mPacketSizeDescription.length);
+            int minPacketSize = mFixedLength;
+            if (mChecksumDescriptor != null) {
+                minPacketSize = Math.max(minPacketSize, mChecksumDescriptor.getChecksumStart() + mChecksumAlgorithm.getLength());
+            }
+            mMinPacketSize = minPacketSize;
+            mMaxPacketSize = maxPacketSize;
+        }
+
+        private Protocol(@Nullable JsonVerifier verifier, PacketReceiver receiver, int maxPacketSize) {
+            mDescriptor = null;
+            mJsonVerifier = verifier;
+            mJson = true;
+            mReceiver = receiver;
+            mPacketSizeDescription = null;
+            mChecksumDescriptor = null;
+            mChecksumAlgorithm = null;
+            mFixedLength = 1;
+            mMinPacketSize = 2;
+            mMaxPacketSize = maxPacketSize;
+        }
+    }
+}
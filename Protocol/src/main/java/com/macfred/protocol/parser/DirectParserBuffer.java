@@ -0,0 +1,227 @@
+package com.macfred.protocol.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * {@link ParserBuffer} backed by a direct {@link ByteBuffer}, so bytes read from NIO channels land in the ring
+ * without going through a temporary heap array.
+ */
+public class DirectParserBuffer implements ParserBuffer {
+    private final ByteBuffer mBuffer;
+    private final ByteBuffer mReader;
+    private final ByteBuffer mWriter;
+    private final ByteBuffer[] mFreeRegion;
+    private final int mBufferSize;
+    private int mCachedBytesRangeStart = 0;
+    private int mCachedBytesRangeSize = 0;
+    private final MagicSearch.ByteAccessor mCachedBytesAccessor = new MagicSearch.ByteAccessor() {
+        @Override
+        public byte get(int position) {
+            int index = mCachedBytesRangeStart + position;
+            return mBuffer.get(index >= mBufferSize ? index - mBufferSize : index);
+        }
+
+        @Override
+        public int find(byte value, int from, int end) {
+            int index = mCachedBytesRangeStart + from;
+            if (index >= mBufferSize) {
+                index -= mBufferSize;
+            }
+            int position = from;
+            while (position < end) {
+                int runEnd = Math.min(mBufferSize, index + end - position);
+                int i = index;
+                while (i < runEnd && mBuffer.get(i) != value) {
+                    i++;
+                }
+                position += i - index;
+                if (i < runEnd) {
+                    return position;
+                }
+                index = 0;
+            }
+            return end;
+        }
+    };
+
+    public DirectParserBuffer(int bufferSize) {
+        this(ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    /**
+     * @param buffer storage of the ring, its whole capacity is used regardless of position and limit
+     */
+    public DirectParserBuffer(ByteBuffer buffer) {
+        mBuffer = buffer.duplicate();
+        mBuffer.clear();
+        mBufferSize = mBuffer.capacity();
+        mReader = mBuffer.duplicate();
+        mWriter = mBuffer.duplicate();
+        mFreeRegion = new ByteBuffer[]{mBuffer.duplicate(), mBuffer.duplicate()};
+    }
+
+    @Override
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    @Override
+    public int getCachedBytes() {
+        return mCachedBytesRangeSize;
+    }
+
+    @Override
+    public int getAvailableSpace() {
+        return mBufferSize - mCachedBytesRangeSize;
+    }
+
+    @Override
+    public void offer(byte[] data, int start, int length) {
+        int availableSpace = mBufferSize - mCachedBytesRangeSize;
+        if (availableSpace < length) {
+            throw new RuntimeException(String.format("Parser buffer overflow! Buffer size %1d,available space%2d,receive %3d", mBufferSize, availableSpace, length));
+        }
+        if (length == 0) {
+            return;
+        }
+        int newRangeStart = cachedBytesRangeEnd();
+        int newRangeEnd = newRangeStart + length;
+        if (newRangeEnd > mBufferSize) {
+            int wind = newRangeEnd - mBufferSize;
+            mWriter.limit(mBufferSize).position(newRangeStart);
+            mWriter.put(data, start, length - wind);
+            mWriter.limit(wind).position(0);
+            mWriter.put(data, start + length - wind, wind);
+        } else {
+            mWriter.limit(newRangeEnd).position(newRangeStart);
+            mWriter.put(data, start, length);
+        }
+        mCachedBytesRangeSize += length;
+    }
+
+    @Override
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        int availableSpace = mBufferSize - mCachedBytesRangeSize;
+        if (availableSpace == 0) {
+            return 0;
+        }
+        int newRangeStart = cachedBytesRangeEnd();
+        int newRangeEnd = newRangeStart + availableSpace;
+        int wind = newRangeEnd > mBufferSize ? newRangeEnd - mBufferSize : 0;
+        mFreeRegion[0].limit(newRangeEnd - wind).position(newRangeStart);
+        mFreeRegion[1].limit(wind).position(0);
+        long read;
+        if (wind > 0 && channel instanceof ScatteringByteChannel) {
+            read = ((ScatteringByteChannel) channel).read(mFreeRegion);
+        } else {
+            read = channel.read(mFreeRegion[0]);
+            if (read > 0 && wind > 0 && !mFreeRegion[0].hasRemaining()) {
+                int windRead = channel.read(mFreeRegion[1]);
+                if (windRead > 0) {
+                    read += windRead;
+                }
+            }
+        }
+        if (read > 0) {
+            mCachedBytesRangeSize += (int) read;
+        }
+        return (int) read;
+    }
+
+    @Override
+    public void consume(int consumption, byte[] container, int start) {
+        if (consumption < 0 || consumption > mCachedBytesRangeSize) {
+            throw new RuntimeException(String.format("Invalid bytes consumption:%1d while available range [0,%2d]", consumption, mCachedBytesRangeSize));
+        }
+        peek(0, consumption, container, start);
+        skip(consumption);
+    }
+
+    @Override
+    public void peek(int peekStart, int peek, byte[] container, int start) {
+        if (peekStart < 0 || peekStart + peek > mCachedBytesRangeSize) {
+            throw new RuntimeException(String.format("Invalid bytes peek:[%1d,%2d) while available range [0,%3d)", peekStart, peekStart + peek, mCachedBytesRangeSize));
+        }
+        int peekRangeStart = mCachedBytesRangeStart + peekStart;
+        if (peekRangeStart >= mBufferSize) {
+            peekRangeStart -= mBufferSize;
+        }
+        int peekRangeEnd = peekRangeStart + peek;
+        if (peekRangeEnd > mBufferSize) {
+            int wind = peekRangeEnd - mBufferSize;
+            mReader.limit(mBufferSize).position(peekRangeStart);
+            mReader.get(container, start, peek - wind);
+            mReader.limit(wind).position(0);
+            mReader.get(container, start + peek - wind, wind);
+        } else {
+            mReader.limit(peekRangeEnd).position(peekRangeStart);
+            mReader.get(container, start, peek);
+        }
+    }
+
+    @Override
+    public void view(int viewStart, int view, PacketView container) {
+        if (viewStart < 0 || view < 0 || viewStart + view > mCachedBytesRangeSize) {
+            throw new RuntimeException(String.format("Invalid bytes view:[%1d,%2d) while available range [0,%3d)", viewStart, viewStart + view, mCachedBytesRangeSize));
+        }
+        int viewRangeStart = mCachedBytesRangeStart + viewStart;
+        if (viewRangeStart >= mBufferSize) {
+            viewRangeStart -= mBufferSize;
+        }
+        int viewRangeEnd = viewRangeStart + view;
+        if (viewRangeEnd > mBufferSize) {
+            int wind = viewRangeEnd - mBufferSize;
+            container.set(viewRangeStart, view - wind, wind);
+        } else {
+            container.set(viewRangeStart, view, 0);
+        }
+    }
+
+    @Override
+    public PacketView createView() {
+        return new PacketView(mBuffer);
+    }
+
+    @Override
+    public int indexOf(byte[] pattern, int from) {
+        return MagicSearch.indexOf(mCachedBytesAccessor, mCachedBytesRangeSize, pattern, from);
+    }
+
+    @Override
+    public void skip(int skip) {
+        if (skip < 0 || skip > mCachedBytesRangeSize) {
+            throw new RuntimeException(String.format("Invalid bytes skip:%1d while available range [0,%2d]", skip, mCachedBytesRangeSize));
+        }
+        mCachedBytesRangeStart += skip;
+        if (mCachedBytesRangeStart >= mBufferSize) {
+            mCachedBytesRangeStart -= mBufferSize;
+        }
+        mCachedBytesRangeSize -= skip;
+    }
+
+    @Override
+    public void clear() {
+        mCachedBytesRangeSize = 0;
+    }
+
+    @Override
+    public byte[] array() {
+        return null;
+    }
+
+    @Override
+    public int arrayOffset(int rangeStart, int range) {
+        return -1;
+    }
+
+    private int cachedBytesRangeEnd() {
+        int cachedBytesRangeEnd = mCachedBytesRangeStart + mCachedBytesRangeSize;
+        if (cachedBytesRangeEnd >= mBufferSize) {
+            cachedBytesRangeEnd -= mBufferSize;
+        }
+        return cachedBytesRangeEnd;
+    }
+}
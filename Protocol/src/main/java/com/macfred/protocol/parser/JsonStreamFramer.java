@@ -0,0 +1,259 @@
+package com.macfred.protocol.parser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Single pass framer for top level json objects in a byte stream. It keeps nesting depth and string/escape state
+ * only, so every byte costs constant time and nothing gets allocated.
+ * <p>
+ * Braces and brackets inside string literals are not counted, bytes between objects are reported as
+ * {@link #OUTSIDE}.
+ * <p>
+ * Besides {@link #scan(byte)}, bytes can be framed {@link #BLOCK_SIZE} at a time with {@link #loadBlock(ByteBuffer, int)}
+ * and {@link #nextInBlock()}: quote, backslash and structural bytes are turned into 64 bit masks with word wide bit
+ * tricks, escaped quotes and string contents are masked out, and only the remaining structural bytes are visited.
+ * Both ways share the same state and can be mixed freely. Only backslashes inside strings are tracked across
+ * blocks, so where malformed input puts a backslash outside of a string both ways may frame it differently.
+ */
+public final class JsonStreamFramer {
+    /**
+     * Byte is not part of any object.
+     */
+    public static final int OUTSIDE = 0;
+    /**
+     * Byte opens a top level object.
+     */
+    public static final int START = 1;
+    /**
+     * Byte belongs to the object being framed.
+     */
+    public static final int INSIDE = 2;
+    /**
+     * Byte closes the object being framed.
+     */
+    public static final int END = 3;
+    /**
+     * Byte can't be part of the object being framed, e.g. a bracket closing a brace. Framing starts over with the
+     * next byte.
+     */
+    public static final int BROKEN = 4;
+    /**
+     * Bytes framed per {@link #loadBlock(ByteBuffer, int)}.
+     */
+    public static final int BLOCK_SIZE = 64;
+
+    private static final byte QUOTE = '"';
+    private static final byte BACKSLASH = '\\';
+    private static final byte BRACE_LEFT = '{';
+    private static final byte BRACE_RIGHT = '}';
+    private static final byte BRACKET_LEFT = '[';
+    private static final byte BRACKET_RIGHT = ']';
+
+    private static final long EVEN_BITS = 0x5555555555555555L;
+    private static final long ODD_BITS = ~EVEN_BITS;
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long BYTE_ONES = 0x0101010101010101L;
+    private static final long GATHER_HIGH_BITS = 0x0102040810204080L;
+
+    private int mDepth;
+    private boolean mInString;
+    private boolean mEscaped;
+
+    private ByteBuffer mBlock;
+    private int mBlockOffset;
+    private int mBlockCursor = BLOCK_SIZE;
+    private int mBlockEvent;
+    private long mBlockQuotes;
+    private long mBlockBraceLefts;
+    private long mBlockStructurals;
+    private long mBlockInString;
+    private boolean mBlockEndsOddBackslash;
+
+    public int scan(byte value) {
+        if (mDepth == 0) {
+            if (value == BRACE_LEFT) {
+                mDepth = 1;
+                return START;
+            }
+            return OUTSIDE;
+        }
+        if (mInString) {
+            if (mEscaped) {
+                mEscaped = false;
+            } else if (value == BACKSLASH) {
+                mEscaped = true;
+            } else if (value == QUOTE) {
+                mInString = false;
+            }
+            return INSIDE;
+        }
+        switch (value) {
+            case QUOTE:
+                mInString = true;
+                return INSIDE;
+            case BRACE_LEFT:
+            case BRACKET_LEFT:
+                mDepth++;
+                return INSIDE;
+            case BRACE_RIGHT:
+                if (--mDepth == 0) {
+                    return END;
+                }
+                return INSIDE;
+            case BRACKET_RIGHT:
+                if (--mDepth == 0) {
+                    reset();
+                    return BROKEN;
+                }
+                return INSIDE;
+            default:
+                return INSIDE;
+        }
+    }
+
+    /**
+     * Loads {@link #BLOCK_SIZE} bytes starting at {@code offset} for {@link #nextInBlock()}.
+     *
+     * @param source little endian buffer, must stay unchanged until the block is done
+     */
+    public void loadBlock(ByteBuffer source, int offset) {
+        long quotes = 0;
+        long backslashes = 0;
+        long braceLefts = 0;
+        long structurals = 0;
+        for (int i = 0; i < BLOCK_SIZE; i += 8) {
+            long word = source.getLong(offset + i);
+            quotes |= matches(word, QUOTE) << i;
+            backslashes |= matches(word, BACKSLASH) << i;
+            long braceLeft = matches(word, BRACE_LEFT);
+            braceLefts |= braceLeft << i;
+            structurals |= (braceLeft | matches(word, BRACE_RIGHT) | matches(word, BRACKET_LEFT) | matches(word, BRACKET_RIGHT)) << i;
+        }
+        // bytes behind an odd run of backslashes are escaped
+        long carry = mEscaped ? 1L : 0L;
+        long startEdges = backslashes & ~(backslashes << 1);
+        long evenStartMask = EVEN_BITS ^ carry;
+        long evenStarts = startEdges & evenStartMask;
+        long oddStarts = startEdges & ~evenStartMask;
+        long evenCarries = backslashes + evenStarts;
+        long oddCarries = backslashes + oddStarts;
+        mBlockEndsOddBackslash = Long.compareUnsigned(oddCarries, backslashes) < 0;
+        oddCarries |= carry;
+        long escaped = (evenCarries & ~backslashes & ODD_BITS) | (oddCarries & ~backslashes & EVEN_BITS);
+
+        mBlock = source;
+        mBlockOffset = offset;
+        mBlockCursor = 0;
+        mBlockQuotes = quotes & ~escaped;
+        mBlockBraceLefts = braceLefts;
+        mBlockStructurals = structurals;
+        mBlockInString = prefixXor(mBlockQuotes) ^ (mInString ? -1L : 0L);
+    }
+
+    /**
+     * Frames the loaded block up to its next {@link #START}, {@link #END} or {@link #BROKEN} byte, which is then
+     * available from {@link #getBlockEvent()}. Calling again goes on right behind that byte.
+     *
+     * @return index of the byte in the block, -1 when the rest of the block holds no more events
+     */
+    public int nextInBlock() {
+        while (mBlockCursor < BLOCK_SIZE) {
+            long remaining = -1L << mBlockCursor;
+            if (mDepth == 0) {
+                long starts = mBlockBraceLefts & remaining;
+                if (starts == 0) {
+                    mBlockCursor = BLOCK_SIZE;
+                    break;
+                }
+                int position = Long.numberOfTrailingZeros(starts);
+                mDepth = 1;
+                mInString = false;
+                mEscaped = false;
+                mBlockCursor = position + 1;
+                mBlockInString = mBlockCursor < BLOCK_SIZE ? prefixXor(mBlockQuotes & (-1L << mBlockCursor)) : 0L;
+                mBlockEvent = START;
+                return position;
+            }
+            long structurals = mBlockStructurals & ~mBlockInString & remaining;
+            mBlockCursor = BLOCK_SIZE;
+            while (structurals != 0) {
+                int position = Long.numberOfTrailingZeros(structurals);
+                structurals &= structurals - 1;
+                switch (mBlock.get(mBlockOffset + position)) {
+                    case BRACE_LEFT:
+                    case BRACKET_LEFT:
+                        mDepth++;
+                        break;
+                    case BRACE_RIGHT:
+                        if (--mDepth == 0) {
+                            mInString = false;
+                            mEscaped = false;
+                            mBlockCursor = position + 1;
+                            mBlockEvent = END;
+                            return position;
+                        }
+                        break;
+                    default:
+                        if (--mDepth == 0) {
+                            reset();
+                            mBlockCursor = position + 1;
+                            mBlockEvent = BROKEN;
+                            return position;
+                        }
+                        break;
+                }
+            }
+        }
+        if (mDepth > 0) {
+            mInString = mBlockInString < 0;
+            mEscaped = mInString && mBlockEndsOddBackslash;
+        }
+        return -1;
+    }
+
+    /**
+     * @return kind of the byte last returned by {@link #nextInBlock()}
+     */
+    public int getBlockEvent() {
+        return mBlockEvent;
+    }
+
+    public boolean isInObject() {
+        return mDepth > 0;
+    }
+
+    /**
+     * @return braces and brackets open after the last byte framed, 0 outside of objects
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    public void reset() {
+        mDepth = 0;
+        mInString = false;
+        mEscaped = false;
+    }
+
+    /**
+     * @return high bit of every byte of {@code word} equal to {@code value}, gathered into the low 8 bits
+     */
+    private static long matches(long word, byte value) {
+        long difference = word ^ ((value & 0xFFL) * BYTE_ONES);
+        long zeroBytes = ~(((difference & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | difference | LOW_SEVEN_BITS);
+        return ((zeroBytes >>> 7) * GATHER_HIGH_BITS) >>> 56;
+    }
+
+    /**
+     * @return mask with every bit set where an odd number of bits are set at or below it
+     */
+    private static long prefixXor(long bits) {
+        bits ^= bits << 1;
+        bits ^= bits << 2;
+        bits ^= bits << 4;
+        bits ^= bits << 8;
+        bits ^= bits << 16;
+        bits ^= bits << 32;
+        return bits;
+    }
+}
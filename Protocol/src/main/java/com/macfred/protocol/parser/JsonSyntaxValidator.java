@@ -0,0 +1,503 @@
+package com.macfred.protocol.parser;
+
+/**
+ * Incremental json syntax checker fed one byte at a time, so validation can run along with framing instead of
+ * decoding and parsing a completed unit again. Works on the raw bytes of any ASCII compatible charset, nothing
+ * gets decoded and no tree is built.
+ * <p>
+ * The container stack is a bit set which only grows when nesting gets deeper than ever before, so feeding bytes
+ * doesn't allocate.
+ * <p>
+ * How strict the check is comes from its {@link Syntax}, {@link Syntax#Lenient} accepts what Gson's lenient parser
+ * does.
+ */
+public final class JsonSyntaxValidator {
+    private static final int VALUE = 0;
+    private static final int VALUE_OR_CLOSE = 1;
+    private static final int NAME = 2;
+    private static final int NAME_OR_CLOSE = 3;
+    private static final int COLON = 4;
+    private static final int COMMA_OR_CLOSE = 5;
+    private static final int STRING = 6;
+    private static final int STRING_ESCAPE = 7;
+    private static final int STRING_UNICODE = 8;
+    private static final int UNQUOTED_NAME = 9;
+    private static final int LITERAL = 10;
+    private static final int NUMBER_MINUS = 11;
+    private static final int NUMBER_ZERO = 12;
+    private static final int NUMBER_INTEGER = 13;
+    private static final int NUMBER_POINT = 14;
+    private static final int NUMBER_FRACTION = 15;
+    private static final int NUMBER_EXPONENT = 16;
+    private static final int NUMBER_EXPONENT_SIGN = 17;
+    private static final int NUMBER_EXPONENT_DIGITS = 18;
+    private static final int UNQUOTED_VALUE = 19;
+    private static final int NAME_SEPARATOR_ARROW = 20;
+    private static final int COMMENT_START = 21;
+    private static final int BLOCK_COMMENT = 22;
+    private static final int BLOCK_COMMENT_STAR = 23;
+    private static final int LINE_COMMENT = 24;
+    private static final int DONE = 25;
+    private static final int INVALID = 26;
+
+    private static final byte[] LITERAL_TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] LITERAL_FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] LITERAL_NULL = {'n', 'u', 'l', 'l'};
+
+    private final boolean mUnquotedNamesAllowed;
+    private final boolean mLenient;
+    private long[] mObjectBits = new long[1];
+    private int mDepth;
+    private int mState;
+    private int mStateAfterComment;
+    private byte mQuote;
+    private boolean mStringIsName;
+    private byte[] mLiteral;
+    private int mLiteralIndex;
+    private int mUnicodeDigits;
+
+    public JsonSyntaxValidator() {
+        this(Syntax.Strict);
+    }
+
+    /**
+     * @param unquotedNamesAllowed accept object member names without quotes, like {@code {id:1}}
+     */
+    public JsonSyntaxValidator(boolean unquotedNamesAllowed) {
+        this(unquotedNamesAllowed ? Syntax.UnquotedNames : Syntax.Strict);
+    }
+
+    public JsonSyntaxValidator(Syntax syntax) {
+        mUnquotedNamesAllowed = syntax != Syntax.Strict;
+        mLenient = syntax == Syntax.Lenient;
+        reset();
+    }
+
+    public void reset() {
+        mDepth = 0;
+        mState = VALUE;
+        mStringIsName = false;
+        mLiteral = null;
+        mLiteralIndex = 0;
+        mUnicodeDigits = 0;
+    }
+
+    /**
+     * Validates a whole value at once.
+     */
+    public boolean validate(byte[] data, int start, int length) {
+        reset();
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            if (!feed(data[i])) {
+                return false;
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * @return false once the bytes fed so far can't be the beginning of a valid json value
+     */
+    public boolean feed(byte value) {
+        switch (mState) {
+            case STRING:
+                if (value == mQuote) {
+                    mState = mStringIsName ? COLON : afterValue();
+                } else if (value == '\\') {
+                    mState = STRING_ESCAPE;
+                } else if ((value & 0xFF) < 0x20 && !mLenient) {
+                    mState = INVALID;
+                }
+                break;
+            case STRING_ESCAPE:
+                switch (value) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                    case 'b':
+                    case 'f':
+                    case 'n':
+                    case 'r':
+                    case 't':
+                        mState = STRING;
+                        break;
+                    case 'u':
+                        mUnicodeDigits = 0;
+                        mState = STRING_UNICODE;
+                        break;
+                    default:
+                        mState = mLenient ? STRING : INVALID;
+                        break;
+                }
+                break;
+            case STRING_UNICODE:
+                if (!isHexDigit(value)) {
+                    mState = INVALID;
+                } else if (++mUnicodeDigits == 4) {
+                    mState = STRING;
+                }
+                break;
+            case VALUE:
+            case VALUE_OR_CLOSE:
+                if (skip(value)) {
+                    break;
+                }
+                if (value == ']' && mState == VALUE_OR_CLOSE) {
+                    close(false);
+                    break;
+                }
+                if (mLenient && mDepth > 0 && !isInObject()) {
+                    // a missing array element reads as null
+                    if (value == ',' || value == ';') {
+                        mState = VALUE;
+                        break;
+                    }
+                    if (value == ']') {
+                        close(false);
+                        break;
+                    }
+                }
+                startValue(value);
+                break;
+            case NAME:
+            case NAME_OR_CLOSE:
+                if (skip(value)) {
+                    break;
+                }
+                if (value == '}' && mState == NAME_OR_CLOSE) {
+                    close(true);
+                } else if (value == '"' || (value == '\'' && mLenient)) {
+                    startString(value, true);
+                } else if (mLenient ? isLiteral(value) : mUnquotedNamesAllowed && isNameByte(value)) {
+                    mState = UNQUOTED_NAME;
+                } else {
+                    mState = INVALID;
+                }
+                break;
+            case UNQUOTED_NAME:
+                if (mLenient ? isLiteral(value) : isNameByte(value) || (value >= '0' && value <= '9')) {
+                    break;
+                }
+                mState = COLON;
+                return feed(value);
+            case COLON:
+                if (value == ':') {
+                    mState = VALUE;
+                } else if (value == '=' && mLenient) {
+                    mState = NAME_SEPARATOR_ARROW;
+                } else if (!skip(value)) {
+                    mState = INVALID;
+                }
+                break;
+            case NAME_SEPARATOR_ARROW:
+                mState = VALUE;
+                if (value != '>') {
+                    return feed(value);
+                }
+                break;
+            case COMMA_OR_CLOSE:
+                if (skip(value)) {
+                    break;
+                }
+                boolean inObject = isInObject();
+                if (value == ',' || (value == ';' && mLenient)) {
+                    mState = inObject ? NAME : VALUE;
+                } else if (value == (inObject ? '}' : ']')) {
+                    close(inObject);
+                } else {
+                    mState = INVALID;
+                }
+                break;
+            case LITERAL:
+                if (value != mLiteral[mLiteralIndex]) {
+                    mState = INVALID;
+                } else if (++mLiteralIndex == mLiteral.length) {
+                    mState = afterValue();
+                }
+                break;
+            case NUMBER_MINUS:
+                if (value == '0') {
+                    mState = NUMBER_ZERO;
+                } else if (value >= '1' && value <= '9') {
+                    mState = NUMBER_INTEGER;
+                } else {
+                    mState = INVALID;
+                }
+                break;
+            case NUMBER_ZERO:
+            case NUMBER_INTEGER:
+                if (value >= '0' && value <= '9' && mState == NUMBER_INTEGER) {
+                    break;
+                }
+                if (value == '.') {
+                    mState = NUMBER_POINT;
+                } else if (value == 'e' || value == 'E') {
+                    mState = NUMBER_EXPONENT;
+                } else {
+                    return endNumber(value);
+                }
+                break;
+            case NUMBER_POINT:
+                mState = value >= '0' && value <= '9' ? NUMBER_FRACTION : INVALID;
+                break;
+            case NUMBER_FRACTION:
+                if (value >= '0' && value <= '9') {
+                    break;
+                }
+                if (value == 'e' || value == 'E') {
+                    mState = NUMBER_EXPONENT;
+                } else {
+                    return endNumber(value);
+                }
+                break;
+            case NUMBER_EXPONENT:
+                if (value == '+' || value == '-') {
+                    mState = NUMBER_EXPONENT_SIGN;
+                    break;
+                }
+            case NUMBER_EXPONENT_SIGN:
+                mState = value >= '0' && value <= '9' ? NUMBER_EXPONENT_DIGITS : INVALID;
+                break;
+            case NUMBER_EXPONENT_DIGITS:
+                if (value < '0' || value > '9') {
+                    return endNumber(value);
+                }
+                break;
+            case UNQUOTED_VALUE:
+                if (isLiteral(value)) {
+                    break;
+                }
+                mState = afterValue();
+                return feed(value);
+            case COMMENT_START:
+                if (value == '*') {
+                    mState = BLOCK_COMMENT;
+                } else if (value == '/') {
+                    mState = LINE_COMMENT;
+                } else {
+                    mState = INVALID;
+                }
+                break;
+            case BLOCK_COMMENT:
+                if (value == '*') {
+                    mState = BLOCK_COMMENT_STAR;
+                }
+                break;
+            case BLOCK_COMMENT_STAR:
+                if (value == '/') {
+                    mState = mStateAfterComment;
+                } else if (value != '*') {
+                    mState = BLOCK_COMMENT;
+                }
+                break;
+            case LINE_COMMENT:
+                if (value == '\n' || value == '\r') {
+                    mState = mStateAfterComment;
+                }
+                break;
+            case DONE:
+                if (!isWhitespace(value)) {
+                    mState = INVALID;
+                }
+                break;
+            case INVALID:
+            default:
+                break;
+        }
+        return mState != INVALID;
+    }
+
+    /**
+     * @return whether a complete value has been fed, without anything but whitespace behind it
+     */
+    public boolean isComplete() {
+        return mState == DONE;
+    }
+
+    public boolean isValid() {
+        return mState != INVALID;
+    }
+
+    /**
+     * Ends the input, completing a top level number which has no delimiter after it.
+     *
+     * @return same as {@link #isComplete()}
+     */
+    public boolean finish() {
+        if (mDepth == 0 && (mState == UNQUOTED_VALUE || mState == NUMBER_ZERO || mState == NUMBER_INTEGER || mState == NUMBER_FRACTION || mState == NUMBER_EXPONENT_DIGITS)) {
+            mState = DONE;
+        }
+        return mState == DONE;
+    }
+
+    private void startValue(byte value) {
+        switch (value) {
+            case '{':
+                open(true);
+                mState = NAME_OR_CLOSE;
+                return;
+            case '[':
+                open(false);
+                mState = VALUE_OR_CLOSE;
+                return;
+            case '"':
+                startString(value, false);
+                return;
+            default:
+                break;
+        }
+        if (mLenient) {
+            // numbers, keywords and NaN alike are taken as unquoted literals
+            if (value == '\'') {
+                startString(value, false);
+            } else {
+                mState = isLiteral(value) ? UNQUOTED_VALUE : INVALID;
+            }
+            return;
+        }
+        switch (value) {
+            case '-':
+                mState = NUMBER_MINUS;
+                break;
+            case '0':
+                mState = NUMBER_ZERO;
+                break;
+            case 't':
+                startLiteral(LITERAL_TRUE);
+                break;
+            case 'f':
+                startLiteral(LITERAL_FALSE);
+                break;
+            case 'n':
+                startLiteral(LITERAL_NULL);
+                break;
+            default:
+                mState = value >= '1' && value <= '9' ? NUMBER_INTEGER : INVALID;
+                break;
+        }
+    }
+
+    private void startString(byte quote, boolean name) {
+        mQuote = quote;
+        mStringIsName = name;
+        mState = STRING;
+    }
+
+    /**
+     * @return true if the byte is whitespace or, when lenient, opens a comment, which may stand wherever whitespace
+     * does
+     */
+    private boolean skip(byte value) {
+        if (isWhitespace(value)) {
+            return true;
+        }
+        if (!mLenient || (value != '/' && value != '#')) {
+            return false;
+        }
+        mStateAfterComment = mState;
+        mState = value == '#' ? LINE_COMMENT : COMMENT_START;
+        return true;
+    }
+
+    private void startLiteral(byte[] literal) {
+        mLiteral = literal;
+        mLiteralIndex = 1;
+        mState = LITERAL;
+    }
+
+    private boolean endNumber(byte value) {
+        mState = afterValue();
+        return feed(value);
+    }
+
+    private int afterValue() {
+        return mDepth == 0 ? DONE : COMMA_OR_CLOSE;
+    }
+
+    private void open(boolean object) {
+        int word = mDepth >>> 6;
+        if (word == mObjectBits.length) {
+            long[] objectBits = new long[mObjectBits.length << 1];
+            System.arraycopy(mObjectBits, 0, objectBits, 0, mObjectBits.length);
+            mObjectBits = objectBits;
+        }
+        long bit = 1L << mDepth;
+        if (object) {
+            mObjectBits[word] |= bit;
+        } else {
+            mObjectBits[word] &= ~bit;
+        }
+        mDepth++;
+    }
+
+    private void close(boolean object) {
+        if (isInObject() != object) {
+            mState = INVALID;
+            return;
+        }
+        mDepth--;
+        mState = afterValue();
+    }
+
+    private boolean isInObject() {
+        int top = mDepth - 1;
+        return (mObjectBits[top >>> 6] & (1L << top)) != 0;
+    }
+
+    private static boolean isWhitespace(byte value) {
+        return value == ' ' || value == '\n' || value == '\r' || value == '\t';
+    }
+
+    private static boolean isHexDigit(byte value) {
+        return (value >= '0' && value <= '9') || (value >= 'a' && value <= 'f') || (value >= 'A' && value <= 'F');
+    }
+
+    /**
+     * @return whether the byte may be part of an unquoted name or value in lenient syntax
+     */
+    private static boolean isLiteral(byte value) {
+        switch (value) {
+            case '/':
+            case '\\':
+            case ';':
+            case '#':
+            case '=':
+            case '{':
+            case '}':
+            case '[':
+            case ']':
+            case ':':
+            case ',':
+            case ' ':
+            case '\t':
+            case '\f':
+            case '\r':
+            case '\n':
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static boolean isNameByte(byte value) {
+        return (value >= 'a' && value <= 'z') || (value >= 'A' && value <= 'Z') || value == '_' || value == '$' || value < 0;
+    }
+
+    public enum Syntax {
+        /**
+         * Plain json.
+         */
+        Strict,
+        /**
+         * Plain json, but object member names may go without quotes, like {@code {id:1}}.
+         */
+        UnquotedNames,
+        /**
+         * What Gson's lenient parser accepts: single quoted strings, unquoted names and values (NaN included),
+         * {@code //}, {@code #} and block comments, {@code =} or {@code =>} between name and value, {@code ;}
+         * between members and elements, and missing array elements.
+         */
+        Lenient
+    }
+}
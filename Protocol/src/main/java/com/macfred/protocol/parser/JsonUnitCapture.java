@@ -1,11 +1,11 @@
 package com.macfred.protocol.parser;
 
 
-import com.macfred.util.ref.BiRef;
-
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -41,25 +41,70 @@ public class JsonUnitCapture {
         }
     }
 
-    private final byte[] mBuffer;
-    private final int mBufferCapacity;
-    private int mDataStart;
-    private int mDataLength;
+    private static final int WINDOW_SIZE = 4096;
+    private static final int INITIAL_NESTING = 16;
+
+    private final ParserBuffer mBuffer;
+    private final ByteBuffer mBufferWords;
+    private final byte[] mBlock = new byte[JsonStreamFramer.BLOCK_SIZE];
+    private final ByteBuffer mBlockWords = ByteBuffer.wrap(mBlock).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] mWindow = new byte[WINDOW_SIZE];
+    private byte[] mWindowData;
     private int mCurrentScannedLength;
     private List<JsonObject> mJsonCandidatesInScan = new CopyOnWriteArrayList<>();
+    private final Framing mFraming;
+    private final JsonStreamFramer mFramer = new JsonStreamFramer();
+    private JsonSyntaxValidator mValidator = new JsonSyntaxValidator(JsonSyntaxValidator.Syntax.Lenient);
+    private int[] mOpenObjects = new int[INITIAL_NESTING];
+    private int[] mNestedObjects = new int[2 * INITIAL_NESTING];
+    private int mNestedObjectCount;
+    private boolean mBytewise;
+    private int mRecoverAt;
+    private int mRecoveredObjects;
+    private int mRecoveredLength;
+    private PacketBufferPool mPacketPool;
+    private byte[] mCapturedBytes;
+    private PooledPacket mCapturedPacket;
 
     public JsonUnitCapture(String charset, int bufferCapacity) {
+        this(charset, bufferCapacity, Framing.Candidates);
+    }
+
+    public JsonUnitCapture(String charset, int bufferCapacity, Framing framing) {
+        this(charset, new AbsParserBuffer(bufferCapacity), framing);
+    }
+
+    /**
+     * @param buffer where bytes wait to be framed, e.g. a {@link SegmentedParserBuffer} so idle captures don't
+     *               hold their whole capacity
+     */
+    public JsonUnitCapture(String charset, ParserBuffer buffer, Framing framing) {
         mCharset = charset;
-        mBuffer = new byte[bufferCapacity];
-        mBufferCapacity = bufferCapacity;
+        mBuffer = buffer;
+        byte[] array = buffer.array();
+        mBufferWords = array == null ? null : ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+        mFraming = framing;
         reset();
     }
 
     public void reset() {
-        mDataStart = 0;
-        mDataLength = 0;
+        mBuffer.clear();
         mCurrentScannedLength = 0;
         mJsonCandidatesInScan.clear();
+        mFramer.reset();
+        mValidator.reset();
+        mNestedObjectCount = 0;
+        mBytewise = false;
+        mRecoverAt = 0;
+    }
+
+    /**
+     * Syntax units must follow to pass the built-in validation used when no {@link JsonVerifier} is given.
+     * {@link JsonSyntaxValidator.Syntax#Lenient} by default, the same units Gson's lenient parser accepts; stricter
+     * syntax is opt-in.
+     */
+    public void setSyntax(JsonSyntaxValidator.Syntax syntax) {
+        mValidator = new JsonSyntaxValidator(syntax);
     }
 
     public List<byte[]> parse(byte[] data, int start, int length, JsonVerifier verifier) {
@@ -80,27 +125,40 @@ public class JsonUnitCapture {
         return jsonParsed;
     }
 
+    /**
+     * Same as {@link #parse(byte[], int, int, JsonVerifier)} but every unit is copied into a packet of the pool.
+     * The caller owns the packets and must release them; a verifier sees the unit at its offset in the packet array.
+     */
+    public List<PooledPacket> parse(byte[] data, int start, int length, JsonVerifier verifier, PacketBufferPool pool) {
+        List<PooledPacket> jsonParsed = new ArrayList<>();
+        mPacketPool = pool;
+        try {
+            int localStart = start;
+            int localLength = length;
+            while (localLength > 0) {
+                int bytesCopied = copyDataToBuffer(data, localStart, localLength);
+                localStart += bytesCopied;
+                localLength -= bytesCopied;
+                while (bytesCopied > 0 && mCurrentScannedLength < mBuffer.getCachedBytes() && scanUnit(verifier)) {
+                    jsonParsed.add(mCapturedPacket);
+                    mCapturedPacket = null;
+                }
+            }
+        } finally {
+            mPacketPool = null;
+        }
+        return jsonParsed;
+    }
+
     /**
      * @return bytes count copied
      */
     public int copyDataToBuffer(byte[] data, int start, int length) {
-        int capacityRemains = mBufferCapacity - mDataLength;
-        int copy = Math.min(capacityRemains, length);
+        int copy = Math.min(mBuffer.getAvailableSpace(), length);
         if (copy <= 0) {
             return copy;
         }
-        int previousTail = (mDataStart + mDataLength) % mBufferCapacity;
-        int newTail = (previousTail + copy) % mBufferCapacity;
-        if (newTail >= previousTail) {
-            System.arraycopy(data, start, mBuffer, previousTail, copy);
-        } else {
-            int split = mBufferCapacity - previousTail;
-            if (split > 0) {
-                System.arraycopy(data, start, mBuffer, previousTail, split);
-            }
-            System.arraycopy(data, start + split, mBuffer, 0, copy - split);
-        }
-        mDataLength += copy;
+        mBuffer.offer(data, start, copy);
         return copy;
     }
 
@@ -109,7 +167,7 @@ public class JsonUnitCapture {
      */
     public int scanMultipleJsonBuffer(@Nullable JsonVerifier verifier, List<byte[]> container) {
         int count = 0;
-        while (mDataLength > 0 && mCurrentScannedLength < mDataLength) {
+        while (mCurrentScannedLength < mBuffer.getCachedBytes()) {
             byte[] parsedJson = scanSingleJsonBuffer(verifier);
             if (parsedJson != null) {
                 count++;
@@ -125,34 +183,40 @@ public class JsonUnitCapture {
      * @return json captured or null when buffer data end encountered
      */
     public byte[] scanSingleJsonBuffer(@Nullable JsonVerifier verifier) {
-        while (mDataLength > 0 && mCurrentScannedLength < mDataLength) {
+        if (!scanUnit(verifier)) {
+            return null;
+        }
+        byte[] unit = mCapturedBytes;
+        mCapturedBytes = null;
+        return unit;
+    }
+
+    /**
+     * @return whether a unit was captured, into {@link #mCapturedPacket} when a pool is set, into
+     * {@link #mCapturedBytes} otherwise
+     */
+    private boolean scanUnit(@Nullable JsonVerifier verifier) {
+        if (mFraming != Framing.Candidates) {
+            return scanStreaming(verifier);
+        }
+        while (mCurrentScannedLength < mBuffer.getCachedBytes()) {
             int currentScanPosition = mCurrentScannedLength++;
-            byte value = mBuffer[(mDataStart + currentScanPosition) % mBufferCapacity];
+            byte value = byteAt(currentScanPosition);
             for (JsonObject candidate : mJsonCandidatesInScan) {
                 candidate.scan(value, currentScanPosition);
-                BiRef<JsonObject, byte[]> capture = null;
+                JsonObject capture = null;
                 if (verifier == null) {
-                    if (candidate.getStatus() == JsonObjectStatus.Completed && !(candidate instanceof JsonObjectArray)) {
-                        byte[] copy = extractJsonFromBuffer(candidate);
-                        String str = new String(copy, Charset.forName(mCharset));
-                        try {
-                            com.google.gson.JsonParser parser = new com.google.gson.JsonParser();
-                            parser.parse(str);
-                            capture = BiRef.create(candidate, copy);
-                        } catch (Exception e) {
-                            // not a valid json
-                        }
+                    if (candidate.getStatus() == JsonObjectStatus.Completed && !(candidate instanceof JsonObjectArray)
+                            && extractJsonFromBuffer(candidate, null)) {
+                        capture = candidate;
                     }
                 } else {
                     capture = tryCaptureJson(candidate, verifier);
                 }
                 if (capture != null) {
                     mJsonCandidatesInScan.clear();
-                    int trim = capture.getFirst().mTailPosition + 1;
-                    mDataStart = (mDataStart + trim) % mBufferCapacity;
-                    mDataLength -= trim;
-                    mCurrentScannedLength -= trim;
-                    return capture.getSecond();
+                    trim(capture.mTailPosition + 1);
+                    return true;
                 }
             }
             if (value == BRACE_LEFT) {
@@ -162,7 +226,7 @@ public class JsonUnitCapture {
                 mJsonCandidatesInScan.add(candidate);
             }
         }
-        if (mDataLength == mBufferCapacity) {
+        if (mBuffer.getAvailableSpace() == 0) {
             //缓冲区已满，这个未完成的json得抛弃了
             if (!mJsonCandidatesInScan.isEmpty()) {
                 int minTrim = -1;
@@ -180,32 +244,322 @@ public class JsonUnitCapture {
                     }
                 }
                 if (minTrim > 0) {
-                    mDataStart = (mDataStart + minTrim) % mBufferCapacity;
-                    mDataLength -= minTrim;
-                    mCurrentScannedLength -= minTrim;
+                    trim(minTrim);
                     for (JsonObject candidate : mJsonCandidatesInScan) {
                         candidate.trim(minTrim);
                     }
+                } else {
+                    //只剩从头开始的json，整个缓冲区都得抛弃
+                    reset();
                 }
             } else {
                 reset();
             }
         }
-        return null;
+        return false;
     }
 
-    private BiRef<JsonObject, byte[]> tryCaptureJson(JsonObject jsonObject, @Nonnull JsonVerifier jsonVerifier) {
-        if (jsonObject.getStatus() == JsonObjectStatus.Completed) {
-            byte[] copy = extractJsonFromBuffer(jsonObject);
-            if (jsonVerifier.verify(copy, 0, copy.length)) {
-                return BiRef.create(jsonObject, copy);
+    /**
+     * Frames top level objects with {@link JsonStreamFramer}, every cached byte is scanned once, twice at most in
+     * {@link Framing#Bulk} when a unit has to be {@link #recover(int) recovered}. Bytes outside of objects are trimmed
+     * as soon as they are scanned, so an object being framed always starts at position 0.
+     */
+    private boolean scanStreaming(@Nullable JsonVerifier verifier) {
+        boolean incremental = mFraming == Framing.Streaming;
+        units:
+        while (true) {
+            if (mRecoverAt > 0 && captureRecovered(verifier)) {
+                return true;
+            }
+            if (!incremental && !mBytewise && scanBlocks(verifier)) {
+                return true;
+            }
+            boolean tracking = incremental || mBytewise;
+            boolean validating = tracking && verifier == null;
+            while (mCurrentScannedLength < mBuffer.getCachedBytes()) {
+                int windowLength = Math.min(WINDOW_SIZE, mBuffer.getCachedBytes() - mCurrentScannedLength);
+                int index = window(mCurrentScannedLength, windowLength);
+                int windowEnd = index + windowLength;
+                byte[] window = mWindowData;
+                for (; index < windowEnd; index++) {
+                    byte value = window[index];
+                    int position = mCurrentScannedLength++;
+                    int depth = mFramer.getDepth();
+                    switch (mFramer.scan(value)) {
+                        case JsonStreamFramer.START:
+                            trim(position);
+                            mNestedObjectCount = 0;
+                            if (validating) {
+                                mValidator.reset();
+                                mValidator.feed(value);
+                            }
+                            break;
+                        case JsonStreamFramer.INSIDE:
+                            if (validating && !mValidator.feed(value)) {
+                                recover(position);
+                                continue units;
+                            }
+                            if (tracking && mFramer.getDepth() != depth) {
+                                trackNesting(value, position, depth);
+                            }
+                            break;
+                        case JsonStreamFramer.END:
+                            if (validating) {
+                                mValidator.feed(value);
+                            }
+                            if (captureUnit(verifier, mCurrentScannedLength, validating)) {
+                                return true;
+                            }
+                            continue units;
+                        case JsonStreamFramer.BROKEN:
+                            trim(mCurrentScannedLength);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            if (!mFramer.isInObject()) {
+                trim(mCurrentScannedLength);
+                return false;
+            }
+            if (mBuffer.getAvailableSpace() > 0) {
+                return false;
+            }
+            //缓冲区已满，这个未完成的json得抛弃了
+            if (tracking) {
+                recover(mCurrentScannedLength);
+            } else {
+                rescanBytewise();
+            }
+        }
+    }
+
+    /**
+     * Frames whole {@link JsonStreamFramer#BLOCK_SIZE} blocks of the cached bytes, leaving a shorter tail to
+     * {@link #scanStreaming(JsonVerifier)}. Blocks which aren't contiguous in an array backed buffer are copied first.
+     */
+    private boolean scanBlocks(@Nullable JsonVerifier verifier) {
+        while (mBuffer.getCachedBytes() - mCurrentScannedLength >= JsonStreamFramer.BLOCK_SIZE) {
+            int blockStart = mCurrentScannedLength;
+            int index = mBuffer.arrayOffset(blockStart, JsonStreamFramer.BLOCK_SIZE);
+            if (index >= 0) {
+                mFramer.loadBlock(mBufferWords, index);
+            } else {
+                mBuffer.peek(blockStart, JsonStreamFramer.BLOCK_SIZE, mBlock, 0);
+                mFramer.loadBlock(mBlockWords, 0);
+            }
+            int position;
+            while ((position = mFramer.nextInBlock()) >= 0) {
+                mCurrentScannedLength = blockStart + position + 1;
+                switch (mFramer.getBlockEvent()) {
+                    case JsonStreamFramer.START:
+                        trim(blockStart + position);
+                        blockStart = -position;
+                        break;
+                    case JsonStreamFramer.END:
+                        int unitLength = mCurrentScannedLength;
+                        blockStart -= unitLength;
+                        if (captureUnit(verifier, unitLength, false)) {
+                            return true;
+                        }
+                        if (mBytewise) {
+                            return false;
+                        }
+                        break;
+                    default:
+                        blockStart -= mCurrentScannedLength;
+                        trim(mCurrentScannedLength);
+                        break;
+                }
+            }
+            mCurrentScannedLength = blockStart + JsonStreamFramer.BLOCK_SIZE;
+            if (!mFramer.isInObject()) {
+                trim(mCurrentScannedLength);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Notes where the objects nested in the unit being framed start and end, the byte at {@code position} having
+     * changed the nesting from {@code depth}. Only the outermost completed ones are kept, in stream order.
+     */
+    private void trackNesting(byte value, int position, int depth) {
+        if (mFramer.getDepth() > depth) {
+            if (depth == mOpenObjects.length) {
+                mOpenObjects = Arrays.copyOf(mOpenObjects, 2 * depth);
             }
+            mOpenObjects[depth] = value == BRACE_LEFT ? position : -1;
+            return;
+        }
+        int start = mOpenObjects[depth - 1];
+        if (value != BRACE_RIGHT || start < 0) {
+            return;
+        }
+        while (mNestedObjectCount > 0 && mNestedObjects[2 * mNestedObjectCount - 2] > start) {
+            mNestedObjectCount--;
+        }
+        if (2 * mNestedObjectCount == mNestedObjects.length) {
+            mNestedObjects = Arrays.copyOf(mNestedObjects, 2 * mNestedObjects.length);
+        }
+        mNestedObjects[2 * mNestedObjectCount] = start;
+        mNestedObjects[2 * mNestedObjectCount + 1] = position + 1;
+        mNestedObjectCount++;
+    }
+
+    /**
+     * Takes the framed unit at the head of the cached bytes out of the buffer. A unit failing the built-in
+     * validation is {@link #recover(int) recovered} from, one rejected by the verifier is dropped as a whole.
+     *
+     * @param validated whether {@link #mValidator} has been fed the unit already
+     * @return false if the unit didn't pass verification
+     */
+    private boolean captureUnit(@Nullable JsonVerifier verifier, int unitLength, boolean validated) {
+        if (captureRange(verifier, 0, unitLength, validated)) {
+            trim(unitLength);
+            mBytewise = false;
+            return true;
+        }
+        if (verifier != null) {
+            trim(unitLength);
+            mBytewise = false;
+        } else if (validated) {
+            recover(unitLength);
+        } else {
+            rescanBytewise();
+        }
+        return false;
+    }
+
+    /**
+     * Frames the unit at the head of the cached bytes once more, byte by byte, so its nested objects and, without
+     * a verifier, where it turns invalid are known to {@link #recover(int)}. Only {@link Framing#Bulk} needs it.
+     */
+    private void rescanBytewise() {
+        mBytewise = true;
+        mCurrentScannedLength = 0;
+        mFramer.reset();
+        mValidator.reset();
+    }
+
+    /**
+     * Gives up on the unit at the head of the cached bytes, which is invalid from {@code restart} on or can't
+     * complete within the buffer. The objects completed inside it are still captured, each at most once, then its
+     * bytes up to {@code restart} are dropped and framing starts over there, so no byte is scanned again.
+     */
+    private void recover(int restart) {
+        mRecoverAt = restart;
+        mRecoveredObjects = 0;
+        mRecoveredLength = 0;
+        mCurrentScannedLength = 0;
+        mBytewise = false;
+        mFramer.reset();
+        mValidator.reset();
+    }
+
+    /**
+     * @return whether one of the objects completed inside the unit being recovered was captured
+     */
+    private boolean captureRecovered(@Nullable JsonVerifier verifier) {
+        while (mRecoveredObjects < mNestedObjectCount) {
+            int start = mNestedObjects[2 * mRecoveredObjects];
+            int end = mNestedObjects[2 * mRecoveredObjects + 1];
+            mRecoveredObjects++;
+            mBuffer.skip(start - mRecoveredLength);
+            boolean captured = captureRange(verifier, 0, end - start, false);
+            mBuffer.skip(end - start);
+            mRecoveredLength = end;
+            if (captured) {
+                return true;
+            }
+        }
+        mBuffer.skip(mRecoverAt - mRecoveredLength);
+        mRecoverAt = 0;
+        mNestedObjectCount = 0;
+        return false;
+    }
+
+    /**
+     * Copies cached bytes [headPosition, headPosition + jsonBytesCount) out if they pass verification, or the
+     * built-in validation when there is no verifier.
+     */
+    private boolean captureRange(@Nullable JsonVerifier verifier, int headPosition, int jsonBytesCount, boolean validated) {
+        if (verifier == null && !(validated ? mValidator.isComplete() : validateFromBuffer(headPosition, jsonBytesCount))) {
+            return false;
+        }
+        if (mPacketPool == null) {
+            byte[] copy = copyFromBuffer(headPosition, jsonBytesCount);
+            if (verifier != null && !verifier.verify(copy, 0, copy.length)) {
+                return false;
+            }
+            mCapturedBytes = copy;
+            return true;
+        }
+        PooledPacket packet = mPacketPool.acquire(jsonBytesCount);
+        mBuffer.peek(headPosition, jsonBytesCount, packet.array(), packet.offset());
+        if (verifier != null && !verifier.verify(packet.array(), packet.offset(), jsonBytesCount)) {
+            packet.release();
+            return false;
+        }
+        mCapturedPacket = packet;
+        return true;
+    }
+
+    private boolean validateFromBuffer(int start, int length) {
+        mValidator.reset();
+        for (int position = start, end = start + length; position < end; position += WINDOW_SIZE) {
+            int windowLength = Math.min(WINDOW_SIZE, end - position);
+            int index = window(position, windowLength);
+            byte[] window = mWindowData;
+            for (int i = 0; i < windowLength; i++) {
+                if (!mValidator.feed(window[index + i])) {
+                    return false;
+                }
+            }
+        }
+        return mValidator.finish();
+    }
+
+    /**
+     * Makes cached bytes [position, position + length) readable from {@link #mWindowData}, in place when the
+     * buffer is array backed and the range is contiguous, copied into {@link #mWindow} otherwise.
+     *
+     * @return index of the byte at {@code position} in {@link #mWindowData}
+     */
+    private int window(int position, int length) {
+        int arrayOffset = mBuffer.arrayOffset(position, length);
+        if (arrayOffset >= 0) {
+            mWindowData = mBuffer.array();
+            return arrayOffset;
+        }
+        mBuffer.peek(position, length, mWindow, 0);
+        mWindowData = mWindow;
+        return 0;
+    }
+
+    private byte byteAt(int position) {
+        int index = window(position, 1);
+        return mWindowData[index];
+    }
+
+    private void trim(int trim) {
+        if (trim <= 0) {
+            return;
+        }
+        mBuffer.skip(trim);
+        mCurrentScannedLength -= trim;
+    }
+
+    private JsonObject tryCaptureJson(JsonObject jsonObject, @Nonnull JsonVerifier jsonVerifier) {
+        if (jsonObject.getStatus() == JsonObjectStatus.Completed && extractJsonFromBuffer(jsonObject, jsonVerifier)) {
+            return jsonObject;
         }
         for (JsonObject innerJsonObject : jsonObject.mInnerObjects) {
             if (innerJsonObject.getStatus() != JsonObjectStatus.Completed || innerJsonObject instanceof JsonObjectArray) {
                 continue;
             }
-            BiRef<JsonObject, byte[]> capture = tryCaptureJson(innerJsonObject, jsonVerifier);
+            JsonObject capture = tryCaptureJson(innerJsonObject, jsonVerifier);
             if (capture != null) {
                 return capture;
             }
@@ -213,39 +567,36 @@ public class JsonUnitCapture {
         return null;
     }
 
-    private byte[] extractJsonFromBuffer(JsonObject jsonObject) {
+    private boolean extractJsonFromBuffer(JsonObject jsonObject, @Nullable JsonVerifier verifier) {
         JsonObjectStatus jsonObjectStatus = jsonObject.getStatus();
         if (jsonObjectStatus != JsonObjectStatus.Completed) {
             throw new RuntimeException(String.format("Trying to extract json object from buffer which is in status: %s", jsonObjectStatus));
         }
         int headPosition = jsonObject.mHeadPosition;
         int tailPosition = jsonObject.mTailPosition;
-        int jsonBytesCount = tailPosition + 1 - headPosition;
+        return captureRange(verifier, headPosition, tailPosition + 1 - headPosition, false);
+    }
+
+    private byte[] copyFromBuffer(int headPosition, int jsonBytesCount) {
         byte[] copy = new byte[jsonBytesCount];
-        int headInBuffer = (mDataStart + headPosition) % mBufferCapacity;
-        int tailInBuffer = (headInBuffer + jsonBytesCount) % mBufferCapacity;//此处指tail + 1，与JsonObject结构中不同
-        if (tailInBuffer >= headInBuffer) {
-            System.arraycopy(mBuffer, headInBuffer, copy, 0, copy.length);
-        } else {
-            int split = mBufferCapacity - headInBuffer;
-            if (split > 0) {
-                System.arraycopy(mBuffer, headInBuffer, copy, 0, split);
-            }
-            System.arraycopy(mBuffer, (headInBuffer + split) % mBufferCapacity, copy, split, copy.length - split);
-        }
+        mBuffer.peek(headPosition, jsonBytesCount, copy, 0);
         return copy;
     }
 
     public int getBufferCapacity() {
-        return mBufferCapacity;
+        return mBuffer.getBufferSize();
     }
 
     public int getDataLength() {
-        return mDataLength;
+        return mBuffer.getCachedBytes();
     }
 
     public int getRemainingCapacity() {
-        return mBufferCapacity - mDataLength;
+        return mBuffer.getAvailableSpace();
+    }
+
+    public ParserBuffer getBuffer() {
+        return mBuffer;
     }
 
     public String getCharset() {
@@ -331,6 +682,32 @@ public class JsonUnitCapture {
         }
     }
 
+    /**
+     * How object boundaries are found in the cached bytes.
+     */
+    public enum Framing {
+        /**
+         * Tracks a candidate per '{' and hands every completed one, nested ones included, to the verifier.
+         * Braces inside string literals are counted too.
+         */
+        Candidates,
+        /**
+         * Single pass with {@link JsonStreamFramer}, string aware and allocation free per byte. Without a verifier
+         * units are validated by {@link JsonSyntaxValidator} during the same pass. A unit which turns out invalid is
+         * dropped up to the byte which broke it, one which outgrows the buffer as a whole, and framing goes on from
+         * there; objects the unit completed until then are still captured. Only top level objects are handed to the
+         * verifier, one that fails is dropped as a whole.
+         */
+        Streaming,
+        /**
+         * Same units as {@link #Streaming}, but frames 64 bytes at a time from bitmaps of quotes, backslashes and
+         * brackets, with the per byte scan left for tails shorter than a block. Meant for large feeds, validation
+         * without a verifier runs over each completed unit, so an invalid unit which never completes is only given
+         * up on once it fills the buffer.
+         */
+        Bulk
+    }
+
     private enum JsonObjectStatus {
         WaitForStartPosition,
         WaitForFieldToComplete,
@@ -0,0 +1,78 @@
+package com.macfred.protocol.parser;
+
+/**
+ * Header magic search shared by the parser buffers, over positions relative to the oldest cached byte. Buffers
+ * only provide access to their storage, scanning for the first magic byte run by run.
+ */
+final class MagicSearch {
+
+    private MagicSearch() {
+    }
+
+    /**
+     * @return position of the first occurrence of the pattern in cached bytes [from, cachedBytes), or of the first
+     * occurrence cut short by the end of cached bytes, or cached bytes count when neither exists
+     */
+    static int indexOf(ByteAccessor bytes, int cachedBytes, byte[] pattern, int from) {
+        if (from < 0 || from > cachedBytes) {
+            throw new RuntimeException(String.format("Invalid search start:%1d while available range [0,%2d]", from, cachedBytes));
+        }
+        byte first = pattern[0];
+        int position = from;
+        while ((position = bytes.find(first, position, cachedBytes)) < cachedBytes) {
+            if (matches(bytes, cachedBytes, pattern, position)) {
+                return position;
+            }
+            position++;
+        }
+        return cachedBytes;
+    }
+
+    /**
+     * Scans a ring of bytes whose oldest cached byte sits at {@code headIndex}.
+     *
+     * @return position of the first {@code value} in [from, end), end when there is none
+     */
+    static int findInRing(byte[] ring, int headIndex, byte value, int from, int end) {
+        int index = headIndex + from;
+        if (index >= ring.length) {
+            index -= ring.length;
+        }
+        int position = from;
+        while (position < end) {
+            int runEnd = Math.min(ring.length, index + end - position);
+            int i = index;
+            while (i < runEnd && ring[i] != value) {
+                i++;
+            }
+            position += i - index;
+            if (i < runEnd) {
+                return position;
+            }
+            index = 0;
+        }
+        return end;
+    }
+
+    private static boolean matches(ByteAccessor bytes, int cachedBytes, byte[] pattern, int position) {
+        for (int i = 1; i < pattern.length && position + i < cachedBytes; i++) {
+            if (bytes.get(position + i) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cached bytes of a buffer, by position relative to the oldest one.
+     */
+    interface ByteAccessor {
+
+        byte get(int position);
+
+        /**
+         * @return position of the first {@code value} in [from, end), end when there is none
+         */
+        int find(byte value, int from, int end);
+    }
+}
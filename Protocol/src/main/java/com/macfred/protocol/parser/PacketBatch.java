@@ -0,0 +1,89 @@
+package com.macfred.protocol.parser;
+
+/**
+ * Packets captured in one drain step, laid out back to back in a shared backing array. The batch is reused by
+ * the parser once {@link PacketBatchReceiver#onPackets(PacketBatch)} returns.
+ */
+public final class PacketBatch {
+    private final byte[] mBytes;
+    private final int[] mOffsets;
+    private final int[] mLengths;
+    private int mSize;
+    private int mBytesUsed;
+
+    /**
+     * @param maxPackets packets a batch holds at most
+     * @param maxBytes   byte budget of a batch, at least the largest packet size
+     */
+    public PacketBatch(int maxPackets, int maxBytes) {
+        if (maxPackets <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid batch limits: %1d packets, %2d bytes", maxPackets, maxBytes));
+        }
+        mBytes = new byte[maxBytes];
+        mOffsets = new int[maxPackets];
+        mLengths = new int[maxPackets];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return backing array holding every packet of the batch
+     */
+    public byte[] bytes() {
+        return mBytes;
+    }
+
+    public int offset(int index) {
+        checkIndex(index);
+        return mOffsets[index];
+    }
+
+    public int length(int index) {
+        checkIndex(index);
+        return mLengths[index];
+    }
+
+    public int getBytesUsed() {
+        return mBytesUsed;
+    }
+
+    public int getMaxPackets() {
+        return mOffsets.length;
+    }
+
+    public int getMaxBytes() {
+        return mBytes.length;
+    }
+
+    public void clear() {
+        mSize = 0;
+        mBytesUsed = 0;
+    }
+
+    boolean isFull() {
+        return mSize == mOffsets.length;
+    }
+
+    int getRemainingBytes() {
+        return mBytes.length - mBytesUsed;
+    }
+
+    void append(int length) {
+        mOffsets[mSize] = mBytesUsed;
+        mLengths[mSize] = length;
+        mSize++;
+        mBytesUsed += length;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException(String.format("Invalid packet index:%1d while batch size %2d", index, mSize));
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.macfred.protocol.parser;
+
+public interface PacketBatchReceiver {
+
+    /**
+     * @param batch packets captured in one drain step, only valid until this call returns
+     */
+    void onPackets(PacketBatch batch);
+}
@@ -0,0 +1,185 @@
+package com.macfred.protocol.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Storage for captured packets, so parsers don't allocate an array per packet. Requests are rounded up to a power
+ * of two size class; every class carves slabs of {@code slabSize} bytes into slices which are recycled once their
+ * {@link PooledPacket} is released. Packets larger than the largest class, or asked for once {@code maxSlabBytes}
+ * are allocated, get an array of their own and are left to the garbage collector.
+ * <p>
+ * With {@link #setLeakDetection(boolean)} on, every packet handed out is remembered with the stack that acquired
+ * it until it is released, see {@link #checkLeaks()}.
+ */
+public class PacketBufferPool {
+    private static final int UNPOOLED = -1;
+
+    private final int mMinClassShift;
+    private final int mMaxClassSize;
+    private final int mSlabSize;
+    private final long mMaxSlabBytes;
+    private final SizeClass[] mSizeClasses;
+    private final AtomicLong mSlabBytes = new AtomicLong();
+    private final Set<PooledPacket> mOutstandingPackets = Collections.newSetFromMap(new ConcurrentHashMap<PooledPacket, Boolean>());
+    private volatile boolean mLeakDetection;
+
+    /**
+     * Classes from 64 bytes to 64 KB on 256 KB slabs, at most 64 MB of slabs.
+     */
+    public PacketBufferPool() {
+        this(64, 64 * 1024, 256 * 1024, 64L * 1024 * 1024);
+    }
+
+    /**
+     * @param minClassSize smallest slice, rounded up to a power of two
+     * @param maxClassSize largest slice, rounded up to a power of two
+     * @param slabSize     bytes allocated at once for a class, raised to the class size if lower
+     * @param maxSlabBytes slab bytes allocated at most over all classes
+     */
+    public PacketBufferPool(int minClassSize, int maxClassSize, int slabSize, long maxSlabBytes) {
+        if (minClassSize <= 0 || maxClassSize < minClassSize || maxClassSize > 1 << 30 || slabSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid size classes [%1d,%2d] or slab size %3d", minClassSize, maxClassSize, slabSize));
+        }
+        mMinClassShift = ceilLog2(minClassSize);
+        int maxClassShift = ceilLog2(maxClassSize);
+        mMaxClassSize = 1 << maxClassShift;
+        mSlabSize = slabSize;
+        mMaxSlabBytes = maxSlabBytes;
+        mSizeClasses = new SizeClass[maxClassShift - mMinClassShift + 1];
+        for (int i = 0; i < mSizeClasses.length; i++) {
+            mSizeClasses[i] = new SizeClass(1 << (mMinClassShift + i));
+        }
+    }
+
+    /**
+     * @return packet of {@code length} bytes holding a single reference, its content is undefined
+     */
+    public PooledPacket acquire(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException(String.format("Invalid packet length:%1d", length));
+        }
+        PooledPacket packet = null;
+        if (length <= mMaxClassSize) {
+            int sizeClass = length <= 1 << mMinClassShift ? 0 : ceilLog2(length) - mMinClassShift;
+            packet = mSizeClasses[sizeClass].acquire(sizeClass);
+        }
+        if (packet == null) {
+            packet = new PooledPacket(this, UNPOOLED, new byte[length], 0, length);
+        }
+        packet.open(length);
+        if (mLeakDetection) {
+            packet.mAcquireTrace = new Throwable("Packet acquired here");
+            mOutstandingPackets.add(packet);
+        }
+        return packet;
+    }
+
+    void recycle(PooledPacket packet) {
+        if (packet.mAcquireTrace != null) {
+            packet.mAcquireTrace = null;
+            mOutstandingPackets.remove(packet);
+        }
+        int sizeClass = packet.getSizeClass();
+        if (sizeClass != UNPOOLED) {
+            mSizeClasses[sizeClass].recycle(packet);
+        }
+    }
+
+    /**
+     * Starts or stops remembering unreleased packets, costs a stack trace per packet so it is meant for tests.
+     * Packets acquired while detection was off are never reported.
+     */
+    public void setLeakDetection(boolean leakDetection) {
+        mLeakDetection = leakDetection;
+    }
+
+    /**
+     * @return packets acquired with leak detection on and not released yet
+     */
+    public int getOutstandingPackets() {
+        return mOutstandingPackets.size();
+    }
+
+    /**
+     * @throws IllegalStateException if packets acquired with leak detection on are still unreleased, caused by
+     *                               the acquiring stack of one of them
+     */
+    public void checkLeaks() {
+        List<PooledPacket> leaked = new ArrayList<>(mOutstandingPackets);
+        if (leaked.isEmpty()) {
+            return;
+        }
+        throw new IllegalStateException(String.format("%1d pooled packets never released", leaked.size()), leaked.get(0).mAcquireTrace);
+    }
+
+    public long getSlabBytes() {
+        return mSlabBytes.get();
+    }
+
+    private boolean reserveSlab(int slabBytes) {
+        for (; ; ) {
+            long allocated = mSlabBytes.get();
+            if (allocated + slabBytes > mMaxSlabBytes) {
+                return false;
+            }
+            if (mSlabBytes.compareAndSet(allocated, allocated + slabBytes)) {
+                return true;
+            }
+        }
+    }
+
+    private static int ceilLog2(int value) {
+        return value <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(value - 1);
+    }
+
+    /**
+     * Free slices of one size, kept in an array stack so recycling allocates nothing.
+     */
+    private final class SizeClass {
+        private final int mSliceSize;
+        private PooledPacket[] mFree = new PooledPacket[0];
+        private int mFreeCount;
+        private int mSliceCount;
+
+        private SizeClass(int sliceSize) {
+            mSliceSize = sliceSize;
+        }
+
+        private synchronized PooledPacket acquire(int sizeClass) {
+            if (mFreeCount == 0 && !addSlab(sizeClass)) {
+                return null;
+            }
+            PooledPacket packet = mFree[--mFreeCount];
+            mFree[mFreeCount] = null;
+            return packet;
+        }
+
+        private synchronized void recycle(PooledPacket packet) {
+            mFree[mFreeCount++] = packet;
+        }
+
+        private boolean addSlab(int sizeClass) {
+            int slabBytes = Math.max(mSlabSize / mSliceSize, 1) * mSliceSize;
+            if (!reserveSlab(slabBytes)) {
+                return false;
+            }
+            byte[] slab = new byte[slabBytes];
+            int slices = slabBytes / mSliceSize;
+            mSliceCount += slices;
+            if (mFree.length < mSliceCount) {
+                PooledPacket[] free = new PooledPacket[mSliceCount];
+                System.arraycopy(mFree, 0, free, 0, mFreeCount);
+                mFree = free;
+            }
+            for (int i = 0; i < slices; i++) {
+                mFree[mFreeCount++] = new PooledPacket(PacketBufferPool.this, sizeClass, slab, i * mSliceSize, mSliceSize);
+            }
+            return true;
+        }
+    }
+}
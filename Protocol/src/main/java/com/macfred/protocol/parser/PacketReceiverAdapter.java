@@ -0,0 +1,45 @@
+package com.macfred.protocol.parser;
+
+/**
+ * Feeds every packet of a batch to a single packet {@link PacketReceiver}.
+ */
+public class PacketReceiverAdapter implements PacketBatchReceiver {
+    private final PacketReceiver mPacketReceiver;
+    private final boolean mCopyPackets;
+
+    /**
+     * Hands out every packet in an array of its own, as single packet receivers always got.
+     */
+    public PacketReceiverAdapter(PacketReceiver packetReceiver) {
+        this(packetReceiver, true);
+    }
+
+    /**
+     * @param copyPackets false to pass the batch's backing array to receivers which don't keep the bytes after
+     *                    {@link PacketReceiver#onNewPacket(byte[], int, int)} returns
+     */
+    public PacketReceiverAdapter(PacketReceiver packetReceiver, boolean copyPackets) {
+        mPacketReceiver = packetReceiver;
+        mCopyPackets = copyPackets;
+    }
+
+    @Override
+    public void onPackets(PacketBatch batch) {
+        byte[] bytes = batch.bytes();
+        for (int i = 0, size = batch.size(); i < size; i++) {
+            int offset = batch.offset(i);
+            int length = batch.length(i);
+            if (mCopyPackets) {
+                byte[] packet = new byte[length];
+                System.arraycopy(bytes, offset, packet, 0, length);
+                mPacketReceiver.onNewPacket(packet, 0, length);
+            } else {
+                mPacketReceiver.onNewPacket(bytes, offset, length);
+            }
+        }
+    }
+
+    public PacketReceiver getPacketReceiver() {
+        return mPacketReceiver;
+    }
+}
@@ -0,0 +1,108 @@
+package com.macfred.protocol.parser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view of a packet still sitting in the parser buffer. A packet which wraps around the end of
+ * the ring is exposed as two segments, {@link #head()} followed by {@link #tail()}.
+ * <p>
+ * A view is only valid until the receiver callback returns, the parser reuses it for the next packet.
+ */
+public final class PacketView {
+    private ByteBuffer mSource;
+    private ByteBuffer mStorage;
+    private ByteBuffer mHead;
+    private ByteBuffer mTail;
+    private ByteBuffer mCopier;
+    private int mHeadStart;
+    private int mHeadLength;
+    private int mTailLength;
+
+    PacketView(ByteBuffer storage) {
+        bind(storage);
+    }
+
+    /**
+     * Moves the view onto other storage, for buffers whose packets don't all live in the same place. Binding the
+     * storage already bound costs nothing.
+     */
+    void bind(ByteBuffer storage) {
+        if (storage == mSource) {
+            return;
+        }
+        mSource = storage;
+        mStorage = storage.asReadOnlyBuffer();
+        mHead = storage.asReadOnlyBuffer();
+        mTail = storage.asReadOnlyBuffer();
+        mCopier = storage.asReadOnlyBuffer();
+    }
+
+    void set(int headStart, int headLength, int tailLength) {
+        mHeadStart = headStart;
+        mHeadLength = headLength;
+        mTailLength = tailLength;
+        mHead.limit(headStart + headLength).position(headStart);
+        mTail.limit(tailLength).position(0);
+    }
+
+    public int length() {
+        return mHeadLength + mTailLength;
+    }
+
+    public boolean isWrapped() {
+        return mTailLength > 0;
+    }
+
+    public byte get(int index) {
+        if (index < 0 || index >= mHeadLength + mTailLength) {
+            throw new IndexOutOfBoundsException(String.format("Invalid packet index:%1d while packet length %2d", index, mHeadLength + mTailLength));
+        }
+        if (index < mHeadLength) {
+            return mStorage.get(mHeadStart + index);
+        }
+        return mStorage.get(index - mHeadLength);
+    }
+
+    /**
+     * @return first segment of the packet, positioned at its first byte
+     */
+    public ByteBuffer head() {
+        return mHead;
+    }
+
+    /**
+     * @return wrapped part of the packet, empty when the packet is contiguous
+     */
+    public ByteBuffer tail() {
+        return mTail;
+    }
+
+    public void copyTo(byte[] container, int start) {
+        copyTo(0, length(), container, start);
+    }
+
+    public void copyTo(int viewStart, int length, byte[] container, int start) {
+        if (viewStart < 0 || length < 0 || viewStart + length > mHeadLength + mTailLength) {
+            throw new IndexOutOfBoundsException(String.format("Invalid packet range:[%1d,%2d) while packet length %3d", viewStart, viewStart + length, mHeadLength + mTailLength));
+        }
+        ByteBuffer storage = mCopier;
+        if (viewStart < mHeadLength) {
+            int headCopy = Math.min(length, mHeadLength - viewStart);
+            storage.limit(mHeadStart + viewStart + headCopy).position(mHeadStart + viewStart);
+            storage.get(container, start, headCopy);
+            start += headCopy;
+            length -= headCopy;
+            viewStart = mHeadLength;
+        }
+        if (length > 0) {
+            storage.limit(viewStart - mHeadLength + length).position(viewStart - mHeadLength);
+            storage.get(container, start, length);
+        }
+    }
+
+    public byte[] toByteArray() {
+        byte[] copy = new byte[length()];
+        copyTo(copy, 0);
+        return copy;
+    }
+}
@@ -0,0 +1,9 @@
+package com.macfred.protocol.parser;
+
+public interface PacketViewReceiver {
+
+    /**
+     * @param packet view into the parser buffer, only valid until this call returns
+     */
+    void onNewPacket(PacketView packet);
+}
@@ -0,0 +1,57 @@
+package com.macfred.protocol.parser;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Ring of cached bytes the parsers work on. Positions passed to {@link #peek}, {@link #view} and friends
+ * are relative to the oldest cached byte.
+ */
+public interface ParserBuffer {
+
+    int getBufferSize();
+
+    int getCachedBytes();
+
+    int getAvailableSpace();
+
+    void offer(byte[] data, int start, int length);
+
+    /**
+     * Reads from the channel straight into the free region of the ring.
+     *
+     * @return bytes count read, 0 when the buffer is full, -1 on end of stream
+     */
+    int readFrom(ReadableByteChannel channel) throws IOException;
+
+    void consume(int consumption, byte[] container, int start);
+
+    void peek(int peekStart, int peek, byte[] container, int start);
+
+    void view(int viewStart, int view, PacketView container);
+
+    PacketView createView();
+
+    /**
+     * Searches cached bytes for the pattern, starting at {@code from}.
+     *
+     * @return position of the first occurrence, or of the first occurrence cut short by the end of cached bytes,
+     * or cached bytes count when neither exists
+     */
+    int indexOf(byte[] pattern, int from);
+
+    void skip(int skip);
+
+    void clear();
+
+    /**
+     * @return on-heap storage of the ring or null if the buffer is not array backed
+     */
+    byte[] array();
+
+    /**
+     * @return index in {@link #array()} of cached bytes [rangeStart, rangeStart + range) or -1 when the range wraps
+     * or the buffer is not array backed
+     */
+    int arrayOffset(int rangeStart, int range);
+}
@@ -0,0 +1,340 @@
+package com.macfred.protocol.parser;
+
+import com.macfred.protocol.PacketDescriptor;
+import com.macfred.protocol.metrics.AggregateParserMetrics;
+import com.macfred.protocol.metrics.ParserMetrics;
+import com.macfred.protocol.metrics.ParserMetricsMBean;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parses many byte streams on a fixed set of worker shards instead of one thread per {@link AdvancedParser}.
+ * <p>
+ * Every stream is pinned to a home shard which runs it to completion whenever bytes arrive, idle shards steal
+ * streams from busy ones. A stream is never parsed by two shards at once, so its {@link PacketReceiver} sees
+ * packets one at a time and in order. Each stream must be fed by a single producer thread.
+ * <p>
+ * A receiver throwing doesn't take its shard down: the exception goes to the shard thread's uncaught exception
+ * handler and the stream carries on with the next packet.
+ */
+public class ParserGroup {
+    private static final int DEFAULT_PACKETS_PER_VISIT = 64;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Shard[] mShards;
+    private final List<Stream> mStreams = new CopyOnWriteArrayList<>();
+    private final ParserMetrics mClosedStreamsMetrics = new ParserMetrics();
+    private final List<ParserMetricsMBean> mStreamsMetrics = new CopyOnWriteArrayList<ParserMetricsMBean>(Collections.singletonList(mClosedStreamsMetrics));
+    private final AggregateParserMetrics mMetrics = new AggregateParserMetrics(mStreamsMetrics);
+    private final AtomicInteger mNextHomeShard = new AtomicInteger();
+    private final AtomicInteger mIdleShards = new AtomicInteger();
+    private final int mPacketsPerVisit;
+    private volatile boolean mRunning;
+
+    public ParserGroup() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParserGroup(int shardCount) {
+        this(shardCount, DEFAULT_PACKETS_PER_VISIT);
+    }
+
+    /**
+     * @param packetsPerVisit packets a shard delivers from one stream before moving on to the next ready one
+     */
+    public ParserGroup(int shardCount, int packetsPerVisit) {
+        if (shardCount <= 0 || packetsPerVisit <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid shards %1d or packets per visit %2d", shardCount, packetsPerVisit));
+        }
+        mShards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            mShards[i] = new Shard(i);
+        }
+        mPacketsPerVisit = packetsPerVisit;
+    }
+
+    public Stream openStream(int bufferSize, PacketDescriptor packetDescriptor, PacketReceiver packetReceiver) {
+        Shard homeShard = mShards[(mNextHomeShard.getAndIncrement() & Integer.MAX_VALUE) % mShards.length];
+        Stream stream = new Stream(homeShard, new SpscParserBuffer(bufferSize), packetDescriptor, packetReceiver);
+        mStreams.add(stream);
+        mStreamsMetrics.add(stream.mMetrics);
+        return stream;
+    }
+
+    /**
+     * @return totals over all streams, closed ones included
+     */
+    public AggregateParserMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public List<Stream> getStreams() {
+        return Collections.unmodifiableList(mStreams);
+    }
+
+    public int getShardCount() {
+        return mShards.length;
+    }
+
+    public synchronized void start() {
+        if (mRunning) {
+            throw new IllegalStateException("Parser group already running");
+        }
+        mRunning = true;
+        for (Shard shard : mShards) {
+            Thread thread = new Thread(shard, "ParserGroup-shard-" + shard.mIndex);
+            thread.setDaemon(true);
+            shard.mThread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops all shards and waits for them to finish the stream they are running. Bytes not parsed yet stay in the
+     * stream buffers.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        List<Thread> threads = new ArrayList<>();
+        for (Shard shard : mShards) {
+            Thread thread = shard.mThread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+                threads.add(thread);
+            }
+        }
+        for (Thread thread : threads) {
+            if (thread != Thread.currentThread()) {
+                thread.join();
+            }
+        }
+        for (Shard shard : mShards) {
+            shard.mThread = null;
+        }
+    }
+
+    private void schedule(Stream stream, Shard shard) {
+        shard.mRunQueue.offerLast(stream);
+        if (shard.mParked) {
+            LockSupport.unpark(shard.mThread);
+        } else if (mIdleShards.get() > 0) {
+            for (Shard idleShard : mShards) {
+                if (idleShard.mParked) {
+                    LockSupport.unpark(idleShard.mThread);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void reportFailure(Throwable e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    private Stream steal(Shard thief) {
+        int shardCount = mShards.length;
+        for (int i = 1; i < shardCount; i++) {
+            Stream stream = mShards[(thief.mIndex + i) % shardCount].mRunQueue.pollLast();
+            if (stream != null) {
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    private class Shard implements Runnable {
+        private final int mIndex;
+        private final ConcurrentLinkedDeque<Stream> mRunQueue = new ConcurrentLinkedDeque<>();
+        private final AbsParser.ProcessReport mProcessReport = new AbsParser.ProcessReport();
+        private volatile Thread mThread;
+        private volatile boolean mParked;
+
+        private Shard(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public void run() {
+            while (mRunning) {
+                Stream stream = mRunQueue.pollFirst();
+                if (stream == null) {
+                    stream = steal(this);
+                }
+                if (stream != null) {
+                    try {
+                        stream.drain(this);
+                    } catch (Throwable e) {
+                        reportFailure(e);
+                    }
+                    continue;
+                }
+                mIdleShards.incrementAndGet();
+                mParked = true;
+                if (mRunning && mRunQueue.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                mParked = false;
+                mIdleShards.decrementAndGet();
+            }
+        }
+    }
+
+    public class Stream {
+        private final Shard mHomeShard;
+        private final SpscParserBuffer mBuffer;
+        private final AbsParser mAbsParser;
+        private final PacketReceiver mPacketReceiver;
+        private final AtomicBoolean mScheduled = new AtomicBoolean();
+        private final AtomicLong mReceivedBytes = new AtomicLong();
+        private final ParserMetrics mMetrics = new ParserMetrics();
+        private final SpscCongestion mSpscCongestion;
+        private volatile AdvancedParser.CongestionPolicy mCongestionPolicy = AdvancedParser.CongestionPolicy.BlockAndWait;
+        private volatile boolean mClosed;
+
+        private Stream(Shard homeShard, SpscParserBuffer buffer, PacketDescriptor packetDescriptor, PacketReceiver packetReceiver) {
+            mHomeShard = homeShard;
+            mBuffer = buffer;
+            mAbsParser = new AbsParser(buffer, packetDescriptor);
+            mPacketReceiver = packetReceiver;
+            mSpscCongestion = new SpscCongestion(buffer, mMetrics, new SpscCongestion.Consumer() {
+                @Override
+                public boolean isRunning() {
+                    return mRunning;
+                }
+
+                @Override
+                public boolean isClosed() {
+                    return mClosed;
+                }
+
+                @Override
+                public void requestStep() {
+                    if (mScheduled.compareAndSet(false, true)) {
+                        schedule(Stream.this, mHomeShard);
+                    }
+                }
+
+                @Override
+                public void onOffered(int length) {
+                    onReceived(length);
+                }
+            });
+        }
+
+        public void setCongestionPolicy(AdvancedParser.CongestionPolicy congestionPolicy) {
+            mCongestionPolicy = congestionPolicy;
+        }
+
+        /**
+         * Buffers the bytes for the stream's shard, applying the congestion policy when the buffer is full.
+         */
+        public void receive(byte[] data, int start, int length) {
+            mSpscCongestion.receive(data, start, length, mCongestionPolicy);
+        }
+
+        /**
+         * Reads from the channel straight into the stream buffer without blocking on a full buffer.
+         *
+         * @return bytes count read, 0 when the buffer is full, -1 on end of stream
+         */
+        public int receive(ReadableByteChannel channel) throws IOException {
+            int read = mBuffer.readFrom(channel);
+            if (read > 0) {
+                onReceived(read);
+            }
+            return read;
+        }
+
+        public AbsParser getParser() {
+            return mAbsParser;
+        }
+
+        public ParserMetrics getMetrics() {
+            return mMetrics;
+        }
+
+        /**
+         * Detaches the stream from the group, bytes still buffered are dropped.
+         */
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mStreams.remove(this);
+            mClosedStreamsMetrics.add(mMetrics);
+            mStreamsMetrics.remove(mMetrics);
+            mSpscCongestion.wakeProducer();
+        }
+
+        public boolean isClosed() {
+            return mClosed;
+        }
+
+        private void onReceived(int length) {
+            mReceivedBytes.set(mReceivedBytes.get() + length);
+            mMetrics.recordOccupancy(mBuffer.getCachedBytes());
+            if (mScheduled.compareAndSet(false, true)) {
+                schedule(this, mHomeShard);
+            }
+        }
+
+        private void drain(Shard shard) {
+            if (mClosed) {
+                return;
+            }
+            long receivedBytes = mReceivedBytes.get();
+            AbsParser.ProcessReport report = shard.mProcessReport;
+            int packets = 0;
+            boolean progress = false;
+            boolean visited = false;
+            try {
+                progress = mSpscCongestion.discardOldest(mAbsParser) > 0;
+                while (packets < mPacketsPerVisit) {
+                    mAbsParser.tryParsePackets(mPacketsPerVisit - packets, report);
+                    mMetrics.record(report);
+                    progress |= report.consumedBytes + report.wastedBytes > 0;
+                    if (report.packetsFound == 0) {
+                        break;
+                    }
+                    packets += report.packetsFound;
+                    if (mPacketReceiver != null) {
+                        for (byte[] packet : report.newPacketsFound) {
+                            try {
+                                mPacketReceiver.onNewPacket(packet, 0, packet.length);
+                            } catch (RuntimeException e) {
+                                reportFailure(e);
+                            }
+                        }
+                    }
+                }
+                visited = true;
+            } finally {
+                report.reset();
+                if (progress) {
+                    mSpscCongestion.wakeProducer();
+                }
+                mScheduled.set(false);
+                boolean pending = !visited || packets >= mPacketsPerVisit || mReceivedBytes.get() != receivedBytes || mSpscCongestion.isDropPending();
+                if (pending && !mClosed && mScheduled.compareAndSet(false, true)) {
+                    schedule(this, shard);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.macfred.protocol.parser;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Packet stored in a slice of a {@link PacketBufferPool} slab. Whoever receives a packet owns one reference and
+ * must {@link #release()} it when done; {@link #retain()} adds a reference for every other holder. The slice goes
+ * back to the pool when the last reference is released, the packet must not be touched after that.
+ * <p>
+ * Bytes live at [{@link #offset()}, {@link #offset()} + {@link #length()}) of {@link #array()}, which is shared
+ * with other packets.
+ */
+public final class PooledPacket {
+    private static final AtomicIntegerFieldUpdater<PooledPacket> REF_COUNT = AtomicIntegerFieldUpdater.newUpdater(PooledPacket.class, "mRefCount");
+
+    private final PacketBufferPool mPool;
+    private final int mSizeClass;
+    private final byte[] mArray;
+    private final int mOffset;
+    private final int mCapacity;
+    private int mLength;
+    private volatile int mRefCount;
+    Throwable mAcquireTrace;
+
+    PooledPacket(PacketBufferPool pool, int sizeClass, byte[] array, int offset, int capacity) {
+        mPool = pool;
+        mSizeClass = sizeClass;
+        mArray = array;
+        mOffset = offset;
+        mCapacity = capacity;
+    }
+
+    void open(int length) {
+        mLength = length;
+        mRefCount = 1;
+    }
+
+    int getSizeClass() {
+        return mSizeClass;
+    }
+
+    public byte[] array() {
+        return mArray;
+    }
+
+    public int offset() {
+        return mOffset;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public byte get(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException(String.format("Invalid packet index:%1d while packet length %2d", index, mLength));
+        }
+        return mArray[mOffset + index];
+    }
+
+    public void copyTo(byte[] container, int start) {
+        System.arraycopy(mArray, mOffset, container, start, mLength);
+    }
+
+    public byte[] toByteArray() {
+        byte[] copy = new byte[mLength];
+        System.arraycopy(mArray, mOffset, copy, 0, mLength);
+        return copy;
+    }
+
+    public int refCount() {
+        return mRefCount;
+    }
+
+    public PooledPacket retain() {
+        for (; ; ) {
+            int refCount = mRefCount;
+            if (refCount <= 0) {
+                throw new IllegalStateException("Retaining a packet already released");
+            }
+            if (REF_COUNT.compareAndSet(this, refCount, refCount + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * @return true when this was the last reference and the packet went back to the pool
+     */
+    public boolean release() {
+        for (; ; ) {
+            int refCount = mRefCount;
+            if (refCount <= 0) {
+                throw new IllegalStateException("Releasing a packet already released");
+            }
+            if (REF_COUNT.compareAndSet(this, refCount, refCount - 1)) {
+                if (refCount == 1) {
+                    mPool.recycle(this);
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.macfred.protocol.parser;
+
+/**
+ * Feeds every packet of a batch to a {@link PooledPacketReceiver}, each copied into a packet of the pool.
+ */
+public class PooledPacketAdapter implements PacketBatchReceiver {
+    private final PacketBufferPool mPacketBufferPool;
+    private final PooledPacketReceiver mPooledPacketReceiver;
+
+    public PooledPacketAdapter(PacketBufferPool packetBufferPool, PooledPacketReceiver pooledPacketReceiver) {
+        mPacketBufferPool = packetBufferPool;
+        mPooledPacketReceiver = pooledPacketReceiver;
+    }
+
+    @Override
+    public void onPackets(PacketBatch batch) {
+        byte[] bytes = batch.bytes();
+        for (int i = 0, size = batch.size(); i < size; i++) {
+            int length = batch.length(i);
+            PooledPacket packet = mPacketBufferPool.acquire(length);
+            System.arraycopy(bytes, batch.offset(i), packet.array(), packet.offset(), length);
+            mPooledPacketReceiver.onNewPacket(packet);
+        }
+    }
+
+    public PooledPacketReceiver getPooledPacketReceiver() {
+        return mPooledPacketReceiver;
+    }
+}
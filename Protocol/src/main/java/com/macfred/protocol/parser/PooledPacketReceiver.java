@@ -0,0 +1,9 @@
+package com.macfred.protocol.parser;
+
+public interface PooledPacketReceiver {
+
+    /**
+     * @param packet owned by the receiver, which must {@link PooledPacket#release()} it once done with it
+     */
+    void onNewPacket(PooledPacket packet);
+}
@@ -0,0 +1,277 @@
+package com.macfred.protocol.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Parser buffer made of chunks taken from a {@link ChunkPool} as bytes arrive, up to {@code ceiling} cached bytes.
+ * Chunks are handed back to the pool as soon as their bytes are skipped, so an idle buffer holds a single chunk
+ * whatever its ceiling. Not array backed: packets lying in one chunk are viewed in place, packets spanning chunks
+ * are copied into a scratch array first.
+ */
+public class SegmentedParserBuffer implements ParserBuffer {
+    private final ChunkPool mChunkPool;
+    private final int mChunkSize;
+    private final int mCeiling;
+    private final byte[][] mChunks;
+    private final ByteBuffer[] mChunkBuffers;
+    private int mChunkCount = 0;
+    private int mHead = 0;
+    private int mCachedBytes = 0;
+    private byte[] mScratch = new byte[0];
+    private ByteBuffer mScratchBuffer = ByteBuffer.wrap(mScratch);
+    private final MagicSearch.ByteAccessor mCachedBytesAccessor = new MagicSearch.ByteAccessor() {
+        @Override
+        public byte get(int position) {
+            int index = mHead + position;
+            return mChunks[index / mChunkSize][index % mChunkSize];
+        }
+
+        @Override
+        public int find(byte value, int from, int end) {
+            int position = from;
+            while (position < end) {
+                int index = mHead + position;
+                int chunkIndex = index / mChunkSize;
+                byte[] chunk = mChunks[chunkIndex];
+                int i = index - chunkIndex * mChunkSize;
+                int runStart = i;
+                int runEnd = Math.min(mChunkSize, i + end - position);
+                while (i < runEnd && chunk[i] != value) {
+                    i++;
+                }
+                position += i - runStart;
+                if (i < runEnd) {
+                    return position;
+                }
+            }
+            return end;
+        }
+    };
+
+    public SegmentedParserBuffer(int ceiling) {
+        this(ChunkPool.getDefault(), ceiling);
+    }
+
+    public SegmentedParserBuffer(ChunkPool chunkPool, int ceiling) {
+        mChunkPool = chunkPool;
+        mChunkSize = chunkPool.getChunkSize();
+        mCeiling = ceiling;
+        int maxChunks = (ceiling + mChunkSize - 1) / mChunkSize + 1;
+        mChunks = new byte[maxChunks][];
+        mChunkBuffers = new ByteBuffer[maxChunks];
+    }
+
+    /**
+     * @return the ceiling, the most bytes this buffer will ever cache
+     */
+    @Override
+    public int getBufferSize() {
+        return mCeiling;
+    }
+
+    @Override
+    public int getCachedBytes() {
+        return mCachedBytes;
+    }
+
+    @Override
+    public int getAvailableSpace() {
+        return mCeiling - mCachedBytes;
+    }
+
+    /**
+     * @return bytes currently held in chunks, cached or not
+     */
+    public int getAllocatedBytes() {
+        return mChunkCount * mChunkSize;
+    }
+
+    @Override
+    public void offer(byte[] data, int start, int length) {
+        int availableSpace = mCeiling - mCachedBytes;
+        if (availableSpace < length) {
+            throw new RuntimeException(String.format("Parser buffer overflow! Buffer size %1d,available space%2d,receive %3d", mCeiling, availableSpace, length));
+        }
+        while (length > 0) {
+            int end = mHead + mCachedBytes;
+            int chunkIndex = end / mChunkSize;
+            int chunkOffset = end - chunkIndex * mChunkSize;
+            if (chunkIndex == mChunkCount) {
+                addChunk();
+            }
+            int copy = Math.min(mChunkSize - chunkOffset, length);
+            System.arraycopy(data, start, mChunks[chunkIndex], chunkOffset, copy);
+            start += copy;
+            length -= copy;
+            mCachedBytes += copy;
+        }
+    }
+
+    /**
+     * Reads into the free part of the last chunk, taking a new chunk from the pool when it is full.
+     */
+    @Override
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        int availableSpace = mCeiling - mCachedBytes;
+        if (availableSpace == 0) {
+            return 0;
+        }
+        int end = mHead + mCachedBytes;
+        int chunkIndex = end / mChunkSize;
+        int chunkOffset = end - chunkIndex * mChunkSize;
+        if (chunkIndex == mChunkCount) {
+            addChunk();
+        }
+        ByteBuffer freeRegion = mChunkBuffers[chunkIndex];
+        freeRegion.limit(chunkOffset + Math.min(mChunkSize - chunkOffset, availableSpace)).position(chunkOffset);
+        int read = channel.read(freeRegion);
+        if (read > 0) {
+            mCachedBytes += read;
+        }
+        return read;
+    }
+
+    @Override
+    public void consume(int consumption, byte[] container, int start) {
+        if (consumption < 0 || consumption > mCachedBytes) {
+            throw new RuntimeException(String.format("Invalid bytes consumption:%1d while available range [0,%2d]", consumption, mCachedBytes));
+        }
+        copy(0, consumption, container, start);
+        skip(consumption);
+    }
+
+    @Override
+    public void peek(int peekStart, int peek, byte[] container, int start) {
+        if (peekStart < 0 || peekStart + peek > mCachedBytes) {
+            throw new RuntimeException(String.format("Invalid bytes peek:[%1d,%2d) while available range [0,%3d)", peekStart, peekStart + peek, mCachedBytes));
+        }
+        copy(peekStart, peek, container, start);
+    }
+
+    /**
+     * Points the view at cached bytes [viewStart, viewStart + view), in place when they lie in one chunk, in a
+     * scratch copy otherwise.
+     */
+    @Override
+    public void view(int viewStart, int view, PacketView container) {
+        if (viewStart < 0 || view < 0 || viewStart + view > mCachedBytes) {
+            throw new RuntimeException(String.format("Invalid bytes view:[%1d,%2d) while available range [0,%3d)", viewStart, viewStart + view, mCachedBytes));
+        }
+        int chunkOffset = chunkOffset(viewStart, view);
+        if (chunkOffset >= 0 && view > 0) {
+            container.bind(mChunkBuffers[(mHead + viewStart) / mChunkSize]);
+            container.set(chunkOffset, view, 0);
+            return;
+        }
+        if (mScratch.length < view) {
+            mScratch = new byte[Math.max(view, mScratch.length * 2)];
+            mScratchBuffer = ByteBuffer.wrap(mScratch);
+        }
+        copy(viewStart, view, mScratch, 0);
+        container.bind(mScratchBuffer);
+        container.set(0, view, 0);
+    }
+
+    @Override
+    public PacketView createView() {
+        return new PacketView(mScratchBuffer);
+    }
+
+    @Override
+    public int indexOf(byte[] pattern, int from) {
+        return MagicSearch.indexOf(mCachedBytesAccessor, mCachedBytes, pattern, from);
+    }
+
+    /**
+     * Skips cached bytes, returning chunks left without any to the pool.
+     */
+    @Override
+    public void skip(int skip) {
+        if (skip < 0 || skip > mCachedBytes) {
+            throw new RuntimeException(String.format("Invalid bytes skip:%1d while available range [0,%2d]", skip, mCachedBytes));
+        }
+        mHead += skip;
+        mCachedBytes -= skip;
+        if (mCachedBytes == 0) {
+            mHead = 0;
+            releaseChunks(1);
+            return;
+        }
+        int spentChunks = mHead / mChunkSize;
+        if (spentChunks > 0) {
+            for (int i = 0; i < spentChunks; i++) {
+                mChunkPool.release(mChunks[i]);
+            }
+            int keptChunks = mChunkCount - spentChunks;
+            System.arraycopy(mChunks, spentChunks, mChunks, 0, keptChunks);
+            System.arraycopy(mChunkBuffers, spentChunks, mChunkBuffers, 0, keptChunks);
+            for (int i = keptChunks; i < mChunkCount; i++) {
+                mChunks[i] = null;
+                mChunkBuffers[i] = null;
+            }
+            mChunkCount = keptChunks;
+            mHead -= spentChunks * mChunkSize;
+        }
+    }
+
+    @Override
+    public void clear() {
+        skip(mCachedBytes);
+    }
+
+    /**
+     * Drops cached bytes and hands every chunk back to the pool, for buffers which won't be used any more.
+     */
+    public void release() {
+        mCachedBytes = 0;
+        mHead = 0;
+        releaseChunks(0);
+    }
+
+    @Override
+    public byte[] array() {
+        return null;
+    }
+
+    @Override
+    public int arrayOffset(int rangeStart, int range) {
+        return -1;
+    }
+
+    private int chunkOffset(int rangeStart, int range) {
+        int start = mHead + rangeStart;
+        int chunkOffset = start % mChunkSize;
+        return chunkOffset + range > mChunkSize ? -1 : chunkOffset;
+    }
+
+    private void copy(int copyStart, int copy, byte[] container, int start) {
+        int index = mHead + copyStart;
+        while (copy > 0) {
+            int chunkIndex = index / mChunkSize;
+            int chunkOffset = index - chunkIndex * mChunkSize;
+            int run = Math.min(mChunkSize - chunkOffset, copy);
+            System.arraycopy(mChunks[chunkIndex], chunkOffset, container, start, run);
+            index += run;
+            start += run;
+            copy -= run;
+        }
+    }
+
+    private void addChunk() {
+        byte[] chunk = mChunkPool.acquire();
+        mChunks[mChunkCount] = chunk;
+        mChunkBuffers[mChunkCount] = ByteBuffer.wrap(chunk);
+        mChunkCount++;
+    }
+
+    private void releaseChunks(int keep) {
+        for (int i = keep; i < mChunkCount; i++) {
+            mChunkPool.release(mChunks[i]);
+            mChunks[i] = null;
+            mChunkBuffers[i] = null;
+        }
+        mChunkCount = Math.min(mChunkCount, keep);
+    }
+}
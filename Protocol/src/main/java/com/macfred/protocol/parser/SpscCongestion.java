@@ -0,0 +1,200 @@
+package com.macfred.protocol.parser;
+
+import com.macfred.protocol.metrics.ParserMetrics;
+import com.macfred.protocol.parser.AdvancedParser.CongestionPolicy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies a {@link CongestionPolicy} to the single producer of an {@link SpscParserBuffer}.
+ * <p>
+ * Only the consumer may move the head, so under {@link CongestionPolicy#DropOldest} the producer publishes the
+ * length of the chunk it waits to write and the consumer discards, on its next step, the oldest bytes which still
+ * keep that chunk from fitting. The shortfall is worked out when the consumer discards, so space freed up by
+ * parsing in the meantime is never dropped on top of it. With no consumer running, nothing would ever make room
+ * and DropOldest drops the newest bytes instead of blocking.
+ */
+final class SpscCongestion {
+    private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final int CLAIMED = -1;
+
+    private final SpscParserBuffer mBuffer;
+    private final ParserMetrics mMetrics;
+    private final Consumer mConsumer;
+    private final AtomicInteger mPendingLength = new AtomicInteger();
+    private volatile Thread mWaitingProducer;
+
+    SpscCongestion(SpscParserBuffer buffer, ParserMetrics metrics, Consumer consumer) {
+        mBuffer = buffer;
+        mMetrics = metrics;
+        mConsumer = consumer;
+    }
+
+    /**
+     * Writes the chunk, waiting for space or dropping bytes as the policy says whenever it doesn't fit.
+     */
+    void receive(byte[] data, int start, int length, CongestionPolicy congestionPolicy) {
+        while (length > 0 && !mConsumer.isClosed()) {
+            int offer = Math.min(mBuffer.getAvailableSpace(), length);
+            if (offer < length) {
+                switch (congestionPolicy) {
+                    case DropOldest:
+                        if (length > mBuffer.getBufferSize()) {
+                            mMetrics.recordDrop(congestionPolicy, length - mBuffer.getBufferSize());
+                            start += length - mBuffer.getBufferSize();
+                            length = mBuffer.getBufferSize();
+                        }
+                        if (awaitRoom(length)) {
+                            continue;
+                        }
+                        offer = Math.min(mBuffer.getAvailableSpace(), length);
+                        mMetrics.recordDrop(CongestionPolicy.DropLatestTail, length - offer);
+                        length = offer;
+                        break;
+                    case DropLatestHead:
+                        start += length - offer;
+                    case DropLatestTail:
+                        mMetrics.recordDrop(congestionPolicy, length - offer);
+                        length = offer;
+                        break;
+                    case BlockAndWait:
+                    default:
+                        if (offer == 0) {
+                            awaitSpace();
+                            continue;
+                        }
+                        break;
+                }
+            }
+            if (offer == 0) {
+                return;
+            }
+            mBuffer.offer(data, start, offer);
+            start += offer;
+            length -= offer;
+            mConsumer.onOffered(offer);
+        }
+    }
+
+    /**
+     * Discards the oldest cached bytes which still keep the chunk of a waiting DropOldest producer from fitting,
+     * called by the consumer at the start of its step.
+     *
+     * @return bytes discarded
+     */
+    int discardOldest(AbsParser parser) {
+        int pendingLength = mPendingLength.get();
+        if (pendingLength <= 0 || !mPendingLength.compareAndSet(pendingLength, CLAIMED)) {
+            return 0;
+        }
+        int discard = 0;
+        try {
+            discard = Math.min(pendingLength - mBuffer.getAvailableSpace(), mBuffer.getCachedBytes());
+            if (discard > 0) {
+                parser.discard(discard);
+                mMetrics.recordDrop(CongestionPolicy.DropOldest, discard);
+            }
+        } finally {
+            mPendingLength.set(0);
+            wakeProducer();
+        }
+        return Math.max(discard, 0);
+    }
+
+    /**
+     * @return true if a DropOldest producer waits for the consumer to make room
+     */
+    boolean isDropPending() {
+        return mPendingLength.get() > 0;
+    }
+
+    /**
+     * @return true if the producer is blocked on buffer space, which only the consumer can free up
+     */
+    boolean isProducerWaiting() {
+        return mWaitingProducer != null;
+    }
+
+    void wakeProducer() {
+        Thread waitingProducer = mWaitingProducer;
+        if (waitingProducer != null) {
+            LockSupport.unpark(waitingProducer);
+        }
+    }
+
+    /**
+     * @return true once the chunk fits, false when no consumer runs to make room for it
+     */
+    private boolean awaitRoom(int length) {
+        mPendingLength.set(length);
+        mWaitingProducer = Thread.currentThread();
+        long blockedSince = System.nanoTime();
+        try {
+            while (true) {
+                int pendingLength = mPendingLength.get();
+                if (pendingLength == 0) {
+                    return true;
+                }
+                if (pendingLength == length) {
+                    boolean fits = mBuffer.getAvailableSpace() >= length;
+                    if (fits || mConsumer.isClosed() || !mConsumer.isRunning()) {
+                        if (mPendingLength.compareAndSet(length, 0)) {
+                            return fits;
+                        }
+                        continue;
+                    }
+                    mConsumer.requestStep();
+                }
+                LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+                if (Thread.interrupted()) {
+                    while (!mPendingLength.compareAndSet(length, 0) && mPendingLength.get() != 0) {
+                        Thread.yield();
+                    }
+                    throw new RuntimeException(new InterruptedException());
+                }
+            }
+        } finally {
+            mWaitingProducer = null;
+            mMetrics.recordProducerBlocked(System.nanoTime() - blockedSince);
+        }
+    }
+
+    private void awaitSpace() {
+        mWaitingProducer = Thread.currentThread();
+        long blockedSince = System.nanoTime();
+        try {
+            while (!mConsumer.isClosed() && mBuffer.getAvailableSpace() == 0) {
+                mConsumer.requestStep();
+                LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+                if (Thread.interrupted()) {
+                    throw new RuntimeException(new InterruptedException());
+                }
+            }
+        } finally {
+            mWaitingProducer = null;
+            mMetrics.recordProducerBlocked(System.nanoTime() - blockedSince);
+        }
+    }
+
+    /**
+     * The consumer side of the buffer, as the producer sees it.
+     */
+    interface Consumer {
+
+        /**
+         * @return false when no consumer step will run, so waiting on it would never end
+         */
+        boolean isRunning();
+
+        boolean isClosed();
+
+        /**
+         * Asks for a consumer step soon, the producer waits on space only a step can free up.
+         */
+        void requestStep();
+
+        void onOffered(int length);
+    }
+}
@@ -0,0 +1,233 @@
+package com.macfred.protocol.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Lock free {@link ParserBuffer} for exactly one producer thread and one consumer thread.
+ * <p>
+ * The producer side is {@link #offer}, {@link #readFrom} and {@link #getAvailableSpace()}, everything else belongs to
+ * the consumer. Head and tail are published with ordered writes and live on separate cache lines.
+ */
+public class SpscParserBuffer extends SpscParserBufferTail implements ParserBuffer {
+    private final byte[] mBuffer;
+    private final int mBufferSize;
+    private final ByteBuffer[] mFreeRegion;
+    private final MagicSearch.ByteAccessor mCachedBytesAccessor = new MagicSearch.ByteAccessor() {
+        @Override
+        public byte get(int position) {
+            int index = mHeadIndex + position;
+            return mBuffer[index >= mBufferSize ? index - mBufferSize : index];
+        }
+
+        @Override
+        public int find(byte value, int from, int end) {
+            return MagicSearch.findInRing(mBuffer, mHeadIndex, value, from, end);
+        }
+    };
+
+    public SpscParserBuffer(int bufferSize) {
+        mBufferSize = bufferSize;
+        mBuffer = new byte[bufferSize];
+        mFreeRegion = new ByteBuffer[]{ByteBuffer.wrap(mBuffer), ByteBuffer.wrap(mBuffer)};
+    }
+
+    @Override
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    @Override
+    public int getCachedBytes() {
+        return (int) (mTail - mHead);
+    }
+
+    @Override
+    public int getAvailableSpace() {
+        mHeadCache = mHead;
+        return mBufferSize - (int) (mTail - mHeadCache);
+    }
+
+    /**
+     * Producer side space check which only reads the consumer's head when the last one seen is not enough.
+     */
+    private int getAvailableSpace(int required) {
+        int availableSpace = mBufferSize - (int) (mTail - mHeadCache);
+        if (availableSpace < required) {
+            availableSpace = getAvailableSpace();
+        }
+        return availableSpace;
+    }
+
+    @Override
+    public void offer(byte[] data, int start, int length) {
+        int availableSpace = getAvailableSpace(length);
+        if (availableSpace < length) {
+            throw new RuntimeException(String.format("Parser buffer overflow! Buffer size %1d,available space%2d,receive %3d", mBufferSize, availableSpace, length));
+        }
+        if (length == 0) {
+            return;
+        }
+        int newRangeStart = mTailIndex;
+        int newRangeEnd = newRangeStart + length;
+        if (newRangeEnd > mBufferSize) {
+            int wind = newRangeEnd - mBufferSize;
+            System.arraycopy(data, start, mBuffer, newRangeStart, length - wind);
+            System.arraycopy(data, start + length - wind, mBuffer, 0, wind);
+        } else {
+            System.arraycopy(data, start, mBuffer, newRangeStart, length);
+        }
+        publishTail(length);
+    }
+
+    @Override
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        int availableSpace = getAvailableSpace();
+        if (availableSpace == 0) {
+            return 0;
+        }
+        int newRangeStart = mTailIndex;
+        int newRangeEnd = newRangeStart + availableSpace;
+        int wind = newRangeEnd > mBufferSize ? newRangeEnd - mBufferSize : 0;
+        mFreeRegion[0].limit(newRangeEnd - wind).position(newRangeStart);
+        mFreeRegion[1].limit(wind).position(0);
+        long read;
+        if (wind > 0 && channel instanceof ScatteringByteChannel) {
+            read = ((ScatteringByteChannel) channel).read(mFreeRegion);
+        } else {
+            read = channel.read(mFreeRegion[0]);
+            if (read > 0 && wind > 0 && !mFreeRegion[0].hasRemaining()) {
+                int windRead = channel.read(mFreeRegion[1]);
+                if (windRead > 0) {
+                    read += windRead;
+                }
+            }
+        }
+        if (read > 0) {
+            publishTail((int) read);
+        }
+        return (int) read;
+    }
+
+    private void publishTail(int length) {
+        int tailIndex = mTailIndex + length;
+        if (tailIndex >= mBufferSize) {
+            tailIndex -= mBufferSize;
+        }
+        mTailIndex = tailIndex;
+        TAIL_UPDATER.lazySet(this, mTail + length);
+    }
+
+    @Override
+    public void consume(int consumption, byte[] container, int start) {
+        peek(0, consumption, container, start);
+        skip(consumption);
+    }
+
+    @Override
+    public void peek(int peekStart, int peek, byte[] container, int start) {
+        int cachedBytes = getCachedBytes();
+        if (peekStart < 0 || peekStart + peek > cachedBytes) {
+            throw new RuntimeException(String.format("Invalid bytes peek:[%1d,%2d) while available range [0,%3d)", peekStart, peekStart + peek, cachedBytes));
+        }
+        int peekRangeStart = mHeadIndex + peekStart;
+        if (peekRangeStart >= mBufferSize) {
+            peekRangeStart -= mBufferSize;
+        }
+        int peekRangeEnd = peekRangeStart + peek;
+        if (peekRangeEnd > mBufferSize) {
+            int wind = peekRangeEnd - mBufferSize;
+            System.arraycopy(mBuffer, peekRangeStart, container, start, peek - wind);
+            System.arraycopy(mBuffer, 0, container, start + peek - wind, wind);
+        } else {
+            System.arraycopy(mBuffer, peekRangeStart, container, start, peek);
+        }
+    }
+
+    @Override
+    public void view(int viewStart, int view, PacketView container) {
+        int cachedBytes = getCachedBytes();
+        if (viewStart < 0 || view < 0 || viewStart + view > cachedBytes) {
+            throw new RuntimeException(String.format("Invalid bytes view:[%1d,%2d) while available range [0,%3d)", viewStart, viewStart + view, cachedBytes));
+        }
+        int viewRangeStart = mHeadIndex + viewStart;
+        if (viewRangeStart >= mBufferSize) {
+            viewRangeStart -= mBufferSize;
+        }
+        int viewRangeEnd = viewRangeStart + view;
+        if (viewRangeEnd > mBufferSize) {
+            int wind = viewRangeEnd - mBufferSize;
+            container.set(viewRangeStart, view - wind, wind);
+        } else {
+            container.set(viewRangeStart, view, 0);
+        }
+    }
+
+    @Override
+    public PacketView createView() {
+        return new PacketView(ByteBuffer.wrap(mBuffer));
+    }
+
+    @Override
+    public int indexOf(byte[] pattern, int from) {
+        return MagicSearch.indexOf(mCachedBytesAccessor, getCachedBytes(), pattern, from);
+    }
+
+    @Override
+    public void skip(int skip) {
+        int cachedBytes = getCachedBytes();
+        if (skip < 0 || skip > cachedBytes) {
+            throw new RuntimeException(String.format("Invalid bytes skip:%1d while available range [0,%2d]", skip, cachedBytes));
+        }
+        int headIndex = mHeadIndex + skip;
+        if (headIndex >= mBufferSize) {
+            headIndex -= mBufferSize;
+        }
+        mHeadIndex = headIndex;
+        HEAD_UPDATER.lazySet(this, mHead + skip);
+    }
+
+    @Override
+    public void clear() {
+        skip(getCachedBytes());
+    }
+
+    @Override
+    public byte[] array() {
+        return mBuffer;
+    }
+
+    @Override
+    public int arrayOffset(int rangeStart, int range) {
+        int arrayStart = mHeadIndex + rangeStart;
+        if (arrayStart >= mBufferSize) {
+            arrayStart -= mBufferSize;
+        }
+        return arrayStart + range > mBufferSize ? -1 : arrayStart;
+    }
+}
+
+abstract class SpscParserBufferPadding0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class SpscParserBufferHead extends SpscParserBufferPadding0 {
+    static final AtomicLongFieldUpdater<SpscParserBufferHead> HEAD_UPDATER = AtomicLongFieldUpdater.newUpdater(SpscParserBufferHead.class, "mHead");
+    volatile long mHead;
+    int mHeadIndex;
+}
+
+abstract class SpscParserBufferPadding1 extends SpscParserBufferHead {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class SpscParserBufferTail extends SpscParserBufferPadding1 {
+    static final AtomicLongFieldUpdater<SpscParserBufferTail> TAIL_UPDATER = AtomicLongFieldUpdater.newUpdater(SpscParserBufferTail.class, "mTail");
+    volatile long mTail;
+    long mHeadCache;
+    int mTailIndex;
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
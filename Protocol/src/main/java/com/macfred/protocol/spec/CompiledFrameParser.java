@@ -0,0 +1,322 @@
+package com.macfred.protocol.spec;
+
+import com.macfred.protocol.checksum.ChecksumAlgorithm;
+import com.macfred.protocol.checksum.Crc;
+import com.macfred.protocol.parser.AbsParser.ProcessReport;
+import com.macfred.protocol.parser.BufferProbe;
+import com.macfred.protocol.parser.PacketView;
+import com.macfred.protocol.parser.PacketViewReceiver;
+import com.macfred.protocol.parser.ParserBuffer;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Parser specialized by {@link FrameSpecCompiler} for one {@link FrameSpec}. The spec is resolved into final fields
+ * up front, the state machine then runs without a single descriptor or algorithm interface call: the length field
+ * and checksum are decoded inline, and the checksum runs as a {@link Crc} or an inline loop chosen once at compile
+ * time. Behaves like an {@link com.macfred.protocol.parser.AbsParser} given the spec's descriptor, packet for
+ * packet and byte for byte in the {@link ProcessReport}.
+ */
+public final class CompiledFrameParser {
+    static final int CHECKSUM_NONE = 0;
+    static final int CHECKSUM_CRC = 1;
+    static final int CHECKSUM_SUM8 = 2;
+    static final int CHECKSUM_XOR8 = 3;
+    static final int CHECKSUM_SUM16 = 4;
+    static final int CHECKSUM_OTHER = 5;
+
+    private static final int WAIT_FOR_HEADER = 0;
+    private static final int WAIT_FOR_PACKET_SIZE = 1;
+    private static final int WAIT_FOR_TERMINATION = 2;
+
+    private final FrameSpec mSpec;
+    private final ParserBuffer mBuffer;
+    private final byte[] mHeaderMagic;
+    private final int mHeaderLength;
+    private final int mLengthOffset;
+    private final int mLengthWidth;
+    private final int mLengthEnd;
+    private final boolean mLengthBigEndian;
+    private final int mLengthAdjustment;
+    private final int mMinPacketSize;
+    private final int mMaxPacketSize;
+    private final int mChecksumType;
+    private final Crc mCrc;
+    private final ChecksumAlgorithm mChecksumAlgorithm;
+    private final int mChecksumStart;
+    private final int mChecksumLength;
+    private final boolean mChecksumBigEndian;
+    private final BufferProbe mBufferProbe;
+    private byte[] mProbe;
+    private PacketView mPacketView;
+    private int mStatus = WAIT_FOR_HEADER;
+    private int mPacketSize;
+    private long mChecksum;
+    private int mChecksummedLength;
+
+    CompiledFrameParser(FrameSpec spec, ParserBuffer buffer, int checksumType) {
+        mSpec = spec;
+        mBuffer = buffer;
+        byte[] headerMagic = spec.getHeaderMagic();
+        mHeaderMagic = headerMagic.length == 0 ? null : headerMagic;
+        mHeaderLength = Math.max(headerMagic.length, 1);
+        mLengthOffset = spec.getLengthOffset();
+        mLengthWidth = spec.getLengthWidth();
+        mLengthEnd = mLengthOffset + mLengthWidth;
+        mLengthBigEndian = spec.getLengthOrder() == ByteOrder.BIG_ENDIAN;
+        mLengthAdjustment = spec.getLengthAdjustment();
+        mMinPacketSize = spec.getMinPacketSize();
+        mMaxPacketSize = Math.min(spec.getMaxPacketSize(), buffer.getBufferSize());
+        mChecksumType = checksumType;
+        mChecksumAlgorithm = spec.getChecksumAlgorithm();
+        mCrc = checksumType == CHECKSUM_CRC ? (Crc) mChecksumAlgorithm : null;
+        mChecksumStart = spec.getChecksumStart();
+        mChecksumLength = spec.getTrailerLength();
+        mChecksumBigEndian = spec.getChecksumOrder() == ByteOrder.BIG_ENDIAN;
+        mBufferProbe = new BufferProbe(buffer, spec.getMaxPacketSize());
+    }
+
+    public FrameSpec getSpec() {
+        return mSpec;
+    }
+
+    public void receive(byte[] data, int start, int length) {
+        mBuffer.offer(data, start, length);
+    }
+
+    /**
+     * @return bytes count read, 0 when the buffer is full, -1 on end of stream
+     */
+    public int receive(ReadableByteChannel channel) throws IOException {
+        return mBuffer.readFrom(channel);
+    }
+
+    /**
+     * Drops the oldest cached bytes and starts over looking for a header.
+     */
+    public void discard(int discard) {
+        mBuffer.skip(discard);
+        mStatus = WAIT_FOR_HEADER;
+        mPacketSize = 0;
+    }
+
+    public ParserBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public ProcessReport tryParsePackets(int captureLimit) {
+        return tryParsePackets(captureLimit, new ProcessReport());
+    }
+
+    public ProcessReport tryParsePackets(int captureLimit, ProcessReport report) {
+        report.reset();
+        parsePackets(captureLimit, report, null);
+        return report;
+    }
+
+    /**
+     * Delivers packets as views into the parser buffer, {@link ProcessReport#newPacketsFound} stays empty.
+     */
+    public ProcessReport tryParsePackets(int captureLimit, ProcessReport report, PacketViewReceiver receiver) {
+        if (receiver == null) {
+            throw new IllegalArgumentException("Packet view receiver required");
+        }
+        report.reset();
+        parsePackets(captureLimit, report, receiver);
+        return report;
+    }
+
+    private void parsePackets(int captureLimit, ProcessReport report, PacketViewReceiver receiver) {
+        while (true) {
+            switch (mStatus) {
+                case WAIT_FOR_HEADER:
+                    if (!findHeader(report)) {
+                        return;
+                    }
+                    mStatus = WAIT_FOR_PACKET_SIZE;
+                    mBufferProbe.endResync();
+                case WAIT_FOR_PACKET_SIZE:
+                    if (mBuffer.getCachedBytes() < mLengthEnd) {
+                        return;
+                    }
+                    long packetSize = decodeLength() + mLengthAdjustment;
+                    if (packetSize < mMinPacketSize || packetSize > mMaxPacketSize) {
+                        report.invalidSizes++;
+                        rejectHeader(report);
+                        break;
+                    }
+                    mPacketSize = (int) packetSize;
+                    mStatus = WAIT_FOR_TERMINATION;
+                    if (mChecksumType != CHECKSUM_NONE) {
+                        mChecksum = mChecksumType == CHECKSUM_OTHER ? mChecksumAlgorithm.initial() : mChecksumType == CHECKSUM_CRC ? mCrc.initial() : 0;
+                        mChecksummedLength = mChecksumStart;
+                    }
+                case WAIT_FOR_TERMINATION:
+                    if (mChecksumType != CHECKSUM_NONE) {
+                        updateChecksum();
+                    }
+                    if (mBuffer.getCachedBytes() < mPacketSize) {
+                        return;
+                    }
+                    int packetStart = probe(0, mPacketSize);
+                    if (mChecksumType == CHECKSUM_NONE || finishChecksum() == decodeChecksum(packetStart + mPacketSize - mChecksumLength)) {
+                        if (receiver == null) {
+                            byte[] newPacket = new byte[mPacketSize];
+                            System.arraycopy(mProbe, packetStart, newPacket, 0, mPacketSize);
+                            report.newPacketsFound.add(newPacket);
+                        } else {
+                            if (mPacketView == null) {
+                                mPacketView = mBuffer.createView();
+                            }
+                            mBuffer.view(0, mPacketSize, mPacketView);
+                            receiver.onNewPacket(mPacketView);
+                        }
+                        report.consumedBytes += mPacketSize;
+                        report.packetsFound++;
+                        mBuffer.skip(mPacketSize);
+                        mStatus = WAIT_FOR_HEADER;
+                        mPacketSize = 0;
+                        if (captureLimit <= 0) {
+                            continue;
+                        }
+                        if (--captureLimit <= 0) {
+                            return;
+                        }
+                    } else {
+                        report.verifyFailures++;
+                        rejectHeader(report);
+                    }
+                    break;
+                default:
+                    throw new RuntimeException("Unknown status while trying to parse");
+            }
+        }
+    }
+
+    /**
+     * Drops bytes up to the next header magic. Without a magic any byte may start a frame, the size bounds and
+     * checksum decide.
+     *
+     * @return false when cached bytes ran out first
+     */
+    private boolean findHeader(ProcessReport report) {
+        if (mHeaderMagic == null) {
+            return mBuffer.getCachedBytes() >= mHeaderLength;
+        }
+        while (mBuffer.getCachedBytes() >= mHeaderLength) {
+            int headerCandidate = mBuffer.indexOf(mHeaderMagic, 0);
+            if (headerCandidate == 0) {
+                return true;
+            }
+            drop(headerCandidate, report);
+        }
+        return false;
+    }
+
+    private void rejectHeader(ProcessReport report) {
+        drop(1, report);
+        mStatus = WAIT_FOR_HEADER;
+        mPacketSize = 0;
+    }
+
+    private void drop(int drop, ProcessReport report) {
+        mBufferProbe.drop(drop, report);
+    }
+
+    private long decodeLength() {
+        int start = probe(mLengthOffset, mLengthWidth);
+        byte[] bytes = mProbe;
+        switch (mLengthWidth) {
+            case 1:
+                return bytes[start] & 0xFF;
+            case 2:
+                return mLengthBigEndian
+                        ? (bytes[start] & 0xFF) << 8 | (bytes[start + 1] & 0xFF)
+                        : (bytes[start + 1] & 0xFF) << 8 | (bytes[start] & 0xFF);
+            case 3:
+                return mLengthBigEndian
+                        ? (bytes[start] & 0xFF) << 16 | (bytes[start + 1] & 0xFF) << 8 | (bytes[start + 2] & 0xFF)
+                        : (bytes[start + 2] & 0xFF) << 16 | (bytes[start + 1] & 0xFF) << 8 | (bytes[start] & 0xFF);
+            default:
+                return (mLengthBigEndian
+                        ? (bytes[start] & 0xFF) << 24 | (bytes[start + 1] & 0xFF) << 16 | (bytes[start + 2] & 0xFF) << 8 | (bytes[start + 3] & 0xFF)
+                        : (bytes[start + 3] & 0xFF) << 24 | (bytes[start + 2] & 0xFF) << 16 | (bytes[start + 1] & 0xFF) << 8 | (bytes[start] & 0xFF)) & 0xFFFFFFFFL;
+        }
+    }
+
+    private void updateChecksum() {
+        int coveredEnd = Math.min(mBuffer.getCachedBytes(), mPacketSize - mChecksumLength);
+        if (coveredEnd <= mChecksummedLength) {
+            return;
+        }
+        int length = coveredEnd - mChecksummedLength;
+        int start = probe(mChecksummedLength, length);
+        byte[] bytes = mProbe;
+        int checksum = (int) mChecksum;
+        switch (mChecksumType) {
+            case CHECKSUM_CRC:
+                mChecksum = mCrc.update(mChecksum, bytes, start, length);
+                break;
+            case CHECKSUM_SUM8:
+                for (int i = start, end = start + length; i < end; i++) {
+                    checksum += bytes[i];
+                }
+                mChecksum = checksum & 0xFF;
+                break;
+            case CHECKSUM_XOR8:
+                for (int i = start, end = start + length; i < end; i++) {
+                    checksum ^= bytes[i];
+                }
+                mChecksum = checksum & 0xFF;
+                break;
+            case CHECKSUM_SUM16:
+                for (int i = start, end = start + length; i < end; i++) {
+                    checksum += bytes[i] & 0xFF;
+                }
+                mChecksum = checksum & 0xFFFF;
+                break;
+            default:
+                mChecksum = mChecksumAlgorithm.update(mChecksum, bytes, start, length);
+        }
+        mChecksummedLength = coveredEnd;
+    }
+
+    private long finishChecksum() {
+        switch (mChecksumType) {
+            case CHECKSUM_CRC:
+                return mCrc.finish(mChecksum);
+            case CHECKSUM_OTHER:
+                return mChecksumAlgorithm.finish(mChecksum);
+            default:
+                return mChecksum;
+        }
+    }
+
+    private long decodeChecksum(int start) {
+        byte[] bytes = mProbe;
+        long checksum = 0;
+        if (mChecksumBigEndian) {
+            for (int i = 0; i < mChecksumLength; i++) {
+                checksum = (checksum << 8) | (bytes[start + i] & 0xFF);
+            }
+        } else {
+            for (int i = mChecksumLength - 1; i >= 0; i--) {
+                checksum = (checksum << 8) | (bytes[start + i] & 0xFF);
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Makes cached bytes [start, start + length) readable through {@link #mProbe}.
+     *
+     * @return index of the byte at {@code start} in {@link #mProbe}
+     */
+    private int probe(int start, int length) {
+        int index = mBufferProbe.probe(start, length);
+        mProbe = mBufferProbe.bytes();
+        return index;
+    }
+}
@@ -0,0 +1,256 @@
+package com.macfred.protocol.spec;
+
+import com.macfred.protocol.checksum.ChecksumAlgorithm;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Declarative description of a length prefixed frame: optional header magic at offset 0, an unsigned length field,
+ * the payload from {@link #getPayloadOffset()}, and an optional checksum closing the frame. Turned into a parser by
+ * {@link FrameSpecCompiler}, or into a {@link com.macfred.protocol.PacketDescriptor} for the generic parsers.
+ * <p>
+ * Immutable, built through {@link #builder()}.
+ */
+public final class FrameSpec {
+    private final byte[] mHeaderMagic;
+    private final int mLengthOffset;
+    private final int mLengthWidth;
+    private final ByteOrder mLengthOrder;
+    private final int mLengthAdjustment;
+    private final int mPayloadOffset;
+    private final ChecksumAlgorithm mChecksumAlgorithm;
+    private final int mChecksumStart;
+    private final ByteOrder mChecksumOrder;
+    private final int mMinPacketSize;
+    private final int mMaxPacketSize;
+
+    private FrameSpec(Builder builder, int payloadOffset, int lengthAdjustment, int minPacketSize, int maxPacketSize) {
+        mHeaderMagic = builder.mHeaderMagic;
+        mLengthOffset = builder.mLengthOffset;
+        mLengthWidth = builder.mLengthWidth;
+        mLengthOrder = builder.mLengthOrder;
+        mLengthAdjustment = lengthAdjustment;
+        mPayloadOffset = payloadOffset;
+        mChecksumAlgorithm = builder.mChecksumAlgorithm;
+        mChecksumStart = builder.mChecksumStart;
+        mChecksumOrder = builder.mChecksumOrder;
+        mMinPacketSize = minPacketSize;
+        mMaxPacketSize = maxPacketSize;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return bytes every frame starts with, empty when frames have no magic
+     */
+    public byte[] getHeaderMagic() {
+        return mHeaderMagic.clone();
+    }
+
+    public int getLengthOffset() {
+        return mLengthOffset;
+    }
+
+    /**
+     * @return length field bytes, 1 to 4
+     */
+    public int getLengthWidth() {
+        return mLengthWidth;
+    }
+
+    public ByteOrder getLengthOrder() {
+        return mLengthOrder;
+    }
+
+    /**
+     * @return what is added to the length field value to get the frame size, whatever the {@link LengthMode}
+     */
+    public int getLengthAdjustment() {
+        return mLengthAdjustment;
+    }
+
+    public int getPayloadOffset() {
+        return mPayloadOffset;
+    }
+
+    /**
+     * @return the checksum closing every frame, null when frames have none
+     */
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return mChecksumAlgorithm;
+    }
+
+    /**
+     * @return offset of the first byte covered by the checksum, coverage runs up to the checksum itself
+     */
+    public int getChecksumStart() {
+        return mChecksumStart;
+    }
+
+    public ByteOrder getChecksumOrder() {
+        return mChecksumOrder;
+    }
+
+    /**
+     * @return bytes after the payload
+     */
+    public int getTrailerLength() {
+        return mChecksumAlgorithm == null ? 0 : mChecksumAlgorithm.getLength();
+    }
+
+    /**
+     * @return size of a frame with an empty payload
+     */
+    public int getMinPacketSize() {
+        return mMinPacketSize;
+    }
+
+    public int getMaxPacketSize() {
+        return mMaxPacketSize;
+    }
+
+    /**
+     * @return the frame size the length field value stands for, -1 when it is out of bounds
+     */
+    public int toPacketSize(long lengthValue) {
+        long packetSize = lengthValue + mLengthAdjustment;
+        return packetSize < mMinPacketSize || packetSize > mMaxPacketSize ? -1 : (int) packetSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FrameSpec{magic=%s, length field=[%d,+%d) %s, adjustment=%d, payload=%d, checksum=%s from %d, size=[%d,%d]}", Arrays.toString(mHeaderMagic), mLengthOffset, mLengthWidth, mLengthOrder, mLengthAdjustment, mPayloadOffset, mChecksumAlgorithm, mChecksumStart, mMinPacketSize, mMaxPacketSize);
+    }
+
+    /**
+     * What the length field counts.
+     */
+    public enum LengthMode {
+        /**
+         * The whole frame, header and trailer included.
+         */
+        Frame,
+        /**
+         * Everything from the payload on, trailer included.
+         */
+        ExcludingHeader,
+        /**
+         * The payload only.
+         */
+        Payload
+    }
+
+    public static final class Builder {
+        private byte[] mHeaderMagic = new byte[0];
+        private int mLengthOffset = -1;
+        private int mLengthWidth;
+        private ByteOrder mLengthOrder = ByteOrder.BIG_ENDIAN;
+        private LengthMode mLengthMode = LengthMode.Frame;
+        private int mLengthAdjustment;
+        private int mPayloadOffset = -1;
+        private ChecksumAlgorithm mChecksumAlgorithm;
+        private int mChecksumStart;
+        private ByteOrder mChecksumOrder = ByteOrder.BIG_ENDIAN;
+        private int mMaxPacketSize;
+
+        private Builder() {
+        }
+
+        public Builder headerMagic(byte... magic) {
+            mHeaderMagic = magic.clone();
+            return this;
+        }
+
+        /**
+         * Unsigned length field of {@code width} bytes at {@code offset}.
+         */
+        public Builder lengthField(int offset, int width, ByteOrder order) {
+            if (offset < 0 || width < 1 || width > 4) {
+                throw new IllegalArgumentException(String.format("Invalid length field: offset %1d width %2d", offset, width));
+            }
+            mLengthOffset = offset;
+            mLengthWidth = width;
+            mLengthOrder = order;
+            return this;
+        }
+
+        /**
+         * @param mode       what the length field counts, {@link LengthMode#Frame} by default
+         * @param adjustment added on top, for protocols counting e.g. a command byte apart
+         */
+        public Builder length(LengthMode mode, int adjustment) {
+            mLengthMode = mode;
+            mLengthAdjustment = adjustment;
+            return this;
+        }
+
+        /**
+         * Defaults to the end of the header magic or of the length field, whichever comes last.
+         */
+        public Builder payloadOffset(int payloadOffset) {
+            if (payloadOffset < 0) {
+                throw new IllegalArgumentException(String.format("Invalid payload offset %1d", payloadOffset));
+            }
+            mPayloadOffset = payloadOffset;
+            return this;
+        }
+
+        /**
+         * Frames end with the checksum over [coverageStart, checksum).
+         */
+        public Builder checksum(ChecksumAlgorithm algorithm, int coverageStart, ByteOrder order) {
+            if (coverageStart < 0) {
+                throw new IllegalArgumentException(String.format("Invalid checksum coverage start %1d", coverageStart));
+            }
+            mChecksumAlgorithm = algorithm;
+            mChecksumStart = coverageStart;
+            mChecksumOrder = order;
+            return this;
+        }
+
+        /**
+         * Defaults to the largest frame the length field can describe, up to 64 KB.
+         */
+        public Builder maxPacketSize(int maxPacketSize) {
+            if (maxPacketSize <= 0) {
+                throw new IllegalArgumentException(String.format("Invalid max packet size %1d", maxPacketSize));
+            }
+            mMaxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        public FrameSpec build() {
+            if (mLengthOffset < 0) {
+                throw new IllegalStateException("Length field required");
+            }
+            int lengthEnd = mLengthOffset + mLengthWidth;
+            int payloadOffset = mPayloadOffset >= 0 ? mPayloadOffset : Math.max(mHeaderMagic.length, lengthEnd);
+            if (payloadOffset < mHeaderMagic.length || payloadOffset < lengthEnd) {
+                throw new IllegalStateException(String.format("Payload offset %1d overlaps header magic or length field", payloadOffset));
+            }
+            int trailerLength = mChecksumAlgorithm == null ? 0 : mChecksumAlgorithm.getLength();
+            int lengthAdjustment = mLengthAdjustment;
+            if (mLengthMode == LengthMode.ExcludingHeader) {
+                lengthAdjustment += payloadOffset;
+            } else if (mLengthMode == LengthMode.Payload) {
+                lengthAdjustment += payloadOffset + trailerLength;
+            }
+            int minPacketSize = payloadOffset + trailerLength;
+            if (mChecksumAlgorithm != null) {
+                minPacketSize = Math.max(minPacketSize, mChecksumStart + trailerLength);
+            }
+            int maxPacketSize = mMaxPacketSize;
+            if (maxPacketSize == 0) {
+                long largestLength = (1L << (8 * mLengthWidth)) - 1 + lengthAdjustment;
+                maxPacketSize = (int) Math.max(0, Math.min(largestLength, 64 * 1024));
+            }
+            if (maxPacketSize < minPacketSize) {
+                throw new IllegalStateException(String.format("Max packet size %1d below the %2d bytes of an empty frame", maxPacketSize, minPacketSize));
+            }
+            return new FrameSpec(this, payloadOffset, lengthAdjustment, minPacketSize, maxPacketSize);
+        }
+    }
+}
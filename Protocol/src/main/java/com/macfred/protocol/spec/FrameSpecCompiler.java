@@ -0,0 +1,57 @@
+package com.macfred.protocol.spec;
+
+import com.macfred.protocol.FrameEncodingDescriptor;
+import com.macfred.protocol.checksum.ChecksumAlgorithm;
+import com.macfred.protocol.checksum.Crc;
+import com.macfred.protocol.checksum.SimpleChecksum;
+import com.macfred.protocol.parser.AbsParserBuffer;
+import com.macfred.protocol.parser.ParserBuffer;
+
+/**
+ * Turns a {@link FrameSpec} into a {@link CompiledFrameParser}, or into a descriptor for the generic parsers and the
+ * packet encoder.
+ * <p>
+ * No bytecode is generated: the library runs on Android, where classes defined at runtime aren't an option, and
+ * doesn't pull in a bytecode library. Specializing one final parser class on final fields gets the JIT most of the
+ * way, its call sites only ever see one receiver type and the branches on the spec constants always go the same way.
+ */
+public final class FrameSpecCompiler {
+
+    private FrameSpecCompiler() {
+    }
+
+    public static CompiledFrameParser compile(FrameSpec spec, int bufferSize) {
+        return compile(spec, new AbsParserBuffer(bufferSize));
+    }
+
+    public static CompiledFrameParser compile(FrameSpec spec, ParserBuffer buffer) {
+        return new CompiledFrameParser(spec, buffer, checksumTypeOf(spec.getChecksumAlgorithm()));
+    }
+
+    /**
+     * @return a descriptor for the spec, also a {@link com.macfred.protocol.ChecksumDescriptor} when frames carry
+     * a checksum
+     */
+    public static FrameEncodingDescriptor toDescriptor(FrameSpec spec) {
+        return spec.getChecksumAlgorithm() == null ? new FrameSpecDescriptor(spec) : new FrameSpecDescriptor.Checksummed(spec);
+    }
+
+    private static int checksumTypeOf(ChecksumAlgorithm algorithm) {
+        if (algorithm == null) {
+            return CompiledFrameParser.CHECKSUM_NONE;
+        }
+        if (algorithm instanceof Crc) {
+            return CompiledFrameParser.CHECKSUM_CRC;
+        }
+        if (algorithm == SimpleChecksum.SUM8) {
+            return CompiledFrameParser.CHECKSUM_SUM8;
+        }
+        if (algorithm == SimpleChecksum.XOR8) {
+            return CompiledFrameParser.CHECKSUM_XOR8;
+        }
+        if (algorithm == SimpleChecksum.SUM16) {
+            return CompiledFrameParser.CHECKSUM_SUM16;
+        }
+        return CompiledFrameParser.CHECKSUM_OTHER;
+    }
+}
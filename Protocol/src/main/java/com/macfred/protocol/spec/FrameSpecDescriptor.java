@@ -0,0 +1,180 @@
+package com.macfred.protocol.spec;
+
+import com.macfred.protocol.ChecksumDescriptor;
+import com.macfred.protocol.FieldDescription;
+import com.macfred.protocol.FrameEncodingDescriptor;
+import com.macfred.protocol.HeaderMagicDescriptor;
+import com.macfred.protocol.checksum.ChecksumAlgorithm;
+import com.macfred.protocol.checksum.Checksums;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link FrameSpec} seen as a descriptor, so the generic parsers and {@link com.macfred.protocol.io.PacketEncoder}
+ * handle spec'd frames the same way they handle hand-written descriptors.
+ */
+class FrameSpecDescriptor implements HeaderMagicDescriptor, FrameEncodingDescriptor {
+    private static final int ENCODE_CHUNK = 256;
+
+    final FrameSpec mSpec;
+    private final byte[] mHeaderMagic;
+    private final FieldDescription mHeaderDescription;
+    private final FieldDescription mPacketSizeDescription;
+    /**
+     * Scratch for checksumming frames in buffers without an accessible array, guarded by itself as encoders on
+     * different threads may share the descriptor.
+     */
+    private final byte[] mEncodeChunk = new byte[ENCODE_CHUNK];
+
+    FrameSpecDescriptor(FrameSpec spec) {
+        mSpec = spec;
+        mHeaderMagic = spec.getHeaderMagic();
+        mHeaderDescription = new FieldDescription(0, Math.max(mHeaderMagic.length, 1));
+        mPacketSizeDescription = new FieldDescription(spec.getLengthOffset(), spec.getLengthWidth());
+    }
+
+    @Override
+    public int getPacketMaxSize() {
+        return mSpec.getMaxPacketSize();
+    }
+
+    @Override
+    public FieldDescription getHeaderDescription() {
+        return mHeaderDescription;
+    }
+
+    @Override
+    public boolean verifyHeader(byte[] bytes, int start) {
+        for (int i = 0; i < mHeaderMagic.length; i++) {
+            if (bytes[start + i] != mHeaderMagic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public FieldDescription getPacketSizeDescription() {
+        return mPacketSizeDescription;
+    }
+
+    @Override
+    public int decodePacketSize(byte[] bytes, int start) {
+        return mSpec.toPacketSize(decodeUnsigned(bytes, start, mSpec.getLengthWidth(), mSpec.getLengthOrder()));
+    }
+
+    @Override
+    public boolean verifyAndAcceptPacket(byte[] bytes, int start, int length) {
+        return true;
+    }
+
+    @Override
+    public byte[] getHeaderMagic() {
+        return mHeaderMagic.length == 0 ? null : mHeaderMagic.clone();
+    }
+
+    @Override
+    public int getPayloadOffset() {
+        return mSpec.getPayloadOffset();
+    }
+
+    @Override
+    public int getTrailerLength() {
+        return mSpec.getTrailerLength();
+    }
+
+    @Override
+    public void encodeHeader(ByteBuffer frame, int start) {
+        for (int i = 0; i < mHeaderMagic.length; i++) {
+            frame.put(start + i, mHeaderMagic[i]);
+        }
+    }
+
+    @Override
+    public void encodePacketSize(ByteBuffer frame, int start, int packetSize) {
+        encodeUnsigned(frame, start + mSpec.getLengthOffset(), mSpec.getLengthWidth(), mSpec.getLengthOrder(), packetSize - mSpec.getLengthAdjustment());
+    }
+
+    @Override
+    public void encodeTrailer(ByteBuffer frame, int start, int packetSize) {
+        ChecksumAlgorithm algorithm = mSpec.getChecksumAlgorithm();
+        if (algorithm == null) {
+            return;
+        }
+        int checksumStart = start + packetSize - algorithm.getLength();
+        long checksum = algorithm.initial();
+        if (frame.hasArray()) {
+            int coverageStart = start + mSpec.getChecksumStart();
+            checksum = algorithm.update(checksum, frame.array(), frame.arrayOffset() + coverageStart, checksumStart - coverageStart);
+        } else {
+            byte[] chunk = mEncodeChunk;
+            synchronized (chunk) {
+                for (int position = start + mSpec.getChecksumStart(); position < checksumStart; ) {
+                    int length = Math.min(chunk.length, checksumStart - position);
+                    for (int i = 0; i < length; i++) {
+                        chunk[i] = frame.get(position++);
+                    }
+                    checksum = algorithm.update(checksum, chunk, 0, length);
+                }
+            }
+        }
+        encodeUnsigned(frame, checksumStart, algorithm.getLength(), mSpec.getChecksumOrder(), algorithm.finish(checksum));
+    }
+
+    static long decodeUnsigned(byte[] bytes, int start, int width, ByteOrder order) {
+        long value = 0;
+        if (order == ByteOrder.BIG_ENDIAN) {
+            for (int i = 0; i < width; i++) {
+                value = (value << 8) | (bytes[start + i] & 0xFF);
+            }
+        } else {
+            for (int i = width - 1; i >= 0; i--) {
+                value = (value << 8) | (bytes[start + i] & 0xFF);
+            }
+        }
+        return value;
+    }
+
+    private static void encodeUnsigned(ByteBuffer frame, int start, int width, ByteOrder order, long value) {
+        for (int i = 0; i < width; i++) {
+            int shift = order == ByteOrder.BIG_ENDIAN ? 8 * (width - 1 - i) : 8 * i;
+            frame.put(start + i, (byte) (value >>> shift));
+        }
+    }
+
+    /**
+     * Adds the checksum, generic parsers fold it in while packets accumulate.
+     */
+    static final class Checksummed extends FrameSpecDescriptor implements ChecksumDescriptor {
+
+        Checksummed(FrameSpec spec) {
+            super(spec);
+        }
+
+        @Override
+        public boolean verifyAndAcceptPacket(byte[] bytes, int start, int length) {
+            return Checksums.verify(this, bytes, start, length);
+        }
+
+        @Override
+        public ChecksumAlgorithm getChecksumAlgorithm() {
+            return mSpec.getChecksumAlgorithm();
+        }
+
+        @Override
+        public int getChecksumStart() {
+            return mSpec.getChecksumStart();
+        }
+
+        @Override
+        public long decodeChecksum(byte[] bytes, int start) {
+            return decodeUnsigned(bytes, start, mSpec.getTrailerLength(), mSpec.getChecksumOrder());
+        }
+
+        @Override
+        public boolean acceptPacket(byte[] bytes, int start, int length) {
+            return true;
+        }
+    }
+}
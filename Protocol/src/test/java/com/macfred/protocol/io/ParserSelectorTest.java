@@ -0,0 +1,160 @@
+package com.macfred.protocol.io;
+
+import com.macfred.protocol.PacketDescriptor;
+import com.macfred.protocol.parser.PacketReceiver;
+import com.macfred.protocol.spec.FrameSpec;
+import com.macfred.protocol.spec.FrameSpecCompiler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Serves localhost connections and checks a failing callback only closes the connection it was called for.
+ */
+public class ParserSelectorTest {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PACKETS = 1000;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final PacketDescriptor mPacketDescriptor = FrameSpecCompiler.toDescriptor(FrameSpec.builder()
+            .headerMagic((byte) 0xAA, (byte) 0x55)
+            .lengthField(2, 2, ByteOrder.BIG_ENDIAN)
+            .build());
+    private final Queue<Throwable> mFailures = new ConcurrentLinkedQueue<>();
+    private final Queue<IOException> mCloseCauses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mAccepted = new AtomicInteger();
+    private final AtomicInteger mReceivedPackets = new AtomicInteger();
+    private Thread.UncaughtExceptionHandler mDefaultHandler;
+    private ParserSelector mParserSelector;
+
+    @Before
+    public void setUp() throws IOException {
+        mDefaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable e) {
+                mFailures.add(e);
+            }
+        });
+        mParserSelector = new ParserSelector();
+        mParserSelector.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mParserSelector.close();
+        Thread.setDefaultUncaughtExceptionHandler(mDefaultHandler);
+    }
+
+    @Test
+    public void receiverThrowingClosesOnlyItsConnection() throws IOException {
+        SocketAddress address = listen(new ParserSelector.AcceptHandler() {
+            @Override
+            public ParserSelector.Binding onAccepted(SocketChannel channel) {
+                return binding(mAccepted.getAndIncrement() == 0);
+            }
+        });
+        try (SocketChannel failing = SocketChannel.open(address)) {
+            write(failing, 1);
+            awaitEndOfStream(failing);
+        }
+        try (SocketChannel healthy = SocketChannel.open(address)) {
+            write(healthy, PACKETS);
+            awaitPackets(PACKETS);
+        }
+        assertEquals(1, mFailures.size());
+        IOException cause = mCloseCauses.poll();
+        assertNotNull(cause);
+        assertTrue(cause.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void acceptHandlerThrowingClosesOnlyItsChannel() throws IOException {
+        SocketAddress address = listen(new ParserSelector.AcceptHandler() {
+            @Override
+            public ParserSelector.Binding onAccepted(SocketChannel channel) {
+                if (mAccepted.getAndIncrement() == 0) {
+                    throw new IllegalStateException("Accept handler failure");
+                }
+                return binding(false);
+            }
+        });
+        try (SocketChannel rejected = SocketChannel.open(address)) {
+            awaitEndOfStream(rejected);
+        }
+        try (SocketChannel healthy = SocketChannel.open(address)) {
+            write(healthy, PACKETS);
+            awaitPackets(PACKETS);
+        }
+        assertEquals(1, mFailures.size());
+    }
+
+    private SocketAddress listen(ParserSelector.AcceptHandler acceptHandler) throws IOException {
+        return mParserSelector.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), acceptHandler);
+    }
+
+    private ParserSelector.Binding binding(final boolean failing) {
+        return new ParserSelector.Binding(BUFFER_SIZE, mPacketDescriptor, new PacketReceiver() {
+            @Override
+            public void onNewPacket(byte[] bytes, int start, int length) {
+                if (failing) {
+                    throw new IllegalStateException("Receiver failure");
+                }
+                mReceivedPackets.incrementAndGet();
+            }
+        }).setConnectionListener(new ParserSelector.ConnectionListener() {
+            @Override
+            public void onConnected(ParserSelector.Connection connection) {
+            }
+
+            @Override
+            public void onClosed(ParserSelector.Connection connection, IOException cause) {
+                if (cause != null) {
+                    mCloseCauses.add(cause);
+                }
+            }
+        });
+    }
+
+    private static void write(SocketChannel channel, int packets) throws IOException {
+        ByteBuffer stream = ByteBuffer.allocate(packets * 5);
+        for (int i = 0; i < packets; i++) {
+            stream.put((byte) 0xAA).put((byte) 0x55).putShort((short) 5).put((byte) i);
+        }
+        stream.flip();
+        while (stream.hasRemaining()) {
+            channel.write(stream);
+        }
+    }
+
+    private static void awaitEndOfStream(SocketChannel channel) throws IOException {
+        channel.socket().setSoTimeout((int) TimeUnit.NANOSECONDS.toMillis(TIMEOUT_NANOS));
+        assertEquals(-1, channel.socket().getInputStream().read());
+    }
+
+    private void awaitPackets(int packets) {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (mReceivedPackets.get() < packets) {
+            assertTrue(String.format("Received %1d packets out of %2d", mReceivedPackets.get(), packets), System.nanoTime() < deadline);
+            Thread.yield();
+        }
+        assertEquals(packets, mReceivedPackets.get());
+    }
+}